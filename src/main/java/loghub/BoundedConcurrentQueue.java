@@ -0,0 +1,191 @@
+package loghub;
+
+import java.util.AbstractQueue;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Objects;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A bounded {@link BlockingQueue} built on a lock-free {@link ConcurrentLinkedQueue}.
+ * <p>
+ * Two semaphores are used, one counts the free slots, the other one the available elements. So
+ * producers and consumers only contends on CAS operations, and only block when the queue is full
+ * or empty. Unlike {@link java.util.concurrent.ArrayBlockingQueue}, there is no single lock shared by
+ * all the threads.
+ *
+ * @param <E> the type of elements held in this queue
+ */
+public class BoundedConcurrentQueue<E> extends AbstractQueue<E> implements BlockingQueue<E> {
+
+    private final ConcurrentLinkedQueue<E> queue = new ConcurrentLinkedQueue<>();
+    private final Semaphore freeSlots;
+    private final Semaphore elements = new Semaphore(0);
+    private final int capacity;
+
+    public BoundedConcurrentQueue(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Invalid capacity: " + capacity);
+        }
+        this.capacity = capacity;
+        this.freeSlots = new Semaphore(capacity);
+    }
+
+    private void enqueue(E e) {
+        queue.add(e);
+        elements.release();
+    }
+
+    private E dequeue() {
+        E e = queue.poll();
+        freeSlots.release();
+        return e;
+    }
+
+    @Override
+    public boolean offer(E e) {
+        Objects.requireNonNull(e);
+        if (freeSlots.tryAcquire()) {
+            enqueue(e);
+            return true;
+        } else {
+            return false;
+        }
+    }
+
+    @Override
+    public boolean offer(E e, long timeout, TimeUnit unit) throws InterruptedException {
+        Objects.requireNonNull(e);
+        if (freeSlots.tryAcquire(timeout, unit)) {
+            enqueue(e);
+            return true;
+        } else {
+            return false;
+        }
+    }
+
+    @Override
+    public void put(E e) throws InterruptedException {
+        Objects.requireNonNull(e);
+        freeSlots.acquire();
+        enqueue(e);
+    }
+
+    @Override
+    public E poll() {
+        return elements.tryAcquire() ? dequeue() : null;
+    }
+
+    @Override
+    public E poll(long timeout, TimeUnit unit) throws InterruptedException {
+        return elements.tryAcquire(timeout, unit) ? dequeue() : null;
+    }
+
+    @Override
+    public E take() throws InterruptedException {
+        elements.acquire();
+        return dequeue();
+    }
+
+    @Override
+    public E peek() {
+        return queue.peek();
+    }
+
+    /**
+     * Remove an element. An element that a consumer is already taking might not be found.
+     */
+    @Override
+    public boolean remove(Object o) {
+        if (o == null || ! elements.tryAcquire()) {
+            return false;
+        }
+        if (queue.remove(o)) {
+            freeSlots.release();
+            return true;
+        } else {
+            elements.release();
+            return false;
+        }
+    }
+
+    @Override
+    public int drainTo(Collection<? super E> c) {
+        return drainTo(c, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public int drainTo(Collection<? super E> c, int maxElements) {
+        Objects.requireNonNull(c);
+        if (c == this) {
+            throw new IllegalArgumentException("Can't drain to itself");
+        }
+        int count = Math.min(maxElements, elements.availablePermits());
+        // Try to take all the elements in one operation
+        if (count <= 0 || ! elements.tryAcquire(count)) {
+            count = 0;
+            while (count < maxElements && elements.tryAcquire()) {
+                c.add(queue.poll());
+                count++;
+            }
+        } else {
+            for (int i = 0; i < count; i++) {
+                c.add(queue.poll());
+            }
+        }
+        freeSlots.release(count);
+        return count;
+    }
+
+    @Override
+    public int remainingCapacity() {
+        return freeSlots.availablePermits();
+    }
+
+    /**
+     * Return the number of elements available to consumers. It's a constant time operation.
+     */
+    @Override
+    public int size() {
+        return elements.availablePermits();
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * An iterator over the elements, it's weakly consistent.
+     */
+    @Override
+    public Iterator<E> iterator() {
+        Iterator<E> i = queue.iterator();
+        return new Iterator<E>() {
+            private E last = null;
+
+            @Override
+            public boolean hasNext() {
+                return i.hasNext();
+            }
+
+            @Override
+            public E next() {
+                last = i.next();
+                return last;
+            }
+
+            @Override
+            public void remove() {
+                if (last == null) {
+                    throw new IllegalStateException();
+                }
+                BoundedConcurrentQueue.this.remove(last);
+                last = null;
+            }
+        };
+    }
+
+}
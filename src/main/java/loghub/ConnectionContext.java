@@ -46,6 +46,19 @@ public abstract class ConnectionContext<A> implements Serializable {
     public void acknowledge() {
     }
 
+    /**
+     * Return the context for a copy of an event using this context.
+     * <p>
+     * The default is a deep copy that can't acknowledge anything, so this context is acknowledged at once.
+     * A context that tracks acknowledgement must return a context sharing it, so that the acknowledgement
+     * happens only when all the copies are acknowledged.
+     * @return the context to use for the copy
+     */
+    public ConnectionContext<A> duplicate() {
+        acknowledge();
+        return new DeepCopier().copy(this);
+    }
+
     public Principal getPrincipal() {
         return peerPrincipal;
     }
@@ -0,0 +1,241 @@
+package loghub;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.lang.reflect.Array;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.OffsetDateTime;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.regex.Pattern;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * A structural deep copy of the values found in an event.
+ * <p>
+ * Maps, collections and arrays are walked and copied, immutable values are shared. A copy of an
+ * unmodifiable map or collection is unmodifiable too, so the copy can't change what the original could
+ * not. Any other
+ * serializable value is copied using serialization, and the remaining values are shared, as they can't
+ * be copied.
+ * <p>
+ * A copier instance keeps track of the already copied containers, so shared references and cycles are
+ * preserved, as with serialization. So it must be used for a single copy.
+ */
+class DeepCopier {
+
+    private static final Logger logger = LogManager.getLogger();
+
+    private static final Set<Class<?>> IMMUTABLES;
+    static {
+        Set<Class<?>> immutables = new HashSet<>();
+        immutables.add(String.class);
+        immutables.add(Boolean.class);
+        immutables.add(Character.class);
+        immutables.add(Byte.class);
+        immutables.add(Short.class);
+        immutables.add(Integer.class);
+        immutables.add(Long.class);
+        immutables.add(Float.class);
+        immutables.add(Double.class);
+        immutables.add(BigInteger.class);
+        immutables.add(BigDecimal.class);
+        immutables.add(InetSocketAddress.class);
+        immutables.add(URI.class);
+        immutables.add(URL.class);
+        immutables.add(UUID.class);
+        immutables.add(Pattern.class);
+        immutables.add(Locale.class);
+        immutables.add(Instant.class);
+        immutables.add(Duration.class);
+        immutables.add(LocalDate.class);
+        immutables.add(LocalTime.class);
+        immutables.add(LocalDateTime.class);
+        immutables.add(OffsetDateTime.class);
+        immutables.add(ZonedDateTime.class);
+        IMMUTABLES = immutables;
+    }
+
+    private final Map<Object, Object> copied = new IdentityHashMap<>();
+
+    /**
+     * Copy a value
+     * @param value the value to copy
+     * @return the copy, or the value itself if it's immutable or can't be copied.
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T copy(T value) {
+        if (isImmutable(value)) {
+            return value;
+        } else if (value instanceof Date) {
+            return (T) ((Date) value).clone();
+        } else if (copied.containsKey(value)) {
+            return (T) copied.get(value);
+        } else if (value instanceof Map && ! (value instanceof Event)) {
+            return (T) copyMap((Map<Object, Object>) value);
+        } else if (value instanceof Collection) {
+            return (T) copyCollection((Collection<Object>) value);
+        } else if (value.getClass().isArray()) {
+            return (T) copyArray(value);
+        } else {
+            return copyOther(value);
+        }
+    }
+
+    /**
+     * Copy the content of a map in a destination map
+     * @param source the source map
+     * @param destination the destination map
+     */
+    public <K, V> void copyTo(Map<K, V> source, Map<K, V> destination) {
+        copied.put(source, destination);
+        source.forEach((k, v) -> destination.put(copy(k), copy(v)));
+    }
+
+    private boolean isImmutable(Object value) {
+        return value == null
+                        || IMMUTABLES.contains(value.getClass())
+                        || value instanceof Enum
+                        || value instanceof InetAddress
+                        || value instanceof ZoneId
+                        || value instanceof Charset
+                        || value instanceof Class;
+    }
+
+    /**
+     * Detect the unmodifiable wrappers, and the immutable maps and collections, from the JDK.
+     */
+    private boolean isUnmodifiable(Object value) {
+        String className = value.getClass().getName();
+        return className.startsWith("java.util.Collections$Unmodifiable")
+                        || className.startsWith("java.util.Collections$Empty")
+                        || className.startsWith("java.util.Collections$Singleton")
+                        || className.startsWith("java.util.ImmutableCollections$");
+    }
+
+    private Map<Object, Object> copyMap(Map<Object, Object> source) {
+        Map<Object, Object> destination;
+        if (source instanceof SortedMap) {
+            destination = new TreeMap<>(((SortedMap<Object, Object>) source).comparator());
+        } else if (source instanceof LinkedHashMap || isUnmodifiable(source)) {
+            // Unmodifiable maps might be ordered
+            destination = new LinkedHashMap<>(source.size() * 4 / 3 + 1);
+        } else {
+            destination = new HashMap<>(source.size() * 4 / 3 + 1);
+        }
+        Map<Object, Object> copy = destination;
+        if (isUnmodifiable(source)) {
+            // The wrapper is a view, it can be filled after
+            copy = source instanceof SortedMap ? Collections.unmodifiableSortedMap((SortedMap<Object, Object>) destination) : Collections.unmodifiableMap(destination);
+        }
+        copied.put(source, copy);
+        source.forEach((k, v) -> destination.put(copy(k), copy(v)));
+        return copy;
+    }
+
+    private Collection<Object> copyCollection(Collection<Object> source) {
+        Collection<Object> destination;
+        if (source instanceof SortedSet) {
+            destination = new TreeSet<>(((SortedSet<Object>) source).comparator());
+        } else if (source instanceof LinkedHashSet || (source instanceof Set && isUnmodifiable(source))) {
+            destination = new LinkedHashSet<>(source.size() * 4 / 3 + 1);
+        } else if (source instanceof Set) {
+            destination = new HashSet<>(source.size() * 4 / 3 + 1);
+        } else {
+            destination = new ArrayList<>(source.size());
+        }
+        Collection<Object> copy = destination;
+        if (isUnmodifiable(source)) {
+            // The wrapper is a view, it can be filled after
+            if (source instanceof SortedSet) {
+                copy = Collections.unmodifiableSortedSet((SortedSet<Object>) destination);
+            } else if (source instanceof Set) {
+                copy = Collections.unmodifiableSet((Set<Object>) destination);
+            } else if (source instanceof List) {
+                copy = Collections.unmodifiableList((List<Object>) destination);
+            } else {
+                copy = Collections.unmodifiableCollection(destination);
+            }
+        }
+        copied.put(source, copy);
+        source.forEach(i -> destination.add(copy(i)));
+        return copy;
+    }
+
+    private Object copyArray(Object source) {
+        int length = Array.getLength(source);
+        Class<?> componentType = source.getClass().getComponentType();
+        Object destination = Array.newInstance(componentType, length);
+        copied.put(source, destination);
+        if (componentType.isPrimitive()) {
+            System.arraycopy(source, 0, destination, 0, length);
+        } else {
+            Object[] sourceArray = (Object[]) source;
+            Object[] destinationArray = (Object[]) destination;
+            for (int i = 0; i < length; i++) {
+                destinationArray[i] = copy(sourceArray[i]);
+            }
+        }
+        return destination;
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> T copyOther(T value) {
+        T newValue = value;
+        if (value instanceof Serializable) {
+            try {
+                ByteArrayOutputStream bos = new ByteArrayOutputStream();
+                try (ObjectOutputStream oos = new ObjectOutputStream(bos)) {
+                    oos.writeObject(value);
+                }
+                try (ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(bos.toByteArray()))) {
+                    newValue = (T) ois.readObject();
+                }
+            } catch (ClassNotFoundException | IOException ex) {
+                logger.debug("Value {} can't be copied, it will be shared: {}", value.getClass().getName(), Helpers.resolveThrowableException(ex));
+                logger.catching(Level.TRACE, ex);
+            }
+        } else {
+            logger.debug("Value {} can't be copied, it will be shared", value.getClass().getName());
+        }
+        copied.put(value, newValue);
+        return newValue;
+    }
+
+}
@@ -51,6 +51,14 @@ public abstract class Event extends HashMap<String, Object> implements Serializa
         return applyAtPath(f, path, value, false);
     }
 
+    public Object applyAtPath(Action f, FieldPath path, Object value) throws ProcessorException {
+        return applyAtPath(f, path.segments, value, false);
+    }
+
+    public Object applyAtPath(Action f, FieldPath path, Object value, boolean create) throws ProcessorException {
+        return applyAtPath(f, path.segments, value, create);
+    }
+
     @SuppressWarnings("unchecked")
     public Object applyAtPath(Action f, String[] path, Object value, boolean create) throws ProcessorException {
         Map<String, Object> current = this;
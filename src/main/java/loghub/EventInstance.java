@@ -1,29 +1,20 @@
 package loghub;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
-import java.io.IOException;
-import java.io.NotSerializableException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Date;
 import java.util.Deque;
 import java.util.HashMap;
-import java.util.LinkedList;
 import java.util.List;
-import java.util.ListIterator;
 import java.util.Map;
 import java.util.NoSuchElementException;
-import java.util.Optional;
 import java.util.Queue;
 import java.util.concurrent.BlockingQueue;
 import java.util.function.BiFunction;
 import java.util.stream.Stream;
 
-import org.apache.logging.log4j.Level;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
@@ -31,20 +22,28 @@ import com.codahale.metrics.Timer.Context;
 
 import loghub.PausingTimer.PausingContext;
 import loghub.configuration.Properties;
+import loghub.configuration.Properties.MetricRegistryWrapper.AllEventsMetrics;
 
 class EventInstance extends Event {
 
     static private final class PreSubpipline extends Processor {
+        private final Pipeline pipeline;
+        private final Logger eventLogger;
+        PreSubpipline(Pipeline pipeline) {
+            super(EventInstance.logger);
+            this.pipeline = pipeline;
+            this.eventLogger = LogManager.getLogger("loghub.eventlogger." + pipeline.getName());
+        }
+
         @Override
         public boolean process(Event event) throws ProcessorException {
             PausingContext previouspc = event.getRealEvent().timersStack.peek();
             if (previouspc != null) {
                 previouspc.pause();
             }
-            String pipename = event.getRealEvent().pipelineNames.remove();
-            PausingContext newpc = (PausingContext) Properties.metrics.pausingTimer("Pipeline." + pipename + ".timer").time();
+            PausingContext newpc = (PausingContext) pipeline.getMetrics().timer.time();
             event.getRealEvent().timersStack.add(newpc);
-            LogManager.getLogger("loghub.eventlogger." + pipename).debug("Start processing event {}", event);;
+            eventLogger.debug("Start processing event {}", event);;
             return true;
         }
 
@@ -86,17 +85,49 @@ class EventInstance extends Event {
         }
     }
 
-    static private final PreSubpipline preSubpipline = new PreSubpipline();
+    /**
+     * A position in a flattened list of processors
+     */
+    static private final class Frame {
+        private final Processor[] program;
+        private int pc;
+        Frame(Processor[] program, int pc) {
+            this.program = program;
+            this.pc = pc;
+        }
+        @Override
+        public String toString() {
+            return Arrays.asList(program).subList(pc, program.length).toString();
+        }
+    }
+
+    private static final Logger logger = LogManager.getLogger();
+
     static private final PostSubpipline postSubpipline = new PostSubpipline();
 
     static boolean configure(Properties props) {
-        return postSubpipline.configure(props) && preSubpipline.configure(props);
+        return postSubpipline.configure(props);
     }
 
-    private static final Logger logger = LogManager.getLogger();
+    /**
+     * Build the processor that starts the processing of an event in a named pipeline.
+     * @param pipeline the pipeline
+     * @return the processor
+     */
+    static Processor enterPipeline(Pipeline pipeline) {
+        return new PreSubpipline(pipeline);
+    }
+
+    /**
+     * @return the processor that ends the processing of an event in a named pipeline.
+     */
+    static Processor exitPipeline() {
+        return postSubpipline;
+    }
 
     private transient EventWrapper wevent;
-    private transient LinkedList<Processor> processors;
+    // The processors still to run, as a stack of positions in flattened programs
+    private transient Deque<Frame> frames;
 
     private String currentPipeline;
     private String nextPipeline;
@@ -110,7 +141,6 @@ class EventInstance extends Event {
 
     // The context for exact pipeline timine
     private transient Queue<PausingContext> timersStack;
-    private transient Deque<String> pipelineNames;
 
     EventInstance(ConnectionContext<?> ctx) {
         this(ctx, false);
@@ -130,15 +160,15 @@ class EventInstance extends Event {
      */
     private Object readResolve() {
         if (!test) {
-            timer = Properties.metrics.timer("Allevents.timer").time();
-            Properties.metrics.counter("Allevents.inflight").inc();
+            AllEventsMetrics allEvents = Properties.metrics.allEvents();
+            timer = allEvents.timer.time();
+            allEvents.inflight.inc();
         } else {
             timer = null;
         }
-        processors = new LinkedList<>();
+        frames = new ArrayDeque<>();
         wevent = null;
         timersStack = Collections.asLifoQueue(new ArrayDeque<PausingContext>());
-        pipelineNames = new ArrayDeque<>();
         return this;
     }
 
@@ -147,7 +177,7 @@ class EventInstance extends Event {
         ctx.acknowledge();
         if(! test) {
             timer.close();
-            Properties.metrics.counter("Allevents.inflight").dec();
+            Properties.metrics.allEvents().inflight.dec();
         } else {
             synchronized(this) {
                 notify();
@@ -158,34 +188,26 @@ class EventInstance extends Event {
     /**
      * Return a deep copy of the event.
      * <p>
-     * It work by doing serialize/deserialize of the event. So a event must
-     * only contains serializable object to make it works.
+     * It work by walking the content of the event, see {@link DeepCopier} for details. Values that can't be
+     * copied are shared between the two events.
+     * <p>
+     * The copy gets its connection context from {@link ConnectionContext#duplicate()}, so an acknowledgement
+     * tracked by the context waits for both events.
      * <p>
      * It will not duplicate a test event
      * <p>
      * @return a copy of this event, with a different key
      */
     public Event duplicate() {
-        ctx.acknowledge();
-        try {
-            ByteArrayOutputStream bos = new ByteArrayOutputStream();
-            ObjectOutputStream oos = new ObjectOutputStream(bos);
-            oos.writeObject(this);
-            oos.flush();
-            oos.close();
-            bos.close();
-            byte[] byteData = bos.toByteArray();
-            ByteArrayInputStream bais = new ByteArrayInputStream(byteData);
-            return (EventInstance) new ObjectInputStream(bais).readObject();
-        } catch (NotSerializableException ex) {
-            logger.info("Event copy failed: {}", ex.getMessage());
-            logger.catching(Level.DEBUG, ex);
-            return null;
-        } catch (ClassNotFoundException | IOException ex) {
-            logger.fatal("Event copy failed: {}", ex.getMessage());
-            logger.catching(Level.FATAL, ex);
-            return null;
-        }
+        DeepCopier copier = new DeepCopier();
+        EventInstance newEvent = new EventInstance(ctx.duplicate(), test);
+        copier.copyTo(this, newEvent);
+        copier.copyTo(metas, newEvent.metas);
+        newEvent.currentPipeline = currentPipeline;
+        newEvent.nextPipeline = nextPipeline;
+        newEvent.timestamp = copier.copy(timestamp);
+        newEvent.stepsCount = stepsCount;
+        return newEvent;
     }
 
     @Override
@@ -195,89 +217,65 @@ class EventInstance extends Event {
 
     public Processor next() {
         stepsCount++;
-        logger.debug("waiting processors {}", processors);
-        try {
-            return processors.pop();
-        } catch (NoSuchElementException e) {
-            wevent = null;
-            return null;
+        logger.debug("waiting processors {}", frames);
+        Frame f;
+        while ((f = frames.peekFirst()) != null) {
+            if (f.pc < f.program.length) {
+                return f.program[f.pc++];
+            } else {
+                frames.removeFirst();
+            }
         }
+        wevent = null;
+        return null;
     }
 
     public void insertProcessor(Processor p) {
-        addProcessor(p, false);
+        logger.trace("inject processor {} at start", p);
+        frames.addFirst(new Frame(toProgram(p), 0));
     }
 
     public void appendProcessor(Processor p) {
-        addProcessor(p, true);
+        logger.trace("inject processor {} at end", p);
+        frames.addLast(new Frame(toProgram(p), 0));
     }
 
     public void insertProcessors(List<Processor> p) {
-        addProcessors(p, false);
+        frames.addFirst(new Frame(toProgram(p), 0));
     }
 
     public void appendProcessors(List<Processor> p) {
-        addProcessors(p, true);
+        frames.addLast(new Frame(toProgram(p), 0));
     }
 
-    private void addProcessors(List<Processor> newProcessors, boolean append) {
-        ListIterator<Processor> i = newProcessors.listIterator(append ? 0 : newProcessors.size());
-        while(append ? i.hasNext() : i.hasPrevious()) {
-            Processor p = append ? i.next() : i.previous();
-            addProcessor(p, append);
-        }
-    }
-
-    private void addProcessor(Processor p, boolean append) {
-        logger.trace("inject processor {} at {}", () -> p, () -> append ? "end" : "start" );
+    private Processor[] toProgram(Processor p) {
         if (p instanceof SubPipeline) {
-            SubPipeline sp = (SubPipeline) p;
-            Optional<String> pipename = Optional.ofNullable(sp.getPipeline().getName());
-            List<Processor> newProcessors = new ArrayList<>(sp.getPipeline().processors.size() + 2);
-            pipename.ifPresent(s -> {
-                pipelineNames.add(s);
-                newProcessors.add(preSubpipline);
-            });
-            newProcessors.addAll(sp.getPipeline().processors);
-            pipename.ifPresent( s -> newProcessors.add(postSubpipline));
-            addProcessors(newProcessors, append);
+            return ((SubPipeline) p).getPipeline().getProgram();
         } else {
-            if (append) {
-                processors.add(p);
-            } else {
-                processors.addFirst(p);
-            }
+            return new Processor[] {p};
         }
     }
 
+    private Processor[] toProgram(List<Processor> processors) {
+        List<Processor> steps = new ArrayList<>(processors.size());
+        Pipeline.flatten(processors, steps);
+        return steps.toArray(new Processor[steps.size()]);
+    }
+
     @Override
     public void refill(Pipeline pipeline) {
-        Optional<String> pipename = Optional.ofNullable(pipeline.getName());
-        pipename.ifPresent( s -> {
-            currentPipeline = s;
-            pipelineNames.add(currentPipeline);
-            appendProcessor(preSubpipline);
-        });
+        if (pipeline.getName() != null) {
+            currentPipeline = pipeline.getName();
+        }
         nextPipeline = pipeline.nextPipeline;
-        appendProcessors(pipeline.processors);
-        pipename.ifPresent( s -> {
-            appendProcessor(postSubpipline);
-        });
+        frames.addLast(new Frame(pipeline.getProgram(), 0));
     }
 
     /* (non-Javadoc)
      * @see loghub.Event#inject(loghub.Pipeline, java.util.concurrent.BlockingQueue, boolean)
      */
     public boolean inject(Pipeline pipeline, BlockingQueue<Event> mainqueue, boolean blocking) {
-        nextPipeline = pipeline.nextPipeline;
-        Optional<String>pipeName = Optional.ofNullable(pipeline.getName());
-        pipeName.ifPresent( s -> {
-            currentPipeline = s;
-            pipelineNames.add(currentPipeline);
-            appendProcessor(preSubpipline);
-        });
-        appendProcessors(pipeline.processors);
-        pipeName.ifPresent( s -> appendProcessor(postSubpipline));
+        refill(pipeline);
         if (blocking) {
             try {
                 mainqueue.put(this);
@@ -298,15 +296,25 @@ class EventInstance extends Event {
         EventInstance master = ev.getRealEvent();
         currentPipeline = master.currentPipeline;
         nextPipeline = master.nextPipeline;
-        appendProcessors(master.processors);
+        master.frames.forEach(f -> frames.addLast(new Frame(f.program, f.pc)));
+        // The copy will run the end of the open pipelines, so it needs its own timers for them,
+        // started from the outermost one, only the innermost is running
+        List<PausingContext> masterTimers = new ArrayList<>(master.timersStack);
+        Collections.reverse(masterTimers);
+        for (PausingContext pc: masterTimers) {
+            PausingContext previouspc = timersStack.peek();
+            if (previouspc != null) {
+                previouspc.pause();
+            }
+            timersStack.add(pc.fork());
+        }
         return mainqueue.offer(this);
     }
 
     public void finishPipeline() {
         timersStack.forEach(PausingContext::close);
         timersStack.clear();
-        pipelineNames.clear();
-        processors.clear();
+        frames.clear();
     }
 
     public String getCurrentPipeline() {
@@ -45,8 +45,8 @@ class EventWrapper extends Event {
         if(key == null) {
             lpath = path;
         } else if(key.startsWith(".")) {
-            String[] tpath = key.substring(1).split(".");
-            lpath = tpath.length == 0 ? new String[] {key.substring(1)} : tpath;
+            FieldPath tpath = FieldPath.parse(key.substring(1));
+            lpath = tpath.size() == 0 ? new String[] {key.substring(1)} : tpath.segments;
         } else if(key.startsWith("@") || key.startsWith("#")) {
             // If key is a meta, don't append the path
             lpath = new String[] {key};
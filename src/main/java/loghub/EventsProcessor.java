@@ -1,6 +1,8 @@
 package loghub;
 
+import java.util.ArrayDeque;
 import java.util.Map;
+import java.util.Queue;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -15,6 +17,7 @@ import com.codahale.metrics.Counter;
 import io.netty.util.concurrent.Future;
 import loghub.PausedEvent.Builder;
 import loghub.configuration.Properties;
+import loghub.configuration.Properties.MetricRegistryWrapper.PipelineMetrics;
 import loghub.configuration.TestEventProcessing;
 import loghub.processors.Drop;
 import loghub.processors.Forker;
@@ -42,20 +45,41 @@ public class EventsProcessor extends Thread {
     private final Map<String,Pipeline> namedPipelines;
     private final int maxSteps;
     private final EventsRepository<Future<?>> evrepo;
+    private final int batchSize;
 
     public EventsProcessor(BlockingQueue<Event> inQueue, Map<String, BlockingQueue<Event>> outQueues, Map<String,Pipeline> namedPipelines, int maxSteps, EventsRepository<Future<?>> evrepo) {
+        this(inQueue, outQueues, namedPipelines, maxSteps, evrepo, 1);
+    }
+
+    /**
+     * @param inQueue the queue where events are taken
+     * @param outQueues the queues where processed events are sent
+     * @param namedPipelines the pipelines
+     * @param maxSteps the maximum number of steps allowed for an event
+     * @param evrepo the paused events repository
+     * @param batchSize if greater than 1, events are drained from the input queue by batch of at most that size
+     */
+    public EventsProcessor(BlockingQueue<Event> inQueue, Map<String, BlockingQueue<Event>> outQueues, Map<String,Pipeline> namedPipelines, int maxSteps, EventsRepository<Future<?>> evrepo, int batchSize) {
         this.inQueue = inQueue;
         this.outQueues = outQueues;
         this.namedPipelines = namedPipelines;
         this.maxSteps = maxSteps;
         this.evrepo = evrepo;
+        this.batchSize = Math.max(1, batchSize);
         setName("EventsProcessor/" + id.getAndIncrement());
         setDaemon(false);
     }
 
     @Override
     public void run() {
-        final AtomicReference<Counter> gaugecounter = new AtomicReference<>();
+        if (batchSize > 1) {
+            runBatch();
+        } else {
+            runSingle();
+        }
+    }
+
+    private void runSingle() {
         while (! isInterrupted()) {
             Event event = null;
             try {
@@ -64,114 +88,155 @@ public class EventsProcessor extends Thread {
                 Thread.currentThread().interrupt();
                 break;
             }
-            { // Needed because eventtemp must be final
-                final Event eventtemp  = event;
-                event.doMetric(() -> {
-                    gaugecounter.set(Properties.metrics.counter("Pipeline." + eventtemp.getCurrentPipeline() + ".inflight"));
-                    gaugecounter.get().inc();
-                });
+            processEvent(event);
+        }
+    }
+
+    /**
+     * Wait for one event, and then drain all the available events, up to batchSize, in a local buffer.
+     * The input queue is accessed once for the whole batch.
+     */
+    private void runBatch() {
+        Queue<Event> buffer = new ArrayDeque<>(batchSize);
+        while (! isInterrupted()) {
+            try {
+                buffer.add(inQueue.take());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
             }
-            { // Needed because eventtemp must be final
-                final Event eventtemp  = event;
-                logger.trace("received {} in {}", () -> eventtemp, () -> eventtemp.getCurrentPipeline());
+            inQueue.drainTo(buffer, batchSize - 1);
+            Event event;
+            while (! isInterrupted() && (event = buffer.poll()) != null) {
+                processEvent(event);
             }
-            Processor processor = event.next();
-            while (processor != null) {
-                logger.trace("processing with {}", processor);
-                if (processor instanceof WrapEvent) {
-                    event = new EventWrapper(event, processor.getPathArray());
-                } else if (processor instanceof UnwrapEvent) {
-                    event = event.unwrap();
-                } else {
-                    ProcessingStatus processingstatus = process(event, processor);
-                    if (processingstatus != ProcessingStatus.SUCCESS) {
+        }
+        // Stopped while some events were drained, give them back to the other workers
+        Event event;
+        while ((event = buffer.poll()) != null) {
+            if (! inQueue.offer(event)) {
+                logger.debug("Dropping event {} on shutdown", event);
+                Stats.dropped.incrementAndGet();
+                event.end();
+            }
+        }
+    }
+
+    private void processEvent(Event event) {
+        final AtomicReference<Counter> gaugecounter = new AtomicReference<>();
+        { // Needed because eventtemp must be final
+            final Event eventtemp  = event;
+            event.doMetric(() -> {
+                gaugecounter.set(getPipelineMetrics(eventtemp.getCurrentPipeline()).inflight);
+                gaugecounter.get().inc();
+            });
+        }
+        { // Needed because eventtemp must be final
+            final Event eventtemp  = event;
+            logger.trace("received {} in {}", () -> eventtemp, () -> eventtemp.getCurrentPipeline());
+        }
+        Processor processor = event.next();
+        while (processor != null) {
+            logger.trace("processing with {}", processor);
+            if (processor instanceof WrapEvent) {
+                event = new EventWrapper(event, processor.getPathArray());
+            } else if (processor instanceof UnwrapEvent) {
+                event = event.unwrap();
+            } else {
+                ProcessingStatus processingstatus = process(event, processor);
+                if (processingstatus != ProcessingStatus.SUCCESS) {
+                    event.doMetric(() -> {
+                        gaugecounter.get().dec();
+                        gaugecounter.set(null);
+                    });
+                    // Processing status was non null, so the event will not be processed any more
+                    // But it's needed to check why.
+                    String currentPipeline = event.getCurrentPipeline();
+                    switch (processingstatus) {
+                    case DROPED: {
+                        //It was a drop action
+                        logger.debug("dropped event {}", event);
+                        event.doMetric(() -> {
+                            Properties.metrics.allEvents().dropped.mark();
+                            getPipelineMetrics(currentPipeline).dropped.mark();
+                        });
+                        event.drop();
+                        break;
+                    }
+                    case FAILED: {
+                        //Processing failed critically (with an exception) and no recovery was attempted
+                        logger.debug("Failed event {}", event);
                         event.doMetric(() -> {
-                            gaugecounter.get().dec();
-                            gaugecounter.set(null);
+                            Properties.metrics.allEvents().failed.mark();
+                            getPipelineMetrics(currentPipeline).failed.mark();
                         });
-                        // Processing status was non null, so the event will not be processed any more
-                        // But it's needed to check why.
-                        String currentPipeline = event.getCurrentPipeline();
-                        switch (processingstatus) {
-                        case DROPED: {
-                            //It was a drop action
-                            logger.debug("dropped event {}", event);
-                            event.doMetric(() -> {
-                                Properties.metrics.meter("Allevents.dropped");
-                                Properties.metrics.meter("Pipeline." + currentPipeline + ".dropped").mark();
-                            });
-                            event.drop();
-                            break;
-                        }
-                        case FAILED: {
-                            //Processing failed critically (with an exception) and no recovery was attempted
-                            logger.debug("Failed event {}", event);
-                            event.doMetric(() -> {
-                                Properties.metrics.meter("Allevents.failed");
-                                Properties.metrics.meter("Pipeline." + currentPipeline + ".failed").mark();
-                            });
-                            event.end();
-                            break;
-                        }
-                        case PAUSED:
-                            //It's simply a paused event, nothing to worry
-                            break;
-                        case SUCCESS:
-                            // Unreachable code
-                            break;
-                        }
-                        // It was not a success, end the processing.
-                        event = null;
+                        event.end();
+                        break;
+                    }
+                    case PAUSED:
+                        //It's simply a paused event, nothing to worry
+                        break;
+                    case SUCCESS:
+                        // Unreachable code
                         break;
                     }
+                    // It was not a success, end the processing.
+                    event = null;
+                    break;
                 }
+            }
+            processor = event.next();
+            // If next processor is null, refill the event
+            while (processor == null && event.getNextPipeline() != null) {
+                logger.trace("next processor is {}", processor);
+                // Send to another pipeline, loop in the main processing queue
+                Pipeline next = namedPipelines.get(event.getNextPipeline());
+                event.refill(next);
                 processor = event.next();
-                // If next processor is null, refill the event
-                while (processor == null && event.getNextPipeline() != null) {
-                    logger.trace("next processor is {}", processor);
-                    // Send to another pipeline, loop in the main processing queue
-                    Pipeline next = namedPipelines.get(event.getNextPipeline());
-                    event.refill(next);
-                    processor = event.next();
-                }
             }
-            logger.trace("event is now {}", event);
-            // Processing of the event is finished, what to do next with it ?
-            //Detect if will send to another pipeline, or just wait for a sender to take it
-            if (event != null) {
-                event.doMetric(() -> {
-                    gaugecounter.get().dec();
-                    gaugecounter.set(null);
-                });
-                if (event.isTest()) {
-                    // A test event, it will not be send an output queue
-                    // Checked after pipeline forwarding, but before output sending
-                    TestEventProcessing.log(event);
-                    event.end();
-                } else if (event.getCurrentPipeline() != null && outQueues.containsKey(event.getCurrentPipeline())){
-                    // Put in the output queue, where the wanting output will come to take it
-                    try {
-                        outQueues.get(event.getCurrentPipeline()).put(event);
-                    } catch (InterruptedException e) {
-                        Stats.dropped.incrementAndGet();
-                        event.end();
-                        Thread.currentThread().interrupt();
-                    }
-                } else if (event.getCurrentPipeline() != null && ! outQueues.containsKey(event.getCurrentPipeline())){
-                    Stats.newException(new IllegalArgumentException("No sender consumming pipeline " + event.getCurrentPipeline()));
-                    logger.debug("No sender using pipeline {} for event {}", event.getCurrentPipeline(), event);
-                    Properties.metrics.meter("Allevents.failed");
-                    event.end();
-                } else {
-                    Stats.newException(new IllegalStateException("Invalid end state for event, no pipelin "));
-                    logger.debug("Invalid end state for event {}", event);
-                    Properties.metrics.meter("Allevents.failed");
+        }
+        logger.trace("event is now {}", event);
+        // Processing of the event is finished, what to do next with it ?
+        //Detect if will send to another pipeline, or just wait for a sender to take it
+        if (event != null) {
+            event.doMetric(() -> {
+                gaugecounter.get().dec();
+                gaugecounter.set(null);
+            });
+            if (event.isTest()) {
+                // A test event, it will not be send an output queue
+                // Checked after pipeline forwarding, but before output sending
+                TestEventProcessing.log(event);
+                event.end();
+            } else if (event.getCurrentPipeline() != null && outQueues.containsKey(event.getCurrentPipeline())){
+                // Put in the output queue, where the wanting output will come to take it
+                try {
+                    outQueues.get(event.getCurrentPipeline()).put(event);
+                } catch (InterruptedException e) {
+                    Stats.dropped.incrementAndGet();
                     event.end();
+                    Thread.currentThread().interrupt();
                 }
+            } else if (event.getCurrentPipeline() != null && ! outQueues.containsKey(event.getCurrentPipeline())){
+                Stats.newException(new IllegalArgumentException("No sender consumming pipeline " + event.getCurrentPipeline()));
+                logger.debug("No sender using pipeline {} for event {}", event.getCurrentPipeline(), event);
+                Properties.metrics.allEvents().failed.mark();
+                event.end();
+            } else {
+                Stats.newException(new IllegalStateException("Invalid end state for event, no pipelin "));
+                logger.debug("Invalid end state for event {}", event);
+                Properties.metrics.allEvents().failed.mark();
+                event.end();
             }
         }
     }
 
+    private PipelineMetrics getPipelineMetrics(String name) {
+        Pipeline pipe = namedPipelines.get(name);
+        // An event without a current pipeline is accounted in the "Pipeline.null" metrics
+        return pipe != null ? pipe.getMetrics() : Properties.metrics.pipelineMetrics(String.valueOf(name));
+    }
+
     ProcessingStatus process(Event e, Processor p) {
         ProcessingStatus status = null;
         if (p instanceof Forker) {
@@ -232,7 +297,7 @@ public class EventsProcessor extends Thread {
                     evrepo.pause(paused);
                     status = ProcessingStatus.PAUSED;
                 } else {
-                    Properties.metrics.counter("Pipeline." + e.getCurrentPipeline() + ".exception").inc();
+                    getPipelineMetrics(e.getCurrentPipeline()).exception.inc();
                     Exception cce = new ClassCastException("A not AsyncProcessor throws a asynchronous operation: " + p.getClass().getCanonicalName());
                     Stats.newException(cce);
                     logger.error("A not AsyncProcessor {} throws a asynchronous operation", p);
@@ -262,7 +327,7 @@ public class EventsProcessor extends Thread {
                     throw ex;
                 }
                 e.doMetric(() -> {
-                    Properties.metrics.counter("Pipeline." + e.getCurrentPipeline() + ".exception").inc();
+                    getPipelineMetrics(e.getCurrentPipeline()).exception.inc();
                     Stats.newException(ex);
                 });
                 logger.error("failed to transform event {} with unmanaged error {}", e, Helpers.resolveThrowableException(ex));
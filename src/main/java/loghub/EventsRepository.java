@@ -11,6 +11,8 @@ import java.util.function.Function;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+import com.codahale.metrics.Counter;
+
 import io.netty.util.HashedWheelTimer;
 import io.netty.util.Timeout;
 import loghub.configuration.Properties;
@@ -36,16 +38,18 @@ public class EventsRepository<KEY> {
     private final Map<KEY, Timeout> waiting = new ConcurrentHashMap<>();
     private final BlockingQueue<Event> mainQueue;
     private final Map<String, Pipeline> pipelines;
+    private final Counter pausedCount;
 
     public EventsRepository(Properties properties) {
         mainQueue = properties.mainQueue;
         pipelines = properties.namedPipeLine;
+        pausedCount = Properties.metrics.counter("paused");
     }
 
     public PausedEvent<KEY> pause(PausedEvent<KEY> paused) {
         logger.trace("Pausing {}", paused);
         pausestack.put(paused.key, paused);
-        Properties.metrics.counter("paused").inc();
+        pausedCount.inc();
         if (paused.duration > 0 && paused.unit != null) {
             waiting.put(paused.key, processExpiration.newTimeout(i -> timeout(paused.key), paused.duration, paused.unit));
         }
@@ -55,7 +59,7 @@ public class EventsRepository<KEY> {
     public PausedEvent<KEY> cancel(KEY key) {
         PausedEvent<KEY> pe = pausestack.remove(key);
         if (pe != null) {
-            Properties.metrics.counter("paused").dec();
+            pausedCount.dec();
         } else {
             logger.warn("removed illegal event with key {}", key);
         }
@@ -91,7 +95,7 @@ public class EventsRepository<KEY> {
         if (pe == null) {
             return true;
         }
-        Properties.metrics.counter("paused").dec();
+        pausedCount.dec();
         logger.trace("Waking up event {}", pe.event);
         pe.event.insertProcessor(source.apply(pe));
         return transform.apply(pe).apply(pe.event).inject(pipelines.get(pe.pipeline), mainQueue);
@@ -114,7 +118,7 @@ public class EventsRepository<KEY> {
             if (paused.duration > 0 && paused.unit != null) {
                 waiting.put(key, processExpiration.newTimeout(j -> this.timeout(key), paused.duration, paused.unit));
             }
-            Properties.metrics.counter("paused").inc();
+            pausedCount.inc();
             return paused;
         });
     }
@@ -1,15 +1,20 @@
 package loghub;
 
 import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
 
 import org.apache.logging.log4j.Level;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.codehaus.groovy.control.CompilationFailedException;
 
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Timer;
+
 import groovy.lang.Binding;
 import groovy.lang.GroovyClassLoader;
 import groovy.lang.Script;
+import loghub.configuration.Properties;
 
 public class Expression {
 
@@ -25,27 +30,72 @@ public class Expression {
         }
     }
 
+    /**
+     * A natively compiled expression, see {@link ExpressionCompiler}
+     */
+    @FunctionalInterface
+    interface Evaluator {
+        Object eval(Event event) throws ProcessorException;
+    }
+
     private static final Logger logger = LogManager.getLogger();
 
-    private static final Binding EMPTYBIDDING = new Binding();
+    // Only one evaluation out of SAMPLING is timed, a timer update is too costly to be done for each event
+    private static final int SAMPLING = 64;
 
     private final String expression;
-    private Map<String, VarFormatter> formatters;
+    private final Map<String, VarFormatter> formatters;
+    private final Evaluator compiled;
+    // Each thread get it's own script and binding, so evaluation don't need any lock
     private final ThreadLocal<Script> groovyScript;
+    private final Counter count;
+    private final Timer timer;
 
-    @SuppressWarnings("unchecked")
     public Expression(String expression, GroovyClassLoader loader, Map<String, VarFormatter> formatters) throws ExpressionException {
+        this(expression, loader, formatters, null);
+    }
+
+    /**
+     * @param expression the expression source
+     * @param loader the class loader used if groovy is needed
+     * @param formatters the formatters used by the expression
+     * @param name the name of the metrics for this expression, usually build from the processor location, or null for no metrics
+     * @throws ExpressionException if the expression can't be compiled
+     */
+    public Expression(String expression, GroovyClassLoader loader, Map<String, VarFormatter> formatters, String name) throws ExpressionException {
         logger.trace("adding expression {}", expression);
         this.expression = expression;
+        this.formatters = formatters;
+        if (name != null) {
+            count = Properties.metrics.counter("Expression." + name + ".count");
+            timer = Properties.metrics.timer("Expression." + name + ".timer");
+        } else {
+            count = null;
+            timer = null;
+        }
+        compiled = ExpressionCompiler.compile(expression, formatters);
+        if (compiled != null) {
+            logger.debug("expression {} compiled natively, metrics name {}", expression, name);
+            groovyScript = null;
+        } else {
+            logger.debug("expression {} compiled with groovy, metrics name {}", expression, name);
+            groovyScript = compileGroovy(expression, loader);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static ThreadLocal<Script> compileGroovy(String expression, GroovyClassLoader loader) throws ExpressionException {
         Class<Script> groovyClass;
         try {
             groovyClass = loader.parseClass(expression);
         } catch (CompilationFailedException e) {
             throw new ExpressionException(e);
         }
-        groovyScript = ThreadLocal.withInitial(() -> {
+        ThreadLocal<Script> groovyScript = ThreadLocal.withInitial(() -> {
             try {
-                return groovyClass.newInstance();
+                Script script = groovyClass.newInstance();
+                script.setBinding(new Binding());
+                return script;
             } catch (IllegalAccessException | InstantiationException e) {
                 throw new UnsupportedOperationException(e);
             }
@@ -60,27 +110,68 @@ public class Expression {
         } catch (UnsupportedOperationException e) {
             throw new ExpressionException(e);
         }
-        this.formatters = formatters;
+        return groovyScript;
     }
 
-    public synchronized Object eval(Event event) throws ProcessorException {
+    /**
+     * Evaluate the expression for the given event. If it was compiled natively, no groovy code is used at all.
+     * Otherwise, all the state used is confined to the calling thread: the script and it's binding are reused
+     * between call, so no lock is needed.
+     * @param event the event to evaluate
+     * @return the result of the expression
+     * @throws ProcessorException if the evaluation failed
+     */
+    public Object eval(Event event) throws ProcessorException {
         logger.trace("Evaluating script {} with formatters {}", expression, formatters);
-        Binding groovyBinding = new Binding();
-        groovyBinding.setVariable("event", event);
-        groovyBinding.setVariable("formatters", formatters);
+        if (count == null) {
+            return evalDirect(event);
+        }
+        count.inc();
+        if (ThreadLocalRandom.current().nextInt(SAMPLING) != 0) {
+            return evalDirect(event);
+        }
+        Timer.Context tctx = timer.time();
+        try {
+            return evalDirect(event);
+        } finally {
+            tctx.stop();
+        }
+    }
+
+    private Object evalDirect(Event event) throws ProcessorException {
+        if (compiled != null) {
+            return evalCompiled(event);
+        } else {
+            return evalGroovy(event);
+        }
+    }
+
+    private Object evalCompiled(Event event) throws ProcessorException {
+        try {
+            return compiled.eval(event);
+        } catch (Exception e) {
+            throw event.buildException(String.format("failed expression '%s': %s", expression, Helpers.resolveThrowableException(e)));
+        }
+    }
+
+    private Object evalGroovy(Event event) throws ProcessorException {
         Script localscript;
         try {
             localscript = groovyScript.get();
         } catch (UnsupportedOperationException e) {
             throw event.buildException(String.format("script compilation failed '%s': %s", expression, e.getCause().getMessage()));
         }
-        localscript.setBinding(groovyBinding);
+        @SuppressWarnings("unchecked")
+        Map<String, Object> variables = localscript.getBinding().getVariables();
+        variables.put("event", event);
+        variables.put("formatters", formatters);
         try {
             return localscript.run();
         } catch (Exception e) {
             throw event.buildException(String.format("failed expression '%s': %s", expression, Helpers.resolveThrowableException(e)));
         } finally {
-            localscript.setBinding(EMPTYBIDDING);
+            // Don't keep a reference to the event, nor any variable created by the script
+            variables.clear();
         }
     }
 
@@ -91,6 +182,13 @@ public class Expression {
         return expression;
     }
 
+    /**
+     * @return true if the expression was compiled natively, false if it's evaluated by groovy
+     */
+    public boolean isCompiled() {
+        return compiled != null;
+    }
+
     public static void logError(ExpressionException e, String source, Logger logger) {
         Throwable cause = e.getCause();
         if (cause instanceof CompilationFailedException) {
@@ -0,0 +1,544 @@
+package loghub;
+
+import java.lang.reflect.UndeclaredThrowableException;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BinaryOperator;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import org.codehaus.groovy.runtime.InvokerHelper;
+import org.codehaus.groovy.runtime.ScriptBytecodeAdapter;
+import org.codehaus.groovy.runtime.StringGroovyMethods;
+import org.codehaus.groovy.runtime.typehandling.DefaultTypeTransformation;
+import org.codehaus.groovy.runtime.typehandling.NumberMath;
+
+import loghub.Expression.Evaluator;
+
+/**
+ * Compile the groovy source generated by the configuration parser to a tree of lambdas.
+ * <p>
+ * Only a subset of groovy is recognized: event paths, metas and timestamp, literals, lists, formatters,
+ * comparisons, boolean logic, arithmetic and regex match. The operators are resolved using the groovy runtime
+ * helpers, so the semantic is the same than the one of a script, but without the dynamic dispatch and the binding.
+ * <p>
+ * If anything else is found, {@link #compile(String, Map)} returns null and the caller should use a groovy script.
+ */
+class ExpressionCompiler {
+
+    private static final class UnsupportedExpression extends Exception {
+        private static final long serialVersionUID = 1L;
+        UnsupportedExpression() {
+            super(null, null, false, false);
+        }
+    }
+
+    // Reused, it's only a control flow marker
+    private static final UnsupportedExpression UNSUPPORTED = new UnsupportedExpression();
+
+    private final String source;
+    private final Map<String, VarFormatter> formatters;
+    private int pos = 0;
+
+    private ExpressionCompiler(String source, Map<String, VarFormatter> formatters) {
+        this.source = source;
+        this.formatters = formatters;
+    }
+
+    /**
+     * Try to compile an expression.
+     * @param source the groovy source of the expression
+     * @param formatters the formatters that the expression might use
+     * @return the compiled expression, or null if it's not a recognized expression.
+     */
+    static Evaluator compile(String source, Map<String, VarFormatter> formatters) {
+        ExpressionCompiler compiler = new ExpressionCompiler(source, formatters);
+        try {
+            Evaluator evaluator = compiler.parseOr();
+            compiler.skipSpaces();
+            return compiler.pos == source.length() ? evaluator : null;
+        } catch (UnsupportedExpression e) {
+            return null;
+        }
+    }
+
+    private Evaluator parseOr() throws UnsupportedExpression {
+        Evaluator left = parseAnd();
+        while (consume("||")) {
+            Evaluator pre = left;
+            Evaluator post = parseAnd();
+            left = e -> asBoolean(pre.eval(e)) || asBoolean(post.eval(e));
+        }
+        return left;
+    }
+
+    private Evaluator parseAnd() throws UnsupportedExpression {
+        Evaluator left = parseRegex();
+        while (consume("&&")) {
+            Evaluator pre = left;
+            Evaluator post = parseRegex();
+            left = e -> asBoolean(pre.eval(e)) && asBoolean(post.eval(e));
+        }
+        return left;
+    }
+
+    /**
+     * In groovy, regex operators bind less tightly than equality operators
+     */
+    private Evaluator parseRegex() throws UnsupportedExpression {
+        Evaluator left = parseEquality();
+        while (consume("==~")) {
+            Evaluator pre = left;
+            Pattern pattern = parsePattern();
+            left = e -> ScriptBytecodeAdapter.matchRegex(pre.eval(e), pattern);
+        }
+        return left;
+    }
+
+    private Evaluator parseEquality() throws UnsupportedExpression {
+        Evaluator left = parseRelational();
+        while (true) {
+            if (peek("===") || peek("!==") || peek("<=>")) {
+                throw UNSUPPORTED;
+            }
+            Evaluator pre = left;
+            if (peek("==~")) {
+                return left;
+            } else if (consume("==")) {
+                Evaluator post = parseRelational();
+                left = e -> ScriptBytecodeAdapter.compareEqual(pre.eval(e), post.eval(e));
+            } else if (consume("!=")) {
+                Evaluator post = parseRelational();
+                left = e -> ScriptBytecodeAdapter.compareNotEqual(pre.eval(e), post.eval(e));
+            } else {
+                return left;
+            }
+        }
+    }
+
+    private Evaluator parseRelational() throws UnsupportedExpression {
+        Evaluator left = parseAdditive();
+        while (true) {
+            if (peek("<<") || peek(">>") || peek("<=>")) {
+                throw UNSUPPORTED;
+            }
+            Evaluator pre = left;
+            if (consume("<=")) {
+                Evaluator post = parseAdditive();
+                left = e -> ScriptBytecodeAdapter.compareLessThanEqual(pre.eval(e), post.eval(e));
+            } else if (consume(">=")) {
+                Evaluator post = parseAdditive();
+                left = e -> ScriptBytecodeAdapter.compareGreaterThanEqual(pre.eval(e), post.eval(e));
+            } else if (consume("<")) {
+                Evaluator post = parseAdditive();
+                left = e -> ScriptBytecodeAdapter.compareLessThan(pre.eval(e), post.eval(e));
+            } else if (consume(">")) {
+                Evaluator post = parseAdditive();
+                left = e -> ScriptBytecodeAdapter.compareGreaterThan(pre.eval(e), post.eval(e));
+            } else {
+                return left;
+            }
+        }
+    }
+
+    private Evaluator parseAdditive() throws UnsupportedExpression {
+        Evaluator left = parseMultiplicative();
+        while (true) {
+            if (peek("++") || peek("--") || peek("+=") || peek("-=")) {
+                throw UNSUPPORTED;
+            }
+            Evaluator pre = left;
+            if (consume("+")) {
+                Evaluator post = parseMultiplicative();
+                left = e -> plus(pre.eval(e), post.eval(e));
+            } else if (consume("-")) {
+                Evaluator post = parseMultiplicative();
+                left = e -> arithmetic(pre.eval(e), post.eval(e), "minus", NumberMath::subtract);
+            } else {
+                return left;
+            }
+        }
+    }
+
+    private Evaluator parseMultiplicative() throws UnsupportedExpression {
+        Evaluator left = parseUnary();
+        while (true) {
+            if (peek("**") || peek("*=") || peek("/=") || peek("%=")) {
+                throw UNSUPPORTED;
+            }
+            Evaluator pre = left;
+            if (consume("*")) {
+                Evaluator post = parseUnary();
+                left = e -> arithmetic(pre.eval(e), post.eval(e), "multiply", NumberMath::multiply);
+            } else if (consume("/")) {
+                Evaluator post = parseUnary();
+                left = e -> arithmetic(pre.eval(e), post.eval(e), "div", NumberMath::divide);
+            } else if (consume("%")) {
+                Evaluator post = parseUnary();
+                left = e -> arithmetic(pre.eval(e), post.eval(e), "mod", NumberMath::mod);
+            } else {
+                return left;
+            }
+        }
+    }
+
+    private Evaluator parseUnary() throws UnsupportedExpression {
+        if (consume("!")) {
+            Evaluator sub = parseUnary();
+            return e -> ! asBoolean(sub.eval(e));
+        } else if (peek("--") || peek("++")) {
+            throw UNSUPPORTED;
+        } else if (consume("-")) {
+            Evaluator sub = parseUnary();
+            return e -> unaryMinus(sub.eval(e));
+        } else if (consume("+")) {
+            Evaluator sub = parseUnary();
+            return e -> unaryPlus(sub.eval(e));
+        } else {
+            Evaluator primary = parsePrimary();
+            skipSpaces();
+            // Property access, method call, indexation or safe navigation on the result are not managed
+            if (pos < source.length() && (source.charAt(pos) == '.' || source.charAt(pos) == '[' || source.charAt(pos) == '?')) {
+                throw UNSUPPORTED;
+            }
+            return primary;
+        }
+    }
+
+    private Evaluator parsePrimary() throws UnsupportedExpression {
+        skipSpaces();
+        if (pos >= source.length()) {
+            throw UNSUPPORTED;
+        }
+        char c = source.charAt(pos);
+        if (c == '(') {
+            pos++;
+            Evaluator sub = parseOr();
+            expect(")");
+            return sub;
+        } else if (c == '[') {
+            pos++;
+            List<Evaluator> elements = new ArrayList<>();
+            if (! consume("]")) {
+                do {
+                    elements.add(parseOr());
+                } while (consume(","));
+                expect("]");
+            }
+            return e -> {
+                List<Object> list = new ArrayList<>(elements.size());
+                for (Evaluator i: elements) {
+                    list.add(i.eval(e));
+                }
+                return list;
+            };
+        } else if (c == '"' || c == '\'') {
+            String value = parseString();
+            return e -> value;
+        } else if (Character.isDigit(c)) {
+            Object value = parseNumber();
+            return e -> value;
+        } else if (Character.isJavaIdentifierStart(c)) {
+            String identifier = parseIdentifier();
+            switch (identifier) {
+            case "true":
+                return e -> Boolean.TRUE;
+            case "false":
+                return e -> Boolean.FALSE;
+            case "null":
+                return e -> null;
+            case "event":
+                return parseEventAccess();
+            case "formatters":
+                return parseFormatter();
+            default:
+                throw UNSUPPORTED;
+            }
+        } else {
+            throw UNSUPPORTED;
+        }
+    }
+
+    private Evaluator parseEventAccess() throws UnsupportedExpression {
+        expect(".");
+        String method = parseIdentifier();
+        expect("(");
+        switch (method) {
+        case "getPath": {
+            List<String> path = new ArrayList<>();
+            do {
+                skipSpaces();
+                path.add(parseString());
+            } while (consume(","));
+            expect(")");
+            String[] patharray = path.toArray(new String[path.size()]);
+            return e -> e.getPath(patharray);
+        }
+        case "getMeta": {
+            skipSpaces();
+            String meta = parseString();
+            expect(")");
+            return e -> e.getMeta(meta);
+        }
+        case "getTimestamp": {
+            expect(")");
+            return e -> e.getTimestamp();
+        }
+        default:
+            throw UNSUPPORTED;
+        }
+    }
+
+    private Evaluator parseFormatter() throws UnsupportedExpression {
+        expect(".");
+        String key = parseIdentifier();
+        VarFormatter formatter = formatters != null ? formatters.get(key) : null;
+        if (formatter == null) {
+            throw UNSUPPORTED;
+        }
+        expect(".");
+        if (! "format".equals(parseIdentifier())) {
+            throw UNSUPPORTED;
+        }
+        expect("(");
+        Evaluator arg;
+        skipSpaces();
+        if (source.startsWith("event", pos) && (pos + 5 == source.length() || ! Character.isJavaIdentifierPart(source.charAt(pos + 5)))) {
+            pos += 5;
+            arg = e -> e;
+        } else {
+            arg = parseOr();
+        }
+        expect(")");
+        return e -> formatter.format(arg.eval(e));
+    }
+
+    private String parseIdentifier() throws UnsupportedExpression {
+        skipSpaces();
+        int start = pos;
+        if (pos >= source.length() || ! Character.isJavaIdentifierStart(source.charAt(pos))) {
+            throw UNSUPPORTED;
+        }
+        while (pos < source.length() && Character.isJavaIdentifierPart(source.charAt(pos))) {
+            pos++;
+        }
+        return source.substring(start, pos);
+    }
+
+    private String parseString() throws UnsupportedExpression {
+        char quote = charAt(pos);
+        if (quote != '"' && quote != '\'') {
+            throw UNSUPPORTED;
+        }
+        // Triple quoted strings are not managed
+        if (charAt(pos + 1) == quote && charAt(pos + 2) == quote) {
+            throw UNSUPPORTED;
+        }
+        pos++;
+        StringBuilder buffer = new StringBuilder();
+        while (true) {
+            if (pos >= source.length()) {
+                throw UNSUPPORTED;
+            }
+            char c = source.charAt(pos++);
+            if (c == quote) {
+                return buffer.toString();
+            } else if (c == '$' && quote == '"') {
+                // A GString
+                throw UNSUPPORTED;
+            } else if (c == '\\') {
+                char escaped = charAt(pos++);
+                switch (escaped) {
+                case 'n': buffer.append('\n'); break;
+                case 't': buffer.append('\t'); break;
+                case 'r': buffer.append('\r'); break;
+                case 'b': buffer.append('\b'); break;
+                case 'f': buffer.append('\f'); break;
+                case '\\':
+                case '\'':
+                case '"':
+                case '$':
+                    buffer.append(escaped);
+                    break;
+                default:
+                    throw UNSUPPORTED;
+                }
+            } else {
+                buffer.append(c);
+            }
+        }
+    }
+
+    private Object parseNumber() throws UnsupportedExpression {
+        int start = pos;
+        while (Character.isDigit(charAt(pos)) || charAt(pos) == '_') {
+            pos++;
+        }
+        String integral = source.substring(start, pos).replace("_", "");
+        // Octal, hexadecimal and binary literals are not managed
+        if (integral.length() > 1 && integral.charAt(0) == '0') {
+            throw UNSUPPORTED;
+        }
+        char next = charAt(pos);
+        if (next == '.' && Character.isDigit(charAt(pos + 1)) || next == 'e' || next == 'E') {
+            // Groovy decimal literals are BigDecimal
+            while (Character.isDigit(charAt(pos)) || charAt(pos) == '_' || charAt(pos) == '.') {
+                pos++;
+            }
+            if (charAt(pos) == 'e' || charAt(pos) == 'E') {
+                pos++;
+                if (charAt(pos) == '+' || charAt(pos) == '-') {
+                    pos++;
+                }
+                while (Character.isDigit(charAt(pos))) {
+                    pos++;
+                }
+            }
+            checkNumberEnd();
+            try {
+                return new BigDecimal(source.substring(start, pos).replace("_", ""));
+            } catch (NumberFormatException e) {
+                throw UNSUPPORTED;
+            }
+        } else if (next == 'l' || next == 'L') {
+            pos++;
+            checkNumberEnd();
+            try {
+                return Long.valueOf(integral);
+            } catch (NumberFormatException e) {
+                throw UNSUPPORTED;
+            }
+        } else {
+            checkNumberEnd();
+            try {
+                return Integer.valueOf(integral);
+            } catch (NumberFormatException e) {
+            }
+            try {
+                return Long.valueOf(integral);
+            } catch (NumberFormatException e) {
+                throw UNSUPPORTED;
+            }
+        }
+    }
+
+    private void checkNumberEnd() throws UnsupportedExpression {
+        // Type suffix or any unexpected part of the literal
+        if (pos < source.length() && (Character.isJavaIdentifierPart(source.charAt(pos)) || source.charAt(pos) == '.')) {
+            throw UNSUPPORTED;
+        }
+    }
+
+    /**
+     * Parse a groovy slashy string, used as a regex
+     * @return the compiled pattern
+     * @throws UnsupportedExpression
+     */
+    private Pattern parsePattern() throws UnsupportedExpression {
+        skipSpaces();
+        if (charAt(pos) != '/') {
+            throw UNSUPPORTED;
+        }
+        pos++;
+        StringBuilder buffer = new StringBuilder();
+        while (true) {
+            if (pos >= source.length()) {
+                throw UNSUPPORTED;
+            }
+            char c = source.charAt(pos++);
+            if (c == '/') {
+                break;
+            } else if (c == '\\' && charAt(pos) == '/') {
+                buffer.append('/');
+                pos++;
+            } else if (c == '\\' && charAt(pos) == 'u') {
+                // unicode escape are resolved by groovy
+                throw UNSUPPORTED;
+            } else if (c == '$' && (charAt(pos) == '{' || Character.isJavaIdentifierStart(charAt(pos)))) {
+                // A GString
+                throw UNSUPPORTED;
+            } else {
+                buffer.append(c);
+            }
+        }
+        try {
+            return Pattern.compile(buffer.toString());
+        } catch (PatternSyntaxException e) {
+            // Let groovy complains about it
+            throw UNSUPPORTED;
+        }
+    }
+
+    private char charAt(int index) {
+        return index < source.length() ? source.charAt(index) : '\0';
+    }
+
+    private void skipSpaces() {
+        while (pos < source.length() && Character.isWhitespace(source.charAt(pos))) {
+            pos++;
+        }
+    }
+
+    private boolean peek(String token) {
+        skipSpaces();
+        return source.startsWith(token, pos);
+    }
+
+    private boolean consume(String token) {
+        if (peek(token)) {
+            pos += token.length();
+            return true;
+        } else {
+            return false;
+        }
+    }
+
+    private void expect(String token) throws UnsupportedExpression {
+        if (! consume(token)) {
+            throw UNSUPPORTED;
+        }
+    }
+
+    private static boolean asBoolean(Object o) {
+        return DefaultTypeTransformation.castToBoolean(o);
+    }
+
+    private static Object plus(Object pre, Object post) {
+        if (pre instanceof String) {
+            return StringGroovyMethods.plus((CharSequence) pre, post);
+        } else {
+            return arithmetic(pre, post, "plus", NumberMath::add);
+        }
+    }
+
+    private static Object arithmetic(Object pre, Object post, String method, BinaryOperator<Number> numberMath) {
+        if (pre instanceof Number && post instanceof Number) {
+            return numberMath.apply((Number) pre, (Number) post);
+        } else {
+            return InvokerHelper.invokeMethod(pre, method, new Object[] {post});
+        }
+    }
+
+    private static Object unaryMinus(Object o) {
+        try {
+            return ScriptBytecodeAdapter.unaryMinus(o);
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new UndeclaredThrowableException(e);
+        }
+    }
+
+    private static Object unaryPlus(Object o) {
+        try {
+            return ScriptBytecodeAdapter.unaryPlus(o);
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new UndeclaredThrowableException(e);
+        }
+    }
+
+}
@@ -0,0 +1,125 @@
+package loghub;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A path to a field in an event, parsed once and immutable.
+ * <p>
+ * The segments are interned and the hash code is computed once, so a path can be used as a key or
+ * compared cheaply. Dotted paths are split without using a regex, with the same result than
+ * <code>path.split("\\.")</code>. Paths parsed from strings are cached, so dynamic paths
+ * that are often used are not parsed again.
+ */
+public final class FieldPath {
+
+    private static final int MAXCACHED = 4096;
+    private static final Map<String, FieldPath> cache = new ConcurrentHashMap<>();
+
+    public static final FieldPath EMPTY = new FieldPath(new String[] {});
+
+    // Package visible, so events can walk it without a copy
+    final String[] segments;
+    private final int hash;
+
+    private FieldPath(String[] segments) {
+        this.segments = segments;
+        this.hash = Arrays.hashCode(segments);
+    }
+
+    /**
+     * Build a path from its segments.
+     * @param segments the segments, they are not split
+     * @return a new path
+     */
+    public static FieldPath of(String... segments) {
+        String[] interned = new String[segments.length];
+        for (int i = 0; i < segments.length; i++) {
+            interned[i] = segments[i].intern();
+        }
+        return new FieldPath(interned);
+    }
+
+    /**
+     * Parse a dotted path, like <code>a.b.c</code>.
+     * @param path the path to parse
+     * @return the path, possibly a cached one
+     */
+    public static FieldPath parse(String path) {
+        FieldPath parsed = cache.get(path);
+        if (parsed == null) {
+            parsed = new FieldPath(split(path));
+            if (cache.size() < MAXCACHED) {
+                cache.putIfAbsent(path, parsed);
+            }
+        }
+        return parsed;
+    }
+
+    private static String[] split(String path) {
+        List<String> segments = new ArrayList<>();
+        int start = 0;
+        for (int i = path.indexOf('.'); i >= 0; i = path.indexOf('.', start)) {
+            segments.add(path.substring(start, i).intern());
+            start = i + 1;
+        }
+        segments.add(path.substring(start).intern());
+        // Trailing empty segments are dropped, unless the path is empty
+        int size = segments.size();
+        while (size > 1 && segments.get(size - 1).isEmpty()) {
+            size--;
+        }
+        if (size == 1 && segments.get(0).isEmpty() && ! path.isEmpty()) {
+            size = 0;
+        }
+        return segments.subList(0, size).toArray(new String[size]);
+    }
+
+    public int size() {
+        return segments.length;
+    }
+
+    public String get(int i) {
+        return segments[i];
+    }
+
+    /**
+     * @return the last segment
+     */
+    public String last() {
+        return segments[segments.length - 1];
+    }
+
+    /**
+     * @return a copy of the segments
+     */
+    public String[] toArray() {
+        return Arrays.copyOf(segments, segments.length);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        } else if (! (obj instanceof FieldPath)) {
+            return false;
+        } else {
+            FieldPath other = (FieldPath) obj;
+            return hash == other.hash && Arrays.equals(segments, other.segments);
+        }
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public String toString() {
+        return String.join(".", segments);
+    }
+
+}
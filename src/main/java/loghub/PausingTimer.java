@@ -34,6 +34,13 @@ public class PausingTimer extends Timer {
             running = true;
         }
 
+        /**
+         * @return a new context for the same timer, started now
+         */
+        public PausingContext fork() {
+            return new PausingContext();
+        }
+
         @Override
         public long stop() {
             // Don't mesure again if still paused
@@ -1,10 +1,12 @@
 package loghub;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
 
 import loghub.configuration.Properties;
+import loghub.configuration.Properties.MetricRegistryWrapper.PipelineMetrics;
 
 public class Pipeline {
 
@@ -12,17 +14,72 @@ public class Pipeline {
 
     public final List<Processor> processors;
     public final String nextPipeline;
+    private PipelineMetrics metrics = null;
+    private final Processor enter;
+    private volatile Processor[] program = null;
 
     public Pipeline(List<Processor> steps, String name, String nextPipeline) {
         processors = Collections.unmodifiableList(new ArrayList<>(steps));
         this.name = name;
         this.nextPipeline = nextPipeline;
+        enter = name != null ? EventInstance.enterPipeline(this) : null;
     }
 
     public boolean configure(Properties properties) {
+        program = null;
+        if (name != null) {
+            for (int i = 0; i < processors.size(); i++) {
+                if (processors.get(i).getLocation() == null) {
+                    processors.get(i).setLocation(name + "." + i);
+                }
+            }
+        }
         return processors.stream().allMatch(i -> i.configure(properties));
     }
 
+    /**
+     * Return the processors of this pipeline flattened in an array. Sub-pipelines are expanded inline and a named
+     * pipeline is surrounded by the processors that manage its timer.
+     * <p>
+     * It's built on first use, because named sub-pipelines are only resolved during configuration.
+     * @return the program, it must not be modified
+     */
+    Processor[] getProgram() {
+        Processor[] p = program;
+        if (p == null) {
+            List<Processor> steps = new ArrayList<>();
+            flatten(steps);
+            p = steps.toArray(new Processor[steps.size()]);
+            program = p;
+        }
+        return p;
+    }
+
+    private void flatten(List<Processor> steps) {
+        if (enter != null) {
+            steps.add(enter);
+        }
+        flatten(processors, steps);
+        if (enter != null) {
+            steps.add(EventInstance.exitPipeline());
+        }
+    }
+
+    /**
+     * Add some processors to a list, expanding the sub-pipelines.
+     * @param processors the processors to add
+     * @param steps the destination list
+     */
+    static void flatten(Collection<Processor> processors, List<Processor> steps) {
+        for (Processor p: processors) {
+            if (p instanceof SubPipeline) {
+                ((SubPipeline) p).getPipeline().flatten(steps);
+            } else {
+                steps.add(p);
+            }
+        }
+    }
+
     @Override
     public String toString() {
         return "pipeline[" + name + "]";
@@ -36,4 +93,21 @@ public class Pipeline {
         return name;
     }
 
+    /**
+     * Return the metrics of this pipeline. They are usually resolved when the properties are built, but a pipeline
+     * not known by the properties will resolve them on each call.
+     * @return the metrics handles or null for an anonymous pipeline
+     */
+    public PipelineMetrics getMetrics() {
+        PipelineMetrics m = metrics;
+        if (m == null && name != null) {
+            m = Properties.metrics.pipelineMetrics(name);
+        }
+        return m;
+    }
+
+    public void setMetrics(PipelineMetrics metrics) {
+        this.metrics = metrics;
+    }
+
 }
@@ -23,6 +23,7 @@ public abstract class Processor {
     private Processor exception = null;
     private String ifsource = null;
     private String id = null;
+    private String location = null;
 
     public Processor() {
         logger = LogManager.getLogger(Helpers.getFirstInitClass());
@@ -36,12 +37,15 @@ public abstract class Processor {
         logger.debug("configuring {}", this);
         if(ifsource != null) {
             try {
-                ifexpression = new Expression(ifsource, properties.groovyClassLoader, properties.formatters);
+                ifexpression = new Expression(ifsource, properties.groovyClassLoader, properties.formatters, getMetricName() + ".if");
             } catch (ExpressionException e) {
                 Expression.logError(e, ifsource, logger);
                 return false;
             }
         }
+        locate(success, "success");
+        locate(failure, "failure");
+        locate(exception, "exception");
         if(success != null && ! success.configure(properties)) {
             return false;
         }
@@ -79,7 +83,7 @@ public abstract class Processor {
      * @param fieldprefix the fieldprefix to set
      */
     public void setPath(String fieldprefix) {
-        this.path = fieldprefix.split("\\.");
+        this.path = FieldPath.parse(fieldprefix).toArray();
     }
 
     public void setIf(String ifsource) {
@@ -154,6 +158,38 @@ public abstract class Processor {
         this.exception = exception;
     }
 
+    /**
+     * Set the location of a sub processor, relative to this processor
+     * @param child the processor to locate, can be null
+     * @param role the role of the child
+     */
+    protected void locate(Processor child, String role) {
+        if (child != null && child.location == null) {
+            child.location = getMetricName() + "." + role;
+        }
+    }
+
+    /**
+     * @return where this processor is found, like <code>main.2</code> for the third processor of the pipeline main
+     */
+    public String getLocation() {
+        return location;
+    }
+
+    /**
+     * @param location where this processor is found, it's set when the pipeline is configured
+     */
+    public void setLocation(String location) {
+        this.location = location;
+    }
+
+    /**
+     * @return a readable name for the metrics of this processor, its location if it's known or its class
+     */
+    protected String getMetricName() {
+        return location != null ? location : getClass().getSimpleName();
+    }
+
     public String getId() {
         return id;
     }
@@ -0,0 +1,271 @@
+package loghub;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import io.netty.buffer.ByteBuf;
+
+/**
+ * A compact binary encoding of events, used by {@link SpillingQueue} to store them on disk.
+ * <p>
+ * Only the timestamp, the metas and the fields are kept. Lengths and integers are written as
+ * variable length integers. Values of an unknown type are stored with Java serialization, an event
+ * with a value that is not serializable can't be encoded.
+ */
+final class SpillCodec {
+
+    private static final byte NULL = 0;
+    private static final byte STRING = 1;
+    private static final byte INTEGER = 2;
+    private static final byte LONG = 3;
+    private static final byte DOUBLE = 4;
+    private static final byte FLOAT = 5;
+    private static final byte TRUE = 6;
+    private static final byte FALSE = 7;
+    private static final byte DATE = 8;
+    private static final byte INSTANT = 9;
+    private static final byte BYTES = 10;
+    private static final byte INETADDRESS = 11;
+    private static final byte LIST = 12;
+    private static final byte MAP = 13;
+    private static final byte SHORT = 14;
+    private static final byte BYTE = 15;
+    private static final byte CHARACTER = 16;
+    private static final byte SERIALIZED = 17;
+
+    private SpillCodec() {
+    }
+
+    /**
+     * Encode an event.
+     * @param event the event
+     * @param out the destination buffer
+     * @throws IllegalArgumentException if a value can't be encoded
+     */
+    static void encode(Event event, ByteBuf out) {
+        writeVarLong(out, event.getTimestamp().getTime());
+        Map<String, Object> metas = new HashMap<>();
+        event.getMetaAsStream().forEach(i -> metas.put(i.getKey(), i.getValue()));
+        writeMap(out, metas);
+        writeMap(out, event);
+    }
+
+    static Event decode(ByteBuffer in) {
+        try {
+            Event event = Event.emptyEvent(ConnectionContext.EMPTY);
+            event.setTimestamp(new Date(readVarLong(in)));
+            readMap(in).forEach(event::putMeta);
+            readMap(in).forEach(event::put);
+            return event;
+        } catch (BufferUnderflowException | IllegalArgumentException e) {
+            throw new IllegalStateException("Corrupted spilled event", e);
+        }
+    }
+
+    private static void writeMap(ByteBuf out, Map<?, ?> map) {
+        writeVarLong(out, map.size());
+        map.forEach((k, v) -> {
+            writeString(out, k.toString());
+            writeValue(out, v);
+        });
+    }
+
+    private static void writeValue(ByteBuf out, Object value) {
+        if (value == null) {
+            out.writeByte(NULL);
+        } else if (value instanceof String) {
+            out.writeByte(STRING);
+            writeString(out, (String) value);
+        } else if (value instanceof Integer) {
+            out.writeByte(INTEGER);
+            writeVarLong(out, (Integer) value);
+        } else if (value instanceof Long) {
+            out.writeByte(LONG);
+            writeVarLong(out, (Long) value);
+        } else if (value instanceof Short) {
+            out.writeByte(SHORT);
+            writeVarLong(out, (Short) value);
+        } else if (value instanceof Byte) {
+            out.writeByte(BYTE);
+            out.writeByte((Byte) value);
+        } else if (value instanceof Double) {
+            out.writeByte(DOUBLE);
+            out.writeDouble((Double) value);
+        } else if (value instanceof Float) {
+            out.writeByte(FLOAT);
+            out.writeFloat((Float) value);
+        } else if (value instanceof Boolean) {
+            out.writeByte((Boolean) value ? TRUE : FALSE);
+        } else if (value instanceof Character) {
+            out.writeByte(CHARACTER);
+            out.writeChar((Character) value);
+        } else if (value instanceof Date) {
+            out.writeByte(DATE);
+            writeVarLong(out, ((Date) value).getTime());
+        } else if (value instanceof Instant) {
+            out.writeByte(INSTANT);
+            writeVarLong(out, ((Instant) value).getEpochSecond());
+            writeVarLong(out, ((Instant) value).getNano());
+        } else if (value instanceof byte[]) {
+            out.writeByte(BYTES);
+            writeBytes(out, (byte[]) value);
+        } else if (value instanceof InetAddress) {
+            out.writeByte(INETADDRESS);
+            writeBytes(out, ((InetAddress) value).getAddress());
+        } else if (value instanceof Map) {
+            out.writeByte(MAP);
+            writeMap(out, (Map<?, ?>) value);
+        } else if (value instanceof Collection) {
+            Collection<?> values = (Collection<?>) value;
+            out.writeByte(LIST);
+            writeVarLong(out, values.size());
+            values.forEach(i -> writeValue(out, i));
+        } else if (value instanceof Object[]) {
+            Object[] values = (Object[]) value;
+            out.writeByte(LIST);
+            writeVarLong(out, values.length);
+            for (Object i: values) {
+                writeValue(out, i);
+            }
+        } else if (value instanceof Serializable) {
+            out.writeByte(SERIALIZED);
+            ByteArrayOutputStream bos = new ByteArrayOutputStream();
+            try (ObjectOutputStream oos = new ObjectOutputStream(bos)) {
+                oos.writeObject(value);
+            } catch (IOException e) {
+                throw new IllegalArgumentException("Value of type " + value.getClass().getName() + " can't be serialized", e);
+            }
+            writeBytes(out, bos.toByteArray());
+        } else {
+            throw new IllegalArgumentException("Value of type " + value.getClass().getName() + " can't be encoded");
+        }
+    }
+
+    private static Map<String, Object> readMap(ByteBuffer in) {
+        int size = (int) readVarLong(in);
+        Map<String, Object> map = new HashMap<>(size * 4 / 3 + 1);
+        for (int i = 0; i < size; i++) {
+            String key = readString(in);
+            map.put(key, readValue(in));
+        }
+        return map;
+    }
+
+    private static Object readValue(ByteBuffer in) {
+        byte type = in.get();
+        switch (type) {
+        case NULL:
+            return null;
+        case STRING:
+            return readString(in);
+        case INTEGER:
+            return (int) readVarLong(in);
+        case LONG:
+            return readVarLong(in);
+        case SHORT:
+            return (short) readVarLong(in);
+        case BYTE:
+            return in.get();
+        case DOUBLE:
+            return in.getDouble();
+        case FLOAT:
+            return in.getFloat();
+        case TRUE:
+            return Boolean.TRUE;
+        case FALSE:
+            return Boolean.FALSE;
+        case CHARACTER:
+            return in.getChar();
+        case DATE:
+            return new Date(readVarLong(in));
+        case INSTANT:
+            long seconds = readVarLong(in);
+            return Instant.ofEpochSecond(seconds, readVarLong(in));
+        case BYTES:
+            return readBytes(in);
+        case INETADDRESS:
+            try {
+                return InetAddress.getByAddress(readBytes(in));
+            } catch (UnknownHostException e) {
+                throw new IllegalArgumentException(e);
+            }
+        case SERIALIZED:
+            try (ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(readBytes(in)))) {
+                return ois.readObject();
+            } catch (IOException | ClassNotFoundException e) {
+                throw new IllegalArgumentException(e);
+            }
+        case MAP:
+            return readMap(in);
+        case LIST:
+            int size = (int) readVarLong(in);
+            List<Object> values = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                values.add(readValue(in));
+            }
+            return values;
+        default:
+            throw new IllegalArgumentException("Unknown type " + type);
+        }
+    }
+
+    private static void writeString(ByteBuf out, String value) {
+        writeBytes(out, value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String readString(ByteBuffer in) {
+        return new String(readBytes(in), StandardCharsets.UTF_8);
+    }
+
+    private static void writeBytes(ByteBuf out, byte[] value) {
+        writeVarLong(out, value.length);
+        out.writeBytes(value);
+    }
+
+    private static byte[] readBytes(ByteBuffer in) {
+        byte[] value = new byte[(int) readVarLong(in)];
+        in.get(value);
+        return value;
+    }
+
+    /**
+     * Zigzag encoded variable length integer, so small negative values are small too.
+     */
+    private static void writeVarLong(ByteBuf out, long value) {
+        long zigzag = (value << 1) ^ (value >> 63);
+        while ((zigzag & ~0x7FL) != 0) {
+            out.writeByte((int) ((zigzag & 0x7F) | 0x80));
+            zigzag >>>= 7;
+        }
+        out.writeByte((int) zigzag);
+    }
+
+    private static long readVarLong(ByteBuffer in) {
+        long zigzag = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = in.get();
+            zigzag |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return (zigzag >>> 1) ^ -(zigzag & 1);
+            }
+        }
+        throw new IllegalArgumentException("Malformed variable length integer");
+    }
+
+}
@@ -0,0 +1,208 @@
+package loghub;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+
+import io.netty.buffer.ByteBuf;
+
+/**
+ * A FIFO of records, stored in a sequence of memory-mapped segment files of fixed size.
+ * <p>
+ * Each record is preceded by its length. A consumed record has its length negated, so a
+ * restart only replays the records that were not consumed. A zero length is the end of the
+ * written part of a segment, a segment is deleted once all of its records are consumed.
+ * <p>
+ * This class is not thread safe, {@link SpillingQueue} protects it with a lock.
+ */
+class SpillSegments {
+
+    private static final int HEADERSIZE = Integer.BYTES;
+    private static final int END = Integer.MIN_VALUE;
+    private static final String SUFFIX = ".spill";
+
+    private final Path directory;
+    private final int segmentSize;
+    private final long maxSegments;
+    // The first one is read, the last one is written
+    private final Deque<Path> segments = new ArrayDeque<>();
+    private long nextId = 0;
+    private Path writeSegment = null;
+    private MappedByteBuffer writeBuffer = null;
+    private Path readSegment = null;
+    private MappedByteBuffer readBuffer = null;
+    private int count = 0;
+
+    SpillSegments(Path directory, int segmentSize, long maxSize) throws IOException {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.maxSegments = Math.max(1, maxSize / segmentSize);
+        Files.createDirectories(directory);
+        List<Path> found = new ArrayList<>();
+        try (DirectoryStream<Path> ds = Files.newDirectoryStream(directory, "*" + SUFFIX)) {
+            ds.forEach(found::add);
+        }
+        // Names are zero padded, so they sort in creation order
+        Collections.sort(found);
+        for (Path p: found) {
+            String name = p.getFileName().toString();
+            nextId = Math.max(nextId, Long.parseLong(name.substring(0, name.length() - SUFFIX.length())) + 1);
+            int pending = countPending(map(p));
+            if (pending > 0) {
+                segments.add(p);
+                count += pending;
+            } else {
+                Files.delete(p);
+            }
+        }
+    }
+
+    private MappedByteBuffer map(Path segment) throws IOException {
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+        }
+    }
+
+    private int countPending(ByteBuffer buffer) {
+        int pending = 0;
+        int pos = 0;
+        while (pos <= buffer.limit() - HEADERSIZE) {
+            int header = buffer.getInt(pos);
+            if (header == 0 || header == END) {
+                break;
+            } else if (header > 0) {
+                pending++;
+            }
+            pos += HEADERSIZE + Math.abs(header);
+        }
+        return pending;
+    }
+
+    /**
+     * @param length the size of a record
+     * @return true if the record can be stored in a segment
+     */
+    boolean fits(int length) {
+        // Keep room for the end marker
+        return length > 0 && length + 2 * HEADERSIZE <= segmentSize;
+    }
+
+    /**
+     * Append a record
+     * @param record the content to store, from the reader index to the writer index
+     * @return false if the maximum size is reached or if the record is too big for a segment
+     * @throws IOException
+     */
+    boolean append(ByteBuf record) throws IOException {
+        int length = record.readableBytes();
+        if (! fits(length)) {
+            return false;
+        }
+        if (writeBuffer == null || writeBuffer.remaining() < length + 2 * HEADERSIZE) {
+            if (segments.size() >= maxSegments) {
+                return false;
+            }
+            Path newSegment = directory.resolve(String.format("%020d%s", nextId++, SUFFIX));
+            MappedByteBuffer newBuffer = map(newSegment);
+            if (writeBuffer != null) {
+                writeBuffer.putInt(writeBuffer.position(), END);
+                // The records of the previous segment must be on disk before its reference is lost
+                writeBuffer.force();
+            }
+            writeSegment = newSegment;
+            writeBuffer = newBuffer;
+            segments.add(newSegment);
+        }
+        int pos = writeBuffer.position();
+        writeBuffer.position(pos + HEADERSIZE);
+        ByteBuffer dst = writeBuffer.slice();
+        dst.limit(length);
+        record.getBytes(record.readerIndex(), dst);
+        // The length is written last, so an interrupted write is not seen as a record
+        writeBuffer.putInt(pos, length);
+        writeBuffer.position(pos + HEADERSIZE + length);
+        count++;
+        return true;
+    }
+
+    /**
+     * Write the appended records to the disk.
+     */
+    void force() {
+        if (writeBuffer != null) {
+            writeBuffer.force();
+        }
+    }
+
+    /**
+     * Return the next record, without consuming it.
+     * @return the record, or null if none are stored
+     */
+    ByteBuffer peek() {
+        while (true) {
+            if (readBuffer == null) {
+                if (segments.isEmpty()) {
+                    return null;
+                }
+                readSegment = segments.peekFirst();
+                try {
+                    readBuffer = readSegment.equals(writeSegment) ? (MappedByteBuffer) writeBuffer.duplicate().position(0) : map(readSegment);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+            int pos = readBuffer.position();
+            int header = readBuffer.remaining() >= HEADERSIZE ? readBuffer.getInt(pos) : END;
+            if (header > 0) {
+                ByteBuffer record = readBuffer.duplicate();
+                record.position(pos + HEADERSIZE);
+                record.limit(pos + HEADERSIZE + header);
+                return record.slice();
+            } else if (header < 0 && header != END) {
+                readBuffer.position(pos + HEADERSIZE - header);
+            } else if (readSegment.equals(writeSegment)) {
+                // Caught up with the writer
+                return null;
+            } else {
+                segments.removeFirst();
+                readBuffer = null;
+                try {
+                    Files.delete(readSegment);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Consume the record returned by the last {@link #peek()}.
+     */
+    void consume() {
+        int pos = readBuffer.position();
+        int length = readBuffer.getInt(pos);
+        readBuffer.putInt(pos, -length);
+        readBuffer.position(pos + HEADERSIZE + length);
+        count--;
+    }
+
+    int count() {
+        return count;
+    }
+
+    long diskSize() {
+        return (long) segments.size() * segmentSize;
+    }
+
+}
@@ -0,0 +1,361 @@
+package loghub;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.AbstractQueue;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import loghub.configuration.Properties;
+
+/**
+ * A {@link BlockingQueue} of events that overflows to disk.
+ * <p>
+ * Events are kept in a memory queue until it's full, then they are encoded with {@link SpillCodec}
+ * and written in memory-mapped segment files. As soon as some events are on disk, new events are
+ * written after them, and consumers refill the memory queue from the disk, so the order is kept. The
+ * spilled events are acknowledged once the segment is forced to disk, that's done by batches of
+ * events, or when a consumer looks for events after a short delay. The replayed events are new events
+ * without a connection context.
+ * <p>
+ * When the disk usage reaches the maximum size, the queue is full. An event that can't be
+ * spilled, because it's bigger than a segment or holds a value that can't be encoded, is refused by
+ * {@link #offer(Event)} and dropped by {@link #put(Event)}.
+ */
+public class SpillingQueue extends AbstractQueue<Event> implements BlockingQueue<Event> {
+
+    private static final Logger logger = LogManager.getLogger();
+
+    // Wake up blocked consumers, in case a producer spilled while they were waiting
+    private static final long WAITSLICE = TimeUnit.MILLISECONDS.toNanos(100);
+
+    public static final int SEGMENTSIZE = 64 * 1024 * 1024;
+
+    // The spilled events are acknowledged when that many are waiting for a disk sync, or after that delay
+    private static final int SYNCBATCH = 1024;
+    private static final long SYNCINTERVAL = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private enum Stored {
+        DONE,
+        FULL,
+        REFUSED,
+    }
+
+    private final BlockingQueue<Event> memory;
+    private final SpillSegments segments;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notFull = lock.newCondition();
+    private final ByteBuf encoded = Unpooled.buffer();
+    // The spilled events not yet acknowledged, they wait for the segment to be forced
+    private final List<Event> unsynced = new ArrayList<>();
+    private long lastSync = System.nanoTime();
+    // Only changed with the lock held, true while some events are on disk
+    private volatile boolean spilling;
+    private volatile int spilled;
+    private Meter spilledBytes = new Meter();
+    private Meter replayed = new Meter();
+
+    public SpillingQueue(BlockingQueue<Event> memory, Path directory, long maxSize) throws IOException {
+        this(memory, directory, (int) Math.min(SEGMENTSIZE, maxSize), maxSize);
+    }
+
+    public SpillingQueue(BlockingQueue<Event> memory, Path directory, int segmentSize, long maxSize) throws IOException {
+        this.memory = memory;
+        this.segments = new SpillSegments(directory, segmentSize, maxSize);
+        // Events left by a previous run are replayed first
+        spilled = segments.count();
+        spilling = spilled > 0;
+    }
+
+    /**
+     * Register the metrics of this queue: the spilled bytes, the replayed events and the disk usage.
+     * @param prefix the prefix of the metrics names
+     */
+    public void registerMetrics(String prefix) {
+        spilledBytes = Properties.metrics.meter(prefix + ".spilledBytes");
+        replayed = Properties.metrics.meter(prefix + ".replayed");
+        Properties.metrics.register(prefix + ".diskSize", new Gauge<Long>() {
+            @Override
+            public Long getValue() {
+                lock.lock();
+                try {
+                    return segments.diskSize();
+                } finally {
+                    lock.unlock();
+                }
+            }
+        });
+    }
+
+    /**
+     * Must be called with the lock held.
+     * @return if the event was stored, refused because the queue is full, or refused because it can't be spilled
+     */
+    private Stored store(Event e) throws IOException {
+        if (! spilling && memory.offer(e)) {
+            return Stored.DONE;
+        }
+        encoded.clear();
+        try {
+            SpillCodec.encode(e, encoded);
+        } catch (IllegalArgumentException ex) {
+            logger.error("Event can't be spilled: {}", Helpers.resolveThrowableException(ex));
+            logger.catching(Level.DEBUG, ex);
+            return Stored.REFUSED;
+        }
+        if (! segments.fits(encoded.readableBytes())) {
+            logger.error("Event too big to be spilled: {} bytes", encoded.readableBytes());
+            return Stored.REFUSED;
+        }
+        if (! segments.append(encoded)) {
+            return Stored.FULL;
+        }
+        spilledBytes.mark(encoded.readableBytes());
+        spilled = segments.count();
+        spilling = true;
+        unsynced.add(e);
+        if (unsynced.size() >= SYNCBATCH) {
+            sync();
+        }
+        return Stored.DONE;
+    }
+
+    /**
+     * Force the spilled events to disk, and acknowledge them. Must be called with the lock held.
+     */
+    private void sync() {
+        segments.force();
+        unsynced.forEach(Event::end);
+        unsynced.clear();
+        lastSync = System.nanoTime();
+    }
+
+    /**
+     * Move spilled events to the memory queue, as much as it can hold.
+     */
+    private void refill() {
+        if (! spilling) {
+            return;
+        }
+        lock.lock();
+        try {
+            if (! unsynced.isEmpty() && System.nanoTime() - lastSync >= SYNCINTERVAL) {
+                sync();
+            }
+            int moved = 0;
+            ByteBuffer record;
+            while (memory.remainingCapacity() > 0 && (record = segments.peek()) != null) {
+                Event e;
+                try {
+                    e = SpillCodec.decode(record);
+                } catch (IllegalStateException ex) {
+                    logger.error("Dropping a spilled event: {}", Helpers.resolveThrowableException(ex));
+                    logger.catching(Level.DEBUG, ex);
+                    segments.consume();
+                    continue;
+                }
+                if (! memory.offer(e)) {
+                    e.end();
+                    break;
+                }
+                segments.consume();
+                moved++;
+            }
+            spilled = segments.count();
+            spilling = spilled > 0;
+            if (! spilling && ! unsynced.isEmpty()) {
+                // All the spilled events were replayed
+                sync();
+            }
+            if (moved > 0) {
+                replayed.mark(moved);
+                notFull.signalAll();
+            }
+        } catch (RuntimeException ex) {
+            logger.error("Unable to read spilled events: {}", Helpers.resolveThrowableException(ex));
+            logger.catching(Level.DEBUG, ex);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean offer(Event e) {
+        Objects.requireNonNull(e);
+        if (! spilling && memory.offer(e)) {
+            return true;
+        }
+        lock.lock();
+        try {
+            return store(e) == Stored.DONE;
+        } catch (IOException ex) {
+            logger.error("Unable to spill event: {}", Helpers.resolveThrowableException(ex));
+            logger.catching(Level.DEBUG, ex);
+            return false;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean offer(Event e, long timeout, TimeUnit unit) throws InterruptedException {
+        Objects.requireNonNull(e);
+        if (! spilling && memory.offer(e)) {
+            return true;
+        }
+        long nanos = unit.toNanos(timeout);
+        lock.lockInterruptibly();
+        try {
+            Stored stored;
+            while ((stored = store(e)) == Stored.FULL) {
+                if (nanos <= 0) {
+                    return false;
+                }
+                nanos = notFull.awaitNanos(nanos);
+            }
+            return stored == Stored.DONE;
+        } catch (IOException ex) {
+            logger.error("Unable to spill event: {}", Helpers.resolveThrowableException(ex));
+            logger.catching(Level.DEBUG, ex);
+            return false;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void put(Event e) throws InterruptedException {
+        Objects.requireNonNull(e);
+        if (! spilling && memory.offer(e)) {
+            return;
+        }
+        lock.lockInterruptibly();
+        try {
+            Stored stored;
+            while ((stored = store(e)) == Stored.FULL) {
+                notFull.await();
+            }
+            if (stored == Stored.REFUSED) {
+                // Waiting would never help
+                Stats.dropped.incrementAndGet();
+                e.end();
+            }
+            return;
+        } catch (IOException ex) {
+            logger.error("Unable to spill event: {}", Helpers.resolveThrowableException(ex));
+            logger.catching(Level.DEBUG, ex);
+        } finally {
+            lock.unlock();
+        }
+        // Disk failure, wait for room in memory
+        memory.put(e);
+    }
+
+    @Override
+    public Event poll() {
+        refill();
+        return memory.poll();
+    }
+
+    @Override
+    public Event poll(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (true) {
+            refill();
+            long nanos = deadline - System.nanoTime();
+            Event e = memory.poll(Math.max(0, Math.min(nanos, WAITSLICE)), TimeUnit.NANOSECONDS);
+            if (e != null || nanos <= WAITSLICE) {
+                return e;
+            }
+        }
+    }
+
+    @Override
+    public Event take() throws InterruptedException {
+        while (true) {
+            refill();
+            Event e = memory.poll(WAITSLICE, TimeUnit.NANOSECONDS);
+            if (e != null) {
+                return e;
+            }
+        }
+    }
+
+    @Override
+    public Event peek() {
+        refill();
+        return memory.peek();
+    }
+
+    @Override
+    public int drainTo(Collection<? super Event> c) {
+        return drainTo(c, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public int drainTo(Collection<? super Event> c, int maxElements) {
+        Objects.requireNonNull(c);
+        if (c == this) {
+            throw new IllegalArgumentException("Can't drain to itself");
+        }
+        int count = 0;
+        while (count < maxElements) {
+            refill();
+            int drained = memory.drainTo(c, maxElements - count);
+            if (drained == 0) {
+                break;
+            }
+            count += drained;
+        }
+        return count;
+    }
+
+    /**
+     * Return the remaining capacity of the memory queue, or 0 if events are spilled.
+     */
+    @Override
+    public int remainingCapacity() {
+        return spilling ? 0 : memory.remainingCapacity();
+    }
+
+    /**
+     * The number of events in memory and on disk.
+     */
+    @Override
+    public int size() {
+        return memory.size() + spilled;
+    }
+
+    /**
+     * The number of events stored on disk.
+     */
+    public int getSpilled() {
+        return spilled;
+    }
+
+    /**
+     * An iterator over the events in memory only.
+     */
+    @Override
+    public Iterator<Event> iterator() {
+        return memory.iterator();
+    }
+
+}
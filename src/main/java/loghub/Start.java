@@ -230,7 +230,7 @@ public class Start {
 
         Set<EventsProcessor> allep = new HashSet<>(props.numWorkers);
         for (int i = 0; i < props.numWorkers; i++) {
-            EventsProcessor t = new EventsProcessor(props.mainQueue, props.outputQueues, props.namedPipeLine, props.maxSteps, props.repository);
+            EventsProcessor t = new EventsProcessor(props.mainQueue, props.outputQueues, props.namedPipeLine, props.maxSteps, props.repository, props.workerBatchSize);
             t.start();
             allep.add(t);
         }
@@ -1,5 +1,6 @@
 package loghub;
 
+import java.text.DateFormat;
 import java.text.DateFormatSymbols;
 import java.text.DecimalFormat;
 import java.text.DecimalFormatSymbols;
@@ -405,8 +406,33 @@ public class VarFormatter {
 
     private static final Logger logger = LogManager.getLogger();
 
+    /**
+     * A compiled part of the format, it appends its content to the buffer
+     */
+    @FunctionalInterface
+    private interface Appender {
+        void append(StringBuffer buffer, Object arg, Map<String, Object> variables, FieldPosition pos);
+    }
+
+    /**
+     * A variable found in the format, the key is a name or the index in a list
+     */
+    private static final class Variable {
+        private final Object key;
+        private Variable(Object key) {
+            this.key = key;
+        }
+    }
+
+    private static final ThreadLocal<StringBuffer> buffers = ThreadLocal.withInitial(StringBuffer::new);
+    // Don't keep huge buffers
+    private static final int MAXBUFFERSIZE = 4096;
+
     private final Map<Object, Integer> mapper = new LinkedHashMap<>();
-    private final MessageFormat mf;
+    private final Appender[] appenders;
+    private final boolean indexed;
+    // The result, if the format contains no variables
+    private final String constant;
 
     private ZoneId tz = ZoneId.systemDefault();
     private Locale locale;
@@ -426,16 +452,15 @@ public class VarFormatter {
         this.format = format;
         locale = l;
         List<String> formats = new ArrayList<>();
-        // Convert the pattern to a MessageFormat which is compiled and be reused
-        String pattern = findVariables(new StringBuilder(), format, 0, formats).toString();
+        List<Object> parts = new ArrayList<>();
+        // Convert the pattern to a MessageFormat, only used to check it
+        String pattern = findVariables(new StringBuilder(), format, 0, formats, parts).toString();
+        MessageFormat mf;
         try {
             mf = new MessageFormat(pattern, l);
         } catch (IllegalArgumentException ex) {
             throw new IllegalArgumentException(String.format("Can'f format %s, locale %s: %s", format, l, ex.getMessage()), ex);
         }
-        for(int i = 0; i < mf.getFormats().length; i++) {
-            mf.setFormat(i, resolveFormat(formats.get(i)));
-        }
         if (mapper.size() != 0) {
             mapper.keySet().stream().reduce((i,j) ->  {
                 if (i.getClass() != j.getClass()) {
@@ -445,60 +470,117 @@ public class VarFormatter {
                 }
             });
         }
+        indexed = mapper.keySet().stream().findAny().orElse("") instanceof Number;
+        // Compile the parts, the formats are resolved in order, as a format can change the locale
+        appenders = new Appender[parts.size()];
+        int formatsCount = 0;
+        for (int i = 0; i < parts.size(); i++) {
+            Object part = parts.get(i);
+            if (part instanceof String) {
+                String literal = (String) part;
+                appenders[i] = (b, a, v, p) -> b.append(literal);
+            } else {
+                String formatSpec = formats.get(formatsCount++);
+                Format f = resolveFormat(formatSpec);
+                appenders[i] = compileVariable(((Variable) part).key, formatSpec, f, l);
+            }
+        }
+        if (mf.getFormats().length != formatsCount) {
+            throw new IllegalStateException("Mismatch in format " + format);
+        }
+        constant = mapper.isEmpty() ? format(Collections.emptyMap()) : null;
+    }
+
+    private Appender compileVariable(Object key, String formatSpec, Format f, Locale l) {
+        Function<Object, Object> resolver;
+        if (".".equals(key)) {
+            resolver = this::checkIsArray;
+        } else if (key instanceof Number) {
+            int j = ((Number) key).intValue();
+            resolver = a -> {
+                List<?> list = (List<?>) a;
+                if (j > list.size()) {
+                    throw new IllegalArgumentException("index out of range");
+                }
+                return checkIsArray(list.get(j - 1));
+            };
+        } else {
+            resolver = null;
+        }
+        FieldPath path = resolver == null ? FieldPath.parse(key.toString()) : null;
+        // The common %s is directly appended
+        boolean plain = "s".equals(formatSpec);
+        return (b, a, v, p) -> {
+            Object value = resolver != null ? resolver.apply(a) : resolve(path, key, v);
+            if (value == null) {
+                b.append("null");
+            } else if (plain) {
+                b.append(value.toString());
+            } else if (f != null) {
+                f.format(value, b, p);
+            } else {
+                // The default formatting of MessageFormat
+                if (value instanceof Number) {
+                    b.append(NumberFormat.getInstance(l).format(value));
+                } else if (value instanceof Date) {
+                    b.append(DateFormat.getDateTimeInstance(DateFormat.SHORT, DateFormat.SHORT, l).format(value));
+                } else {
+                    b.append(value.toString());
+                }
+            }
+        };
+    }
+
+    @SuppressWarnings("unchecked")
+    private Object resolve(FieldPath path, Object key, Map<String, Object> variables) {
+        if (path.size() == 1) {
+            // Only one element in the key, just use it
+            if (! variables.containsKey(key)) {
+                throw new IllegalArgumentException("invalid values for format key " + key);
+            }
+            return checkIsArray(variables.get(key));
+        } else {
+            // Recurse, variables written as "a.b.c" are paths in maps
+            Map<String, Object> current = variables;
+            String pathkey = path.get(0);
+            for(int i = 0; i < path.size() - 1; i++) {
+                Object next = current.get(pathkey);
+                if( next == null || ! (next instanceof Map) ) {
+                    throw new IllegalArgumentException("invalid values for format key " + key);
+                }
+                current = (Map<String, Object>) next;
+                pathkey = path.get(i + 1);
+            }
+            return checkIsArray(current.get(pathkey));
+        }
     }
 
     @SuppressWarnings("unchecked")
     public String format(Object arg) throws IllegalArgumentException {
+        if (constant != null) {
+            return constant;
+        }
         Map<String, Object> variables;
-        Object mapperType = mapper.keySet().stream().findAny().orElse("");
-        if (( mapperType instanceof Number) && ! ( arg instanceof List)) {
+        if (indexed && ! ( arg instanceof List)) {
             throw new IllegalArgumentException("Given a non-list to a format expecting only a list");
         } else if (arg instanceof Map) {
             variables = (Map<String, Object>) arg;
         } else {
             variables = Collections.emptyMap();
         }
-        Object[] resolved = new Object[mapper.size()];
-        for(Map.Entry<Object, Integer> mapping: mapper.entrySet()) {
-            if (".".equals(mapping.getKey())) {
-                resolved[mapping.getValue()] = checkIsArray(arg);
-                continue;
+        StringBuffer buffer = buffers.get();
+        buffer.setLength(0);
+        FieldPosition pos = new FieldPosition(0);
+        try {
+            for (Appender a: appenders) {
+                a.append(buffer, arg, variables, pos);
             }
-            if (mapperType instanceof Number) {
-                int i = ((Number) mapping.getKey()).intValue();
-                int j = ((Number) mapping.getValue()).intValue();
-                List<Object> l = (List<Object>) arg;
-                if (j > l.size()) {
-                    throw new IllegalArgumentException("index out of range");
-                }
-                resolved[i] = checkIsArray(l.get(j - 1));
-            } else {
-                String[] path = mapping.getKey().toString().split("\\.");
-                if (path.length == 1) {
-                    // Only one element in the key, just use it
-                    if (! variables.containsKey(mapping.getKey())) {
-                        throw new IllegalArgumentException("invalid values for format key " + mapping.getKey());
-                    }
-                    resolved[mapping.getValue()] = checkIsArray(variables.get(mapping.getKey()));
-                } else {
-                    // Recurse, variables written as "a.b.c" are paths in maps
-                    Map<String, Object> current = variables;
-                    String key = path[0];
-                    for(int i = 0; i < path.length - 1; i++) {
-                        Map<String, Object> next = (Map<String, Object>) current.get(key);
-                        if( next == null || ! (next instanceof Map) ) {
-                            throw new IllegalArgumentException("invalid values for format key " + mapping.getKey());
-                        }
-                        current = next;
-                        key = path[i + 1];
-                    }
-                    if (current != null) {
-                        resolved[mapping.getValue()] = checkIsArray(current.get(key));
-                    }
-                }
+            return buffer.toString();
+        } finally {
+            if (buffer.capacity() > MAXBUFFERSIZE) {
+                buffers.remove();
             }
         }
-        return mf.format(resolved, new StringBuffer(), new FieldPosition(0)).toString();
     }
 
     private Object checkIsArray(Object arg) {
@@ -525,7 +607,7 @@ public class VarFormatter {
         }
     }
 
-    private StringBuilder findVariables(StringBuilder buffer, String in, int last, List<String> formats) {
+    private StringBuilder findVariables(StringBuilder buffer, String in, int last, List<String> formats, List<Object> parts) {
         Matcher m = varregexp.matcher(in);
         if(m.find()) {
             String before = m.group("before");
@@ -535,15 +617,19 @@ public class VarFormatter {
             String quote = m.group("quote");
             String after = m.group("after");
             buffer.append(before);
+            addLiteral(parts, before);
             if (curlybraces != null) {
                 // Escape a {} pair
                 buffer.append("'" + curlybraces + "'");
+                addLiteral(parts, curlybraces);
             } else if (quote != null) {
                 // Escape a lone '
                 buffer.append("''");
+                addLiteral(parts, "'");
             } else if (varname == null && format == null) {
                 // Not really a find, put back and continue
                 buffer.append("$'{}'");
+                addLiteral(parts, "${}");
             } else {
                 if(format == null || format.isEmpty()) {
                     format = "%s";
@@ -559,21 +645,40 @@ public class VarFormatter {
                     index = last;
                     int i = Integer.parseInt(listIndexMatch.group("index"));
                     mapper.put(last++, i);
+                    parts.add(new Variable(i));
                 } else  if( ! mapper.containsKey(varname)) {
                     index = last;
                     mapper.put(varname, last++);
+                    parts.add(new Variable(varname));
                 } else {
                     index = mapper.get(varname);
+                    parts.add(new Variable(varname));
                 }
                 buffer.append("{" + index + "}");
             }
-            findVariables(buffer, after, last, formats);
+            findVariables(buffer, after, last, formats, parts);
         } else {
             buffer.append(in);
+            addLiteral(parts, in);
         }
         return buffer;
     }
 
+    /**
+     * Add a literal part, merged with the previous one if it's a literal too
+     */
+    private void addLiteral(List<Object> parts, String literal) {
+        if (literal.isEmpty()) {
+            return;
+        }
+        int last = parts.size() - 1;
+        if (last >= 0 && parts.get(last) instanceof String) {
+            parts.set(last, parts.get(last) + literal);
+        } else {
+            parts.add(literal);
+        }
+    }
+
     private Format resolveFormat(String format) {
         Matcher m = formatSpecifier.matcher(format);
         if(m.matches()) {
@@ -44,6 +44,7 @@ import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.apache.logging.log4j.core.LoggerContext;
 
+import loghub.BoundedConcurrentQueue;
 import loghub.Event;
 import loghub.Helpers;
 import loghub.Helpers.ThrowingConsumer;
@@ -59,6 +60,7 @@ import loghub.RouteParser.PropertyContext;
 import loghub.RouteParser.SourcedefContext;
 import loghub.RouteParser.SourcesContext;
 import loghub.Source;
+import loghub.SpillingQueue;
 import loghub.configuration.ConfigListener.Input;
 import loghub.configuration.ConfigListener.Output;
 import loghub.receivers.Receiver;
@@ -69,6 +71,7 @@ public class Configuration {
     private static final Logger logger = LogManager.getLogger();
 
     private static final int DEFAULTQUEUEDEPTH = 100;
+    private static final long DEFAULTSPILLMAXSIZE = 1024L * 1024 * 1024;
 
     private List<Receiver> receivers;
     private Set<String> inputpipelines = new HashSet<>();
@@ -353,9 +356,24 @@ public class Configuration {
         final int queuesDepth = newProperties.containsKey("queueDepth") ? (Integer) newProperties.remove("queueDepth") : DEFAULTQUEUEDEPTH;
         newProperties.put(Properties.PROPSNAMES.QUEUESDEPTH.toString(), queuesDepth);
 
-        BlockingQueue<Event> mainQueue = new ArrayBlockingQueue<Event>(queuesDepth);
+        // The queue implementation, concurrent use a lock-free queue instead of a single lock one
+        final String queueType = newProperties.containsKey("queueType") ? newProperties.remove("queueType").toString() : "array";
+        BlockingQueue<Event> mainQueue = buildQueue(queueType, queuesDepth);
         Map<String, BlockingQueue<Event>> outputQueues = new HashMap<>(namedPipeLine.size());
-        conf.outputPipelines.forEach( i-> outputQueues.put(i, new ArrayBlockingQueue<Event>(queuesDepth)));
+        // Output queues can overflow to disk, when a sender is slow or down
+        final Path spillDirectory = newProperties.containsKey("spillDirectory") ? Paths.get(newProperties.remove("spillDirectory").toString()) : null;
+        final long spillMaxSize = newProperties.containsKey("spillMaxSize") ? ((Number) newProperties.remove("spillMaxSize")).longValue() : DEFAULTSPILLMAXSIZE;
+        conf.outputPipelines.forEach( i-> {
+            BlockingQueue<Event> queue = buildQueue(queueType, queuesDepth);
+            if (spillDirectory != null) {
+                try {
+                    queue = new SpillingQueue(queue, spillDirectory.resolve(i), spillMaxSize);
+                } catch (IOException | IllegalArgumentException e) {
+                    throw new ConfigException("Can't create spill queue for " + i + ": " + Helpers.resolveThrowableException(e), e);
+                }
+            }
+            outputQueues.put(i, queue);
+        });
 
         newProperties.put(Properties.PROPSNAMES.FORMATTERS.toString(), conf.formatters);
         newProperties.put(Properties.PROPSNAMES.MAINQUEUE.toString(), mainQueue);
@@ -413,6 +431,17 @@ public class Configuration {
         return new Properties(newProperties);
     }
 
+    private BlockingQueue<Event> buildQueue(String queueType, int queuesDepth) {
+        switch (queueType) {
+        case "array":
+            return new ArrayBlockingQueue<Event>(queuesDepth);
+        case "concurrent":
+            return new BoundedConcurrentQueue<Event>(queuesDepth);
+        default:
+            throw new ConfigException("Unknown queue type: " + queueType);
+        }
+    }
+
     private static final class LogHubClassloader extends URLClassLoader {
         public LogHubClassloader(URL[] urls) {
             super(urls);
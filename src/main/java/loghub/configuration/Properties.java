@@ -10,6 +10,7 @@ import java.util.Map;
 import java.util.Timer;
 import java.util.TimerTask;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.LinkedBlockingDeque;
 import java.util.function.BiFunction;
 import java.util.function.Function;
@@ -44,6 +45,7 @@ import loghub.PausingTimer;
 import loghub.Pipeline;
 import loghub.Processor;
 import loghub.Source;
+import loghub.SpillingQueue;
 import loghub.ThreadBuilder;
 import loghub.VarFormatter;
 import loghub.jmx.Helper;
@@ -57,7 +59,92 @@ import loghub.zmq.SmartContext;
 public class Properties extends HashMap<String, Object> {
 
     public static final class MetricRegistryWrapper {
+
+        /**
+         * The metrics of a pipeline, resolved once so the processing of an event don't need to build
+         * names and search them in the registry.
+         */
+        public static final class PipelineMetrics {
+            public final Counter inflight;
+            public final PausingTimer timer;
+            public final Meter failed;
+            public final Meter dropped;
+            public final Meter blockedIn;
+            public final Meter blockedOut;
+            public final Counter exception;
+            private PipelineMetrics(MetricRegistryWrapper wrapper, String name) {
+                String prefix = "Pipeline." + name + ".";
+                inflight = wrapper.counter(prefix + "inflight");
+                timer = wrapper.pausingTimer(prefix + "timer");
+                failed = wrapper.meter(prefix + "failed");
+                dropped = wrapper.meter(prefix + "dropped");
+                blockedIn = wrapper.meter(prefix + "blocked.in");
+                blockedOut = wrapper.meter(prefix + "blocked.out");
+                exception = wrapper.counter(prefix + "exception");
+            }
+        }
+
+        /**
+         * The metrics of a sender, resolved once.
+         */
+        public static final class SenderMetrics {
+            public final Counter activeBatches;
+            public final Histogram batchesSize;
+            public final Histogram batchesBytes;
+            public final com.codahale.metrics.Timer flushDuration;
+            private SenderMetrics(MetricRegistryWrapper wrapper, String name) {
+                String prefix = "sender." + name + ".";
+                activeBatches = wrapper.counter(prefix + "activeBatches");
+                batchesSize = wrapper.histogram(prefix + "batchesSize");
+                batchesBytes = wrapper.histogram(prefix + "batchesBytes");
+                flushDuration = wrapper.timer(prefix + "flushDuration");
+            }
+        }
+
+        /**
+         * The metrics for all the events.
+         */
+        public static final class AllEventsMetrics {
+            public final Counter inflight;
+            public final com.codahale.metrics.Timer timer;
+            public final Meter failed;
+            public final Meter dropped;
+            private AllEventsMetrics(MetricRegistryWrapper wrapper) {
+                inflight = wrapper.counter("Allevents.inflight");
+                timer = wrapper.timer("Allevents.timer");
+                failed = wrapper.meter("Allevents.failed");
+                dropped = wrapper.meter("Allevents.dropped");
+            }
+        }
+
         private MetricRegistry metrics = new MetricRegistry();
+        private final Map<String, PipelineMetrics> pipelinesMetrics = new ConcurrentHashMap<>();
+        private final Map<String, SenderMetrics> sendersMetrics = new ConcurrentHashMap<>();
+        private volatile AllEventsMetrics allEvents = new AllEventsMetrics(this);
+
+        /**
+         * Return the metrics for a pipeline. It should be called at configuration time and the result kept,
+         * the handles are invalidated by {@link #reset()}.
+         * @param name the pipeline name
+         * @return the metrics handles
+         */
+        public PipelineMetrics pipelineMetrics(String name) {
+            return pipelinesMetrics.computeIfAbsent(name, i -> new PipelineMetrics(this, i));
+        }
+
+        /**
+         * Return the metrics for a sender. It should be called at configuration time and the result kept,
+         * the handles are invalidated by {@link #reset()}.
+         * @param name the sender name
+         * @return the metrics handles
+         */
+        public SenderMetrics senderMetrics(String name) {
+            return sendersMetrics.computeIfAbsent(name, i -> new SenderMetrics(this, i));
+        }
+
+        public AllEventsMetrics allEvents() {
+            return allEvents;
+        }
 
         public Counter counter(String name) {
             return metrics.counter(name);
@@ -81,6 +168,9 @@ public class Properties extends HashMap<String, Object> {
 
         public void reset() {
             metrics = new MetricRegistry();
+            pipelinesMetrics.clear();
+            sendersMetrics.clear();
+            allEvents = new AllEventsMetrics(this);
         }
 
         public <T extends Metric> T register(String name, T metric) throws IllegalArgumentException {
@@ -149,6 +239,7 @@ public class Properties extends HashMap<String, Object> {
     public final Map<String, BlockingQueue<Event>> outputQueues;
     public final int queuesDepth;
     public final int maxSteps;
+    public final int workerBatchSize;
     public final EventsRepository<Future<?>> repository;
     public final SSLContext ssl;
     public final javax.security.auth.login.Configuration jaasConfig;
@@ -205,16 +296,7 @@ public class Properties extends HashMap<String, Object> {
         }
 
         // Extracts all the named pipelines and generate metrics for them
-        namedPipeLine.keySet().stream().forEach( i -> {
-            metrics.counter("Pipeline." + i + ".inflight");
-            metrics.pausingTimer("Pipeline." + i + ".timer");
-            metrics.meter("Pipeline." + i + ".failed");
-            metrics.meter("Pipeline." + i + ".dropped");
-            metrics.meter("Pipeline." + i + ".blocked.in");
-            metrics.meter("Pipeline." + i + ".blocked.out");
-        });
-        metrics.counter("Allevents.inflight");
-        metrics.timer("Allevents.timer");
+        namedPipeLine.forEach((i, j) -> j.setMetrics(metrics.pipelineMetrics(i)));
         //Read the jmx configuration
         Integer jmxport = (Integer) properties.remove("jmx.port");
         if (jmxport != null) {
@@ -249,6 +331,13 @@ public class Properties extends HashMap<String, Object> {
             maxSteps = 128;
         }
 
+        // Number of events that a worker can drain from the main queue in one operation
+        if (properties.containsKey("workerBatchSize")) {
+            workerBatchSize = (Integer) properties.remove("workerBatchSize");
+        } else {
+            workerBatchSize = 1;
+        }
+
         ssl = ContextLoader.build(properties.entrySet().stream().filter(i -> i.getKey().startsWith("ssl.")).collect(Collectors.toMap( i -> i.getKey().substring(4), j -> j.getValue())));
 
         jwtHandler = buildJwtAlgorithm(properties.entrySet().stream().filter(i -> i.getKey().startsWith("jwt.")).collect(Collectors.toMap( i -> i.getKey().substring(4), j -> j.getValue())));
@@ -305,6 +394,9 @@ public class Properties extends HashMap<String, Object> {
                                          return queue.size();
                                      }
                                  });
+                if (queue instanceof SpillingQueue) {
+                    ((SpillingQueue) queue).registerMetrics("EventWaiting.output." + name);
+                }
             }
         }
 
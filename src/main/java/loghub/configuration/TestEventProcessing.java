@@ -113,7 +113,7 @@ public class TestEventProcessing {
 
             props.pipelines.stream().forEach(i-> i.configure(props));
 
-            Thread t = new EventsProcessor(props.mainQueue, props.outputQueues, props.namedPipeLine, props.maxSteps, props.repository);
+            Thread t = new EventsProcessor(props.mainQueue, props.outputQueues, props.namedPipeLine, props.maxSteps, props.repository, props.workerBatchSize);
             t.start();
 
             ObjectMapper mapper = new ObjectMapper(factory);
@@ -1,5 +1,7 @@
 package loghub.decoders;
 
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 
 import org.apache.logging.log4j.LogManager;
@@ -61,4 +63,15 @@ public abstract class Decoder {
         return decode(ctx, msg, 0, msg.length);
     }
 
+    /**
+     * Decode a message that can hold many events. The default implementation returns the single decoded value.
+     * @param ctx the connection context
+     * @param bbuf the message
+     * @return the decoded values, it can be empty
+     * @throws DecodeException
+     */
+    public List<Map<String, Object>> decodeAll(ConnectionContext<?> ctx, ByteBuf bbuf) throws DecodeException {
+        return Collections.singletonList(decode(ctx, bbuf));
+    }
+
 }
@@ -1,9 +1,15 @@
 package loghub.encoders;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.apache.logging.log4j.util.StackLocator;
 
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufOutputStream;
 import loghub.AbstractBuilder;
 import loghub.Event;
 import loghub.configuration.Properties;
@@ -34,4 +40,30 @@ public abstract class Encoder {
 
     public abstract byte[] encode(Event event);
 
+    /**
+     * Encode an event directly in an output stream, the stream is not closed.
+     * <p>
+     * The default implementation writes the result of {@link #encode(Event)}, encoders
+     * that can stream their output should override it, to avoid the intermediate byte array.
+     * @param event
+     * @param out
+     * @throws IOException
+     */
+    public void encode(Event event, OutputStream out) throws IOException {
+        out.write(encode(event));
+    }
+
+    /**
+     * Encode an event at the end of a buffer.
+     * @param event
+     * @param buffer
+     */
+    public void encode(Event event, ByteBuf buffer) {
+        try (ByteBufOutputStream out = new ByteBufOutputStream(buffer)) {
+            encode(event, out);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
 }
@@ -1,18 +1,23 @@
 package loghub.encoders;
 
 import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
-import java.util.Arrays;
-import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Predicate;
 import java.util.regex.Pattern;
 import java.util.zip.GZIPOutputStream;
 
 import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.SerializableString;
+import com.fasterxml.jackson.core.io.SerializedString;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
 
 import loghub.BuilderClass;
 import loghub.Event;
@@ -58,8 +63,28 @@ public class Gelf extends Encoder {
         }
     }
 
-    private static final JsonFactory factory = new JsonFactory();
-    private static final ThreadLocal<ObjectMapper> json = ThreadLocal.withInitial(() ->new ObjectMapper(factory));
+    private static final JsonFactory factory = new JsonFactory().disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+    private static final ThreadLocal<ObjectMapper> json = ThreadLocal.withInitial(() ->new ObjectMapper(factory).disable(SerializationFeature.FLUSH_AFTER_WRITE_VALUE));
+    // The "_" prefixed names, with their JSON encoding cached
+    private static final int MAXCACHEDNAMES = 4096;
+    private static final Map<String, SerializableString> fieldsNames = new ConcurrentHashMap<>();
+
+    /**
+     * Used to close the gzip stream, without closing the destination.
+     */
+    private static class ShieldedOutputStream extends FilterOutputStream {
+        ShieldedOutputStream(OutputStream out) {
+            super(out);
+        }
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+        }
+        @Override
+        public void close() throws IOException {
+            flush();
+        }
+    }
 
     private final boolean compressed;
     private final boolean stream;
@@ -76,40 +101,68 @@ public class Gelf extends Encoder {
 
     @Override
     public byte[] encode(Event event) {
-        try {
-            Map<String, Object> gelfcontent = new HashMap<>(event.size() + 5);
-            gelfcontent.put("version", "1.1");
-            gelfcontent.put("host", hostname);
+        try (ByteArrayOutputStream bos = new ByteArrayOutputStream()) {
+            encode(event, bos);
+            return bos.toByteArray();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * The event is written field by field, without any intermediate map, and is not modified.
+     */
+    @Override
+    public void encode(Event event, OutputStream out) throws IOException {
+        if (compressed) {
+            try (GZIPOutputStream gzout = new GZIPOutputStream(new ShieldedOutputStream(out))) {
+                write(event, gzout);
+            }
+        } else {
+            write(event, out);
+            if (stream) {
+                out.write(0);
+            }
+        }
+    }
+
+    private void write(Event event, OutputStream out) throws IOException {
+        ObjectMapper mapper = json.get();
+        try (JsonGenerator gen = factory.createGenerator(out)) {
+            gen.writeStartObject();
+            gen.writeStringField("version", "1.1");
+            gen.writeStringField("host", hostname);
             if (event.containsKey(shortmessagefield)) {
-                gelfcontent.put("short_message", event.remove(shortmessagefield));
+                gen.writeFieldName("short_message");
+                mapper.writeValue(gen, event.get(shortmessagefield));
             }
             if (fullmessagefield != null && event.containsKey(fullmessagefield)) {
-                gelfcontent.put("full_message", event.remove(fullmessagefield));
+                gen.writeFieldName("full_message");
+                mapper.writeValue(gen, event.get(fullmessagefield));
             }
-            gelfcontent.put("timestamp", event.getTimestamp().getTime() / 1000.0);
-            event.entrySet().stream()
-            .filter( i ->  ! "id".equals(i.getKey()))
-            .filter( i -> fieldpredicate.test(i.getKey()))
-            .forEach( i -> gelfcontent.put( "_" + i.getKey(), i.getValue()));
-            byte[] buffer1 = json.get().writeValueAsBytes(gelfcontent);
-            byte[] buffer2;
-            if (compressed) {
-                try (final ByteArrayOutputStream bos = new ByteArrayOutputStream();
-                                final GZIPOutputStream stream = new GZIPOutputStream(bos)) {
-
-                    stream.write(buffer1);
-                    stream.finish();
-                    buffer2 = bos.toByteArray();
+            gen.writeNumberField("timestamp", event.getTimestamp().getTime() / 1000.0);
+            for (Map.Entry<String, Object> e: event.entrySet()) {
+                String key = e.getKey();
+                if ("id".equals(key) || key.equals(shortmessagefield) || key.equals(fullmessagefield) || ! fieldpredicate.test(key)) {
+                    continue;
                 }
-            } else if (stream) {
-                buffer2 = Arrays.copyOf(buffer1, buffer1.length+1);
-            } else {
-                buffer2 = buffer1;
+                gen.writeFieldName(fieldName(key));
+                mapper.writeValue(gen, e.getValue());
+            }
+            gen.writeEndObject();
+        }
+    }
+
+    private SerializableString fieldName(String key) {
+        SerializableString name = fieldsNames.get(key);
+        if (name == null) {
+            name = new SerializedString("_" + key);
+            // Don't let unusual events fill the cache
+            if (fieldsNames.size() < MAXCACHEDNAMES) {
+                fieldsNames.putIfAbsent(key, name);
             }
-            return buffer2;
-        } catch (IOException e) {
-            throw new RuntimeException(e);
         }
+        return name;
     }
 
 }
@@ -1,6 +1,10 @@
 package loghub.encoders;
 
+import java.io.IOException;
+import java.io.OutputStream;
+
 import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.SerializationFeature;
@@ -38,7 +42,8 @@ public class ToJson extends Encoder {
         return new Builder();
     }
 
-    private static final JsonFactory factory = new JsonFactory();
+    // The destination stream belongs to the caller
+    private static final JsonFactory factory = new JsonFactory().disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
     private static final ThreadLocal<ObjectMapper> json = new ThreadLocal<ObjectMapper>() {
         @Override
         protected ObjectMapper initialValue() {
@@ -59,4 +64,9 @@ public class ToJson extends Encoder {
         }
     }
 
+    @Override
+    public void encode(Event event, OutputStream out) throws IOException {
+        json.get().writeValue(out, event);
+    }
+
 }
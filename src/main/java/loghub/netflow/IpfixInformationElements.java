@@ -120,61 +120,95 @@ class IpfixInformationElements {
         return elements.containsKey(i) ? elements.get(i).name : Integer.toString(i);
     }
 
-    private static final ThreadLocal<byte[]> buffer4 = ThreadLocal.withInitial(() -> new byte[4]);
-    private static final ThreadLocal<byte[]> buffer16 = ThreadLocal.withInitial(() -> new byte[16]);
+    /**
+     * Read a value of an information element, using exactly length bytes.
+     */
+    @FunctionalInterface
+    interface ValueReader {
+        Object read(ByteBuf bbuf, int length);
+    }
+
+    private static final ValueReader BYTESREADER = (b, l) -> {
+        byte[] buffer = new byte[l];
+        b.readBytes(buffer);
+        return buffer;
+    };
 
     public Object getValue(int i, ByteBuf bbuf) {
-        try {
-            Element e = elements.get(i);
-            if (e == null) {
-                byte[] buffer = new byte[bbuf.readableBytes()];
-                bbuf.readBytes(buffer);
-                return buffer;
-            }
-            if ("ipv4Address".equals(e.type) && bbuf.isReadable(4)) {
-                bbuf.readBytes(buffer4.get());
-                return InetAddress.getByAddress(buffer4.get());
-            } else if ("ipv6Address".equals(e.type) && bbuf.isReadable(16)) {
-                bbuf.readBytes(buffer16.get());
-                return InetAddress.getByAddress(buffer16.get());
-            } else if ("dateTimeMilliseconds".equals(e.type)) {
-                long value = readNumValue(bbuf);
-                return new Date(value);
-            } else if (e.type.startsWith("unsigned")) {
-                return readUnsignedNumValue(bbuf);
-            } else if (e.type.startsWith("signed")) {
-                return readNumValue(bbuf);
-            } else if ("applicationId".equals(e.name)) {
-                byte[] buffer = new byte[bbuf.readableBytes()];
-                bbuf.readBytes(buffer);
+        return getReader(i).read(bbuf, bbuf.readableBytes());
+    }
+
+    /**
+     * Resolve once the reader for an information element.
+     * @param i the element id
+     * @return a reader for the values of this element
+     */
+    ValueReader getReader(int i) {
+        Element e = elements.get(i);
+        if (e == null) {
+            return BYTESREADER;
+        } else if ("ipv4Address".equals(e.type)) {
+            return (b, l) -> readAddress(b, l, 4, e);
+        } else if ("ipv6Address".equals(e.type)) {
+            return (b, l) -> readAddress(b, l, 16, e);
+        } else if ("dateTimeMilliseconds".equals(e.type)) {
+            return (b, l) -> new Date(readNumValue(b, l));
+        } else if (e.type.startsWith("unsigned")) {
+            return this::readUnsignedNumValue;
+        } else if (e.type.startsWith("signed")) {
+            return this::readNumValue;
+        } else if ("applicationId".equals(e.name)) {
+            return (b, l) -> {
+                byte[] buffer = new byte[l];
+                b.readBytes(buffer);
                 Map<String, Number> applicationId = new HashMap<>();
                 applicationId.put("ClassificationEngineID", buffer[0]);
                 buffer[0] = 0;
                 ByteBuf selectorBuffer = Unpooled.wrappedBuffer(buffer);
-                applicationId.put("SelectorID", readUnsignedNumValue(selectorBuffer));
+                applicationId.put("SelectorID", readUnsignedNumValue(selectorBuffer, l));
                 return applicationId;
-            } else if ("octetArray".equals(e.type) || "Reserved".equals(e.name)) {
-                byte[] buffer = new byte[bbuf.readableBytes()];
-                bbuf.readBytes(buffer);
-                return buffer;
-            } else if ("macAddress".equals(e.type) && bbuf.isReadable(6)) {
+            };
+        } else if ("octetArray".equals(e.type) || "Reserved".equals(e.name)) {
+            return BYTESREADER;
+        } else if ("macAddress".equals(e.type)) {
+            return (b, l) -> {
+                if (l < 6) {
+                    throw new RuntimeException("unmannage type: " + e.name);
+                }
                 byte[] buffer = new byte[6];
-                bbuf.readBytes(buffer);
+                b.readBytes(buffer);
+                b.skipBytes(l - 6);
                 return new MacAddress(buffer);
-            } else if ("string".equals(e.type)) {
-                byte[] buffer = new byte[bbuf.readableBytes()];
-                bbuf.readBytes(buffer);
-                return new String(buffer, CharsetUtil.UTF_8);
-            } else {
+            };
+        } else if ("string".equals(e.type)) {
+            return (b, l) -> {
+                String value = b.toString(b.readerIndex(), l, CharsetUtil.UTF_8);
+                b.skipBytes(l);
+                return value;
+            };
+        } else {
+            return (b, l) -> {
                 throw new RuntimeException("unmannage type: " + e.name);
-            }
-        } catch (UnknownHostException e) {
-            throw new UncheckedIOException(e);
+            };
+        }
+    }
+
+    private InetAddress readAddress(ByteBuf bbuf, int length, int expected, Element e) {
+        if (length < expected) {
+            throw new RuntimeException("unmannage type: " + e.name);
+        }
+        byte[] buffer = new byte[expected];
+        bbuf.readBytes(buffer);
+        bbuf.skipBytes(length - expected);
+        try {
+            return InetAddress.getByAddress(buffer);
+        } catch (UnknownHostException ex) {
+            throw new UncheckedIOException(ex);
         }
     }
 
-    private long readNumValue(ByteBuf bbuf) {
-        switch (bbuf.readableBytes()) {
+    private long readNumValue(ByteBuf bbuf, int length) {
+        switch (length) {
         case 0:
             return 0;
         case 1:
@@ -186,12 +220,12 @@ class IpfixInformationElements {
         case 8:
             return bbuf.readLong();
         default:
-            throw new RuntimeException("Unreadable size :" + bbuf.readableBytes());
+            throw new RuntimeException("Unreadable size :" + length);
         }
     }
 
-    private long readUnsignedNumValue(ByteBuf bbuf) {
-        switch (bbuf.readableBytes()) {
+    private long readUnsignedNumValue(ByteBuf bbuf, int length) {
+        switch (length) {
         case 0:
             return 0;
         case 1:
@@ -203,7 +237,7 @@ class IpfixInformationElements {
         case 8:
             return bbuf.readLong();
         default:
-            throw new RuntimeException("Unreadable size :" + bbuf.readableBytes());
+            throw new RuntimeException("Unreadable size :" + length);
         }
     }
 
@@ -13,8 +13,8 @@ public class IpfixPacket extends TemplateBasePacket implements NetflowPacket {
         return hi;
     };
 
-    public IpfixPacket(InetAddress remoteAddr, ByteBuf bbuf, IpfixInformationElements ipfixtypes) {
-        super(remoteAddr, bbuf, headerreder, ipfixtypes);
+    public IpfixPacket(InetAddress remoteAddr, ByteBuf bbuf, IpfixInformationElements ipfixtypes, TemplatesCache templates) {
+        super(remoteAddr, bbuf, headerreder, ipfixtypes, templates);
     }
 
     @Override
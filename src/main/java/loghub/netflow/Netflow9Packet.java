@@ -18,8 +18,8 @@ public class Netflow9Packet extends TemplateBasePacket implements NetflowPacket
 
     private final Duration sysUpTime;
 
-    public Netflow9Packet(InetAddress remoteAddr, ByteBuf bbuf, IpfixInformationElements nf9types) {
-        super(remoteAddr, bbuf, headerreder, nf9types);
+    public Netflow9Packet(InetAddress remoteAddr, ByteBuf bbuf, IpfixInformationElements nf9types, TemplatesCache templates) {
+        super(remoteAddr, bbuf, headerreder, nf9types, templates);
         sysUpTime = Duration.of(header.sysUpTime, ChronoUnit.MILLIS);
     }
 
@@ -1,21 +1,42 @@
 package loghub.netflow;
 
-import java.net.InetAddress;
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.UUID;
+
+import org.apache.logging.log4j.Level;
 
 import io.netty.buffer.ByteBuf;
 import loghub.BuilderClass;
 import loghub.ConnectionContext;
 import loghub.Event;
+import loghub.Helpers;
 import loghub.IpConnectionContext;
+import loghub.configuration.Properties;
 import loghub.decoders.Decoder;
+import loghub.netflow.TemplateBasePacket.TemplateType;
+import loghub.receivers.Receiver;
+import lombok.Setter;
 
 @BuilderClass(NetflowDecoder.Builder.class)
 public class NetflowDecoder extends Decoder {
 
     public static class Builder extends Decoder.Builder<NetflowDecoder> {
+        // In seconds
+        @Setter
+        private long templatesTimeout = PacketFactory.DEFAULTTEMPLATESTIMEOUT;
+        // A file used to keep the templates across restarts
+        @Setter
+        private String templatesStore = null;
+        // Send each flow record as a separate event
+        @Setter
+        private boolean splitRecords = false;
         @Override
         public NetflowDecoder build() {
             return new NetflowDecoder(this);
@@ -25,8 +46,28 @@ public class NetflowDecoder extends Decoder {
         return new Builder();
     }
 
-    private NetflowDecoder(loghub.decoders.Decoder.Builder<? extends Decoder> builder) {
+    private final TemplatesCache templates;
+    private final boolean splitRecords;
+
+    private NetflowDecoder(Builder builder) {
         super(builder);
+        splitRecords = builder.splitRecords;
+        templates = new TemplatesCache(builder.templatesTimeout, builder.templatesStore != null ? Paths.get(builder.templatesStore) : null);
+    }
+
+    @Override
+    public boolean configure(Properties properties, Receiver receiver) {
+        try {
+            templates.load();
+        } catch (IOException e) {
+            logger.error("Unable to load templates: {}", Helpers.resolveThrowableException(e));
+            logger.catching(Level.DEBUG, e);
+        }
+        properties.registerScheduledTask("NetflowTemplates", () -> {
+            templates.expire();
+            templates.trySave();
+        }, 60 * 1000L);
+        return super.configure(properties, receiver);
     }
 
     @Override
@@ -36,34 +77,78 @@ public class NetflowDecoder extends Decoder {
 
     @Override
     public Map<String, Object> decode(ConnectionContext<?> ctx, ByteBuf bbuf) throws DecodeException {
-        InetAddress addr;
         if (ctx instanceof IpConnectionContext) {
-            addr = ((IpConnectionContext)ctx).getRemoteAddress().getAddress();
-            NetflowPacket packet = PacketFactory.parsePacket(addr, bbuf);
-            Map<String, Object> ev = new HashMap<>();
-            ev.put(Event.TIMESTAMPKEY, Date.from(packet.getExportTime()));
-            ev.put("sequenceNumber", packet.getSequenceNumber());
-            switch (packet.getVersion()) {
-            case 5:
-                Netflow5Packet packet5 = (Netflow5Packet) packet;
-                ev.put("engine_type", packet5.getEngineType());
-                ev.put("sampling_interval", packet5.getSamplingInterval());
-                ev.put("sampling_mode", packet5.getSamplingMode());
-                ev.put("SysUptime", packet5.getSysUpTime());
-                break;
-            case 9:
-                ev.put("SysUptime", ((Netflow9Packet)packet).getSysUpTime());
-                break;
-            case 10:
-                break;
-            default:
-                throw new UnsupportedOperationException();
-            }
-            ev.put("version", packet.getVersion());
+            NetflowPacket packet = parsePacket((IpConnectionContext) ctx, bbuf);
+            Map<String, Object> ev = readHeader(packet);
             ev.put("records", packet.getRecords());
             return ev;
         }
         return null;
     }
 
+    /**
+     * If splitRecords is set, each flow record is returned as a separate event. The header fields values and
+     * the message UUID are shared by all the events of the packet.
+     */
+    @Override
+    public List<Map<String, Object>> decodeAll(ConnectionContext<?> ctx, ByteBuf bbuf) throws DecodeException {
+        if (! splitRecords) {
+            return super.decodeAll(ctx, bbuf);
+        } else if (ctx instanceof IpConnectionContext) {
+            NetflowPacket packet = parsePacket((IpConnectionContext) ctx, bbuf);
+            Map<String, Object> header = readHeader(packet);
+            header.put("msgUUID", UUID.randomUUID());
+            List<Map<String, Object>> records = packet.getRecords();
+            List<Map<String, Object>> events = new ArrayList<>(records.size());
+            UUID lastOptionsUuid = null;
+            for (Map<String, Object> record: records) {
+                Map<String, Object> ev = new HashMap<>((header.size() + 2) * 4 / 3 + 1);
+                ev.putAll(header);
+                TemplateType recordType = (TemplateType) record.remove(PacketFactory.TYPEKEY);
+                if (recordType == TemplateType.Options) {
+                    lastOptionsUuid = UUID.randomUUID();
+                    ev.put("UUID", lastOptionsUuid);
+                    ev.put("option", record);
+                } else {
+                    ev.put("record", record);
+                    if (lastOptionsUuid != null) {
+                        ev.put("optionsUUID", lastOptionsUuid);
+                    }
+                }
+                events.add(ev);
+            }
+            return events;
+        } else {
+            return Collections.singletonList(null);
+        }
+    }
+
+    private NetflowPacket parsePacket(IpConnectionContext ctx, ByteBuf bbuf) throws DecodeException {
+        return PacketFactory.parsePacket(ctx.getRemoteAddress().getAddress(), bbuf, templates);
+    }
+
+    private Map<String, Object> readHeader(NetflowPacket packet) {
+        Map<String, Object> ev = new HashMap<>();
+        ev.put(Event.TIMESTAMPKEY, Date.from(packet.getExportTime()));
+        ev.put("sequenceNumber", packet.getSequenceNumber());
+        switch (packet.getVersion()) {
+        case 5:
+            Netflow5Packet packet5 = (Netflow5Packet) packet;
+            ev.put("engine_type", packet5.getEngineType());
+            ev.put("sampling_interval", packet5.getSamplingInterval());
+            ev.put("sampling_mode", packet5.getSamplingMode());
+            ev.put("SysUptime", packet5.getSysUpTime());
+            break;
+        case 9:
+            ev.put("SysUptime", ((Netflow9Packet)packet).getSysUpTime());
+            break;
+        case 10:
+            break;
+        default:
+            throw new UnsupportedOperationException();
+        }
+        ev.put("version", packet.getVersion());
+        return ev;
+    }
+
 }
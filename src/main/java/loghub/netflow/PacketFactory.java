@@ -20,10 +20,19 @@ public class PacketFactory {
         }
     }
 
+    // Templates expire after 30 minutes, as some exporters send them every 20 minutes
+    static final long DEFAULTTEMPLATESTIMEOUT = 1800;
+
+    private static final TemplatesCache defaultTemplates = new TemplatesCache(DEFAULTTEMPLATESTIMEOUT, null);
+
     private PacketFactory() {
     }
 
     public static NetflowPacket parsePacket(InetAddress remoteAddr, ByteBuf bbuf) throws DecodeException {
+        return parsePacket(remoteAddr, bbuf, defaultTemplates);
+    }
+
+    public static NetflowPacket parsePacket(InetAddress remoteAddr, ByteBuf bbuf, TemplatesCache templates) throws DecodeException {
         bbuf.markReaderIndex();
         short version = bbuf.readShort();
         bbuf.resetReaderIndex();
@@ -31,9 +40,9 @@ public class PacketFactory {
         case 5:
             return new Netflow5Packet(bbuf);
         case 9:
-            return new Netflow9Packet(remoteAddr, bbuf, ipfixtypes);
+            return new Netflow9Packet(remoteAddr, bbuf, ipfixtypes, templates);
         case 10:
-            return new IpfixPacket(remoteAddr, bbuf, ipfixtypes);
+            return new IpfixPacket(remoteAddr, bbuf, ipfixtypes, templates);
         default:
             throw new DecodeException("Unsupported netflow/IPFIX packet version: " + version);
         }
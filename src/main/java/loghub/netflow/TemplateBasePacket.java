@@ -1,5 +1,6 @@
 package loghub.netflow;
 
+import java.io.Serializable;
 import java.net.InetAddress;
 import java.time.Instant;
 import java.util.ArrayList;
@@ -7,6 +8,7 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.function.Function;
 
 import org.apache.logging.log4j.LogManager;
@@ -16,42 +18,6 @@ import io.netty.buffer.ByteBuf;
 
 public abstract class TemplateBasePacket implements NetflowPacket {
 
-    private static class TemplateId {
-        private final InetAddress remoteAddr;
-        private final int id;
-        private TemplateId(InetAddress remoteAddr, int id) {
-            super();
-            this.remoteAddr = remoteAddr;
-            this.id = id;
-        }
-        @Override
-        public int hashCode() {
-            final int prime = 31;
-            int result = 1;
-            result = prime * result + id;
-            result = prime * result + ((remoteAddr == null) ? 0 : remoteAddr.hashCode());
-            return result;
-        }
-        @Override
-        public boolean equals(Object obj) {
-            if(this == obj)
-                return true;
-            if(obj == null)
-                return false;
-            if(getClass() != obj.getClass())
-                return false;
-            TemplateId other = (TemplateId) obj;
-            if(id != other.id)
-                return false;
-            if(remoteAddr == null) {
-                if(other.remoteAddr != null)
-                    return false;
-            } else if(!remoteAddr.equals(other.remoteAddr))
-                return false;
-            return true;
-        }
-    }
-
     enum TemplateType {
         Records,
         Options
@@ -59,13 +25,14 @@ public abstract class TemplateBasePacket implements NetflowPacket {
 
     private static final Logger logger = LogManager.getLogger();
 
-    protected final Map<TemplateId, Map<Integer,Template>> templates = new HashMap<>();
-
-    private static class Template {
+    static class Template implements Serializable {
+        private static final long serialVersionUID = 1L;
         private final TemplateType type;
         private final List<Number> types;
         private final List<Integer> sizes;
         private final List<Boolean> areScops;
+        // Compiled on first use
+        private transient volatile RecordReader reader;
         private Template(TemplateType type, int count) {
             this.type = type;
             types = new ArrayList<>(count);
@@ -83,11 +50,28 @@ public abstract class TemplateBasePacket implements NetflowPacket {
             sizes.add(size);
             areScops.add(isScope);
         }
-        private int getSizes() {
-            return sizes.size();
+        private RecordReader getReader(IpfixInformationElements ie) {
+            RecordReader r = reader;
+            if (r == null) {
+                r = new RecordReader(this, ie);
+                reader = r;
+            }
+            return r;
         }
-        private int getSize(int record) {
-            return sizes.get(record);
+        @Override
+        public int hashCode() {
+            return Objects.hash(type, types, sizes, areScops);
+        }
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            } else if (obj == null || getClass() != obj.getClass()) {
+                return false;
+            } else {
+                Template other = (Template) obj;
+                return type == other.type && types.equals(other.types) && sizes.equals(other.sizes) && areScops.equals(other.areScops);
+            }
         }
         @Override
         public String toString() {
@@ -100,6 +84,59 @@ public abstract class TemplateBasePacket implements NetflowPacket {
         }
     }
 
+    /**
+     * A template compiled for the decoding of records, with the sizes, names and value readers of the fields
+     * resolved once.
+     */
+    private static class RecordReader {
+        private final TemplateType type;
+        private final int[] sizes;
+        private final String[] names;
+        private final IpfixInformationElements.ValueReader[] readers;
+        private final int capacity;
+        private RecordReader(Template tpl, IpfixInformationElements ie) {
+            int count = tpl.types.size();
+            type = tpl.type;
+            sizes = new int[count];
+            names = new String[count];
+            readers = new IpfixInformationElements.ValueReader[count];
+            for (int i = 0 ; i < count ; i++) {
+                int elementId = tpl.types.get(i).intValue();
+                sizes[i] = tpl.sizes.get(i);
+                names[i] = ie.getName(elementId).intern();
+                readers[i] = ie.getReader(elementId);
+            }
+            // One more entry for the type
+            capacity = (count + 1) * 4 / 3 + 1;
+        }
+        private Map<String, Object> read(ByteBuf bbuf) {
+            Map<String, Object> record = new HashMap<>(capacity);
+            for (int i = 0 ; i < sizes.length ; i++) {
+                int fieldSize = sizes[i];
+                try {
+                    if (fieldSize == 65535) {
+                        fieldSize = bbuf.readUnsignedByte();
+                        if (fieldSize == 255) {
+                            fieldSize = bbuf.readUnsignedShort();
+                        }
+                    }
+                    int start = bbuf.readerIndex();
+                    if (! bbuf.isReadable(fieldSize)) {
+                        throw new IndexOutOfBoundsException();
+                    }
+                    Object value = readers[i].read(bbuf, fieldSize);
+                    bbuf.readerIndex(start + fieldSize);
+                    logger.trace("    {} {} {}", names[i], fieldSize, value);
+                    record.put(names[i], value);
+                } catch (IndexOutOfBoundsException e) {
+                    throw new RuntimeException(String.format("reading outsing range: %d out of %d\n", fieldSize, bbuf.readableBytes()));
+                }
+            }
+            record.put(PacketFactory.TYPEKEY, type);
+            return record;
+        }
+    }
+
     protected static class HeaderInfo {
         int count = -1;
         int length = -1;
@@ -113,11 +150,13 @@ public abstract class TemplateBasePacket implements NetflowPacket {
     protected final int length;
     protected final int count;
     private final IpfixInformationElements types;
+    private final TemplatesCache templates;
     private int recordseen = 0;
     private final List<Map<String, Object>> records = new ArrayList<>();
 
-    protected TemplateBasePacket(InetAddress remoteAddr, ByteBuf bbuf, Function<ByteBuf, HeaderInfo> headerreader, IpfixInformationElements types) {
+    protected TemplateBasePacket(InetAddress remoteAddr, ByteBuf bbuf, Function<ByteBuf, HeaderInfo> headerreader, IpfixInformationElements types, TemplatesCache templates) {
         this.types = types;
+        this.templates = templates;
         short version = bbuf.readShort();
         if (version < 9) {
             throw new RuntimeException("Invalid version");
@@ -199,7 +238,7 @@ public abstract class TemplateBasePacket implements NetflowPacket {
             for (int i = 0 ; i < fieldsCount ; i++) {
                 readDefinition(bbuf, canEntrepriseNumber, template, false);
             }
-            templates.computeIfAbsent(new TemplateId(remoteAddr, sourceId), i -> new HashMap<>()).put(templateId, template);
+            templates.put(remoteAddr, sourceId, templateId, template);
         }
     }
 
@@ -222,7 +261,7 @@ public abstract class TemplateBasePacket implements NetflowPacket {
             while (options.isReadable(3)) {
                 readDefinition(options, false, template, false);
             }
-            templates.computeIfAbsent(new TemplateId(remoteAddr, sourceId), i -> new HashMap<>()).put(templateId, template);
+            templates.put(remoteAddr, sourceId, templateId, template);
         }
     }
 
@@ -241,46 +280,24 @@ public abstract class TemplateBasePacket implements NetflowPacket {
             for(int i = scopesCount; i < fieldsCount; i++) {
                 readDefinition(bbuf, true, template, false);
             } 
-            templates.computeIfAbsent(new TemplateId(remoteAddr, sourceId), i -> new HashMap<>()).put(templateId, template);
+            templates.put(remoteAddr, sourceId, templateId, template);
         }
     }
 
     protected void readDataSet(InetAddress remoteAddr, ByteBuf bbuf, int flowSetId) {
-        TemplateId key = new TemplateId(remoteAddr, sourceId);
-        if ( ! templates.containsKey(key)) {
-            return;
-        }
-        Template tpl = templates.get(key).get(flowSetId);
+        Template tpl = templates.get(remoteAddr, sourceId, flowSetId);
         if (tpl == null) {
+            logger.debug("Unknown template {} from {}", flowSetId, remoteAddr);
+            return;
+        } else if (tpl.types.isEmpty()) {
             return;
         }
+        RecordReader reader = tpl.getReader(types);
         // The test ensure there is more than padding left in the ByteBuf
         while (bbuf.isReadable(3)) {
             recordseen++;
-            Map<String, Object> record = new HashMap<>(tpl.getSizes());
             logger.trace("  data");
-            for (int i = 0 ; i < tpl.getSizes() ; i++) {
-                Number type = null;
-                int fieldSize = 0;
-                try {
-                    type = tpl.types.get(i);
-                    fieldSize = tpl.getSize(i);
-                    if (fieldSize == 65535) {
-                        fieldSize = Byte.toUnsignedInt(bbuf.readByte());
-                        if (fieldSize == 255) {
-                            fieldSize = Short.toUnsignedInt(bbuf.readShort());
-                        }
-                    }
-                    ByteBuf content = bbuf.readSlice(fieldSize);
-                    Object value = types.getValue(type.intValue(), content);
-                    logger.trace("    {} {} {}", types.getName(type.intValue()), fieldSize, value);
-                    record.put(types.getName(type.intValue()), value);
-                    record.put(PacketFactory.TYPEKEY, tpl.type);
-                } catch (IndexOutOfBoundsException e) {
-                    throw new RuntimeException(String.format("reading outsing range: %d out of %d\n", fieldSize, bbuf.readableBytes()));
-                }
-            }
-            records.add(record);
+            records.add(reader.read(bbuf));
         }
     }
 
@@ -0,0 +1,217 @@
+package loghub.netflow;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.net.InetAddress;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.codahale.metrics.Meter;
+
+import loghub.Helpers;
+import loghub.configuration.Properties;
+import loghub.netflow.TemplateBasePacket.Template;
+
+/**
+ * The Netflow v9 and IPFIX templates, shared by all the packets and the threads decoding them.
+ * <p>
+ * Templates are identified by the exporter address, the observation domain (or source id) and the template id.
+ * Reads are lock-free. A template expires if it was not announced again for the timeout, as the exporters send them
+ * at regular intervals. The templates can be saved in a file, so they are available again after a restart, without
+ * waiting for the exporters to send them.
+ */
+public class TemplatesCache {
+
+    private static final Logger logger = LogManager.getLogger();
+
+    static final class TemplateId implements Serializable {
+        private static final long serialVersionUID = 1L;
+        private final InetAddress remoteAddr;
+        private final int domain;
+        private final int id;
+        TemplateId(InetAddress remoteAddr, int domain, int id) {
+            this.remoteAddr = remoteAddr;
+            this.domain = domain;
+            this.id = id;
+        }
+        @Override
+        public int hashCode() {
+            return Objects.hash(remoteAddr, domain, id);
+        }
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            } else if (obj == null || getClass() != obj.getClass()) {
+                return false;
+            } else {
+                TemplateId other = (TemplateId) obj;
+                return id == other.id && domain == other.domain && Objects.equals(remoteAddr, other.remoteAddr);
+            }
+        }
+        @Override
+        public String toString() {
+            return remoteAddr + "/" + domain + "/" + id;
+        }
+    }
+
+    private static final class Entry implements Serializable {
+        private static final long serialVersionUID = 1L;
+        private final Template template;
+        private volatile long lastSeen;
+        private Entry(Template template, long lastSeen) {
+            this.template = template;
+            this.lastSeen = lastSeen;
+        }
+    }
+
+    private final Map<TemplateId, Entry> templates = new ConcurrentHashMap<>();
+    private final long timeout;
+    private final Path store;
+    private final LongSupplier clock;
+    private final Meter hits;
+    private final Meter misses;
+    private volatile boolean modified = false;
+
+    /**
+     * @param timeout how long a template is kept after it was last seen, in seconds
+     * @param store the file where templates are saved, can be null
+     */
+    public TemplatesCache(long timeout, Path store) {
+        this(timeout, store, System::currentTimeMillis);
+    }
+
+    TemplatesCache(long timeout, Path store, LongSupplier clock) {
+        this.timeout = TimeUnit.SECONDS.toMillis(timeout);
+        this.store = store;
+        this.clock = clock;
+        this.hits = Properties.metrics.meter("netflow.templates.hits");
+        this.misses = Properties.metrics.meter("netflow.templates.misses");
+    }
+
+    /**
+     * Find a template
+     * @return the template, or null if it's unknown or expired.
+     */
+    Template get(InetAddress remoteAddr, int domain, int id) {
+        TemplateId key = new TemplateId(remoteAddr, domain, id);
+        Entry e = templates.get(key);
+        if (e != null && clock.getAsLong() - e.lastSeen > timeout) {
+            logger.debug("Template {} expired", key);
+            templates.remove(key, e);
+            e = null;
+        }
+        if (e == null) {
+            misses.mark();
+            return null;
+        } else {
+            hits.mark();
+            return e.template;
+        }
+    }
+
+    /**
+     * Add a template. If it's already known, only the last seen time is updated.
+     */
+    void put(InetAddress remoteAddr, int domain, int id, Template template) {
+        TemplateId key = new TemplateId(remoteAddr, domain, id);
+        long now = clock.getAsLong();
+        Entry e = templates.get(key);
+        if (e != null && e.template.equals(template)) {
+            e.lastSeen = now;
+        } else {
+            logger.debug("New template {}: {}", key, template);
+            templates.put(key, new Entry(template, now));
+            modified = true;
+            // New templates are rare, it's a good time to remove the old ones
+            expire();
+        }
+    }
+
+    /**
+     * Remove all the expired templates.
+     */
+    public void expire() {
+        long now = clock.getAsLong();
+        if (templates.entrySet().removeIf(e -> now - e.getValue().lastSeen > timeout)) {
+            modified = true;
+        }
+    }
+
+    public int size() {
+        return templates.size();
+    }
+
+    /**
+     * Load the saved templates, the expired ones are ignored.
+     * @throws IOException
+     */
+    public void load() throws IOException {
+        if (store == null) {
+            return;
+        }
+        try (InputStream is = Files.newInputStream(store); ObjectInputStream ois = new ObjectInputStream(is)) {
+            @SuppressWarnings("unchecked")
+            Map<TemplateId, Entry> saved = (Map<TemplateId, Entry>) ois.readObject();
+            long now = clock.getAsLong();
+            saved.forEach((k, v) -> {
+                if (now - v.lastSeen <= timeout) {
+                    templates.putIfAbsent(k, v);
+                }
+            });
+            logger.debug("Loaded {} templates from {}", templates::size, () -> store);
+        } catch (NoSuchFileException e) {
+            logger.debug("No saved templates in {}", store);
+        } catch (ClassNotFoundException | ClassCastException e) {
+            throw new IOException("Invalid templates file " + store + ": " + Helpers.resolveThrowableException(e), e);
+        }
+    }
+
+    /**
+     * Save the templates if they were modified since the last save.
+     * @throws IOException
+     */
+    public synchronized void save() throws IOException {
+        if (store == null || ! modified) {
+            return;
+        }
+        modified = false;
+        Path tmpStore = store.resolveSibling(store.getFileName() + ".tmp");
+        try (OutputStream os = Files.newOutputStream(tmpStore); ObjectOutputStream oos = new ObjectOutputStream(os)) {
+            oos.writeObject(new HashMap<>(templates));
+        } catch (IOException e) {
+            modified = true;
+            throw e;
+        }
+        Files.move(tmpStore, store, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Save the templates, the failures are only logged.
+     */
+    public void trySave() {
+        try {
+            save();
+        } catch (IOException e) {
+            logger.error("Unable to save templates in {}: {}", store, Helpers.resolveThrowableException(e));
+            logger.catching(Level.DEBUG, e);
+        }
+    }
+
+}
@@ -37,6 +37,14 @@ public abstract class AbstractTcpReceiver<R extends AbstractTcpReceiver<R, S, B>
         return super.configure(properties, builder);
     }
 
+    /**
+     * TCP sources are slowed down by not reading them when the destination is overloaded.
+     */
+    @Override
+    public boolean withBackpressure() {
+        return true;
+    }
+
     @Override
     public ByteBuf getContent(ByteBuf message) {
         return message;
@@ -30,6 +30,9 @@ public class BaseChannelConsumer<R extends NettyReceiver<?, ?, ?, ?, BS, BSC, ?,
         @Override
         protected void channelRead0(ChannelHandlerContext ctx, Event ev) throws Exception {
             r.nettySend(ev);
+            if (backpressure) {
+                r.pauseIfOverloaded(ctx.channel());
+            }
         }
     }
 
@@ -37,11 +40,11 @@ public class BaseChannelConsumer<R extends NettyReceiver<?, ?, ?, ?, BS, BSC, ?,
     private class LogHubDecoder extends MessageToMessageDecoder<SM> {
         @Override
         protected void decode(ChannelHandlerContext ctx, SM msg, List<Object> out) {
-            Event e = r.nettyMessageDecode(ctx, msg);
-            if (e == null && closeOnError) {
+            List<Event> events = r.nettyMessageDecode(ctx, msg);
+            if (events == null && closeOnError) {
                 ctx.close();
-            } else if (e != null){
-                out.add(e);
+            } else if (events != null){
+                out.addAll(events);
             }
         }
     }
@@ -65,11 +68,13 @@ public class BaseChannelConsumer<R extends NettyReceiver<?, ?, ?, ?, BS, BSC, ?,
     private final EventSender sender = new EventSender();
     private final boolean closeOnError;
     private final boolean selfDecoder;
+    private final boolean backpressure;
     protected final R r;
 
     public BaseChannelConsumer(R r) {
         closeOnError = r.getClass().isAnnotationPresent(CloseOnError.class);
         selfDecoder = r.getClass().isAnnotationPresent(SelfDecoder.class);
+        backpressure = r.withBackpressure();
         this.r = r;
         // Prepare the Netty decoder, before it's used during server creation in #getServer()
         if (! selfDecoder) {
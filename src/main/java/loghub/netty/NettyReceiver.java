@@ -1,7 +1,9 @@
 package loghub.netty;
 
 import java.net.SocketAddress;
+import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.logging.log4j.Level;
 
@@ -9,6 +11,7 @@ import io.netty.bootstrap.AbstractBootstrap;
 import io.netty.buffer.ByteBuf;
 import io.netty.channel.Channel;
 import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.EventLoop;
 import io.netty.util.AttributeKey;
 import loghub.ConnectionContext;
 import loghub.Event;
@@ -30,6 +33,8 @@ public abstract class NettyReceiver<R extends NettyReceiver<R, S, B, CF, BS, BSC
 
     protected static final AttributeKey<ConnectionContext<?  extends SocketAddress>> CONNECTIONCONTEXTATTRIBUTE = AttributeKey.newInstance(ConnectionContext.class.getName());
 
+    private static final long RESUMECHECKDELAY = 10;
+
     protected S server;
     private int threadsCount = 1;
     private String poller = "NIO";
@@ -81,15 +86,63 @@ public abstract class NettyReceiver<R extends NettyReceiver<R, S, B, CF, BS, BSC
 
     public abstract ByteBuf getContent(SM message);
 
-    public Event nettyMessageDecode(ChannelHandlerContext ctx, SM message) {
+    /**
+     * Decode a message, it can hold many events.
+     * @return the events, or null if the message was invalid
+     */
+    public List<Event> nettyMessageDecode(ChannelHandlerContext ctx, SM message) {
         ConnectionContext<?> cctx = ctx.channel().attr(NettyReceiver.CONNECTIONCONTEXTATTRIBUTE).get();
-        return decode(cctx, getContent(message));
+        return decodeAll(cctx, getContent(message));
     }
 
     public boolean nettySend(Event e) {
         return send(e);
     }
 
+    /**
+     * @return true if the channels can stop reading when the destination is overloaded
+     */
+    public boolean withBackpressure() {
+        return false;
+    }
+
+    /**
+     * Stop reading from a channel if the destination is overloaded. The reading is
+     * resumed once the destination is drained below the low watermark.
+     * @param channel the channel to pause
+     */
+    public void pauseIfOverloaded(Channel channel) {
+        if (isOverloaded()) {
+            // Done in the event loop, so pause and resume can't interleave
+            EventLoop loop = channel.eventLoop();
+            if (loop.inEventLoop()) {
+                pause(channel);
+            } else {
+                loop.execute(() -> pause(channel));
+            }
+        }
+    }
+
+    private void pause(Channel channel) {
+        if (channel.config().isAutoRead()) {
+            logger.debug("Pausing {}", channel);
+            channel.config().setAutoRead(false);
+            Properties.metrics.meter("receiver." + getReceiverName() + ".paused").mark();
+            channel.eventLoop().schedule(() -> tryResume(channel), RESUMECHECKDELAY, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void tryResume(Channel channel) {
+        if (! channel.isOpen()) {
+            return;
+        } else if (canResume()) {
+            logger.debug("Resuming {}", channel);
+            channel.config().setAutoRead(true);
+        } else {
+            channel.eventLoop().schedule(() -> tryResume(channel), RESUMECHECKDELAY, TimeUnit.MILLISECONDS);
+        }
+    }
+
     public final SA getListenAddress() {
         return server.getAddress();
     }
@@ -33,6 +33,9 @@ public class AnonymousSubPipeline extends Processor implements SubPipeline {
 
     @Override
     public boolean configure(Properties properties) {
+        for (int i = 0; i < pipeline.processors.size(); i++) {
+            locate(pipeline.processors.get(i), Integer.toString(i));
+        }
         return pipeline.processors.stream().allMatch(i -> i.configure(properties)) &&
                 super.configure(properties);
     }
@@ -11,11 +11,14 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Supplier;
 import java.util.regex.Pattern;
 
 import loghub.Event;
+import loghub.FieldPath;
 import loghub.Helpers;
 import loghub.IgnoredEventException;
 import loghub.Processor;
@@ -41,8 +44,12 @@ public abstract class FieldsProcessor extends Processor {
         REMOVE
     }
 
+    private static final int MAXDESTINATIONS = 1024;
+
     private String[] field = new String[] {"message"};
     private VarFormatter destinationFormat = null;
+    // The destination for each field name, formatted only once
+    private final Map<String, String[]> destinations = new ConcurrentHashMap<>();
     private String[][] fields = new String[][] {};
     private Pattern[] patterns = new Pattern[]{};
 
@@ -189,7 +196,16 @@ public abstract class FieldsProcessor extends Processor {
         if (destinationFormat == null) {
             return currentField;
         } else {
-            return new String[] {destinationFormat.format(Collections.singletonMap("field", currentField[currentField.length - 1]))};
+            String fieldName = currentField[currentField.length - 1];
+            String[] destination = destinations.get(fieldName);
+            if (destination == null) {
+                destination = FieldPath.of(destinationFormat.format(Collections.singletonMap("field", fieldName))).toArray();
+                // Fields matched by a pattern can be unbounded
+                if (destinations.size() < MAXDESTINATIONS) {
+                    destinations.put(fieldName, destination);
+                }
+            }
+            return destination;
         }
     }
 
@@ -224,6 +240,7 @@ public abstract class FieldsProcessor extends Processor {
      */
     public void setDestination(String destination) {
         this.destinationFormat = new VarFormatter(destination);
+        destinations.clear();
     }
 
 }
@@ -6,9 +6,17 @@ import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.net.URISyntaxException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import org.apache.logging.log4j.Level;
 
@@ -18,27 +26,121 @@ import loghub.Event;
 import loghub.Helpers;
 import loghub.configuration.Properties;
 
+/**
+ * Parse a field with one or more grok patterns.
+ * <p>
+ * Each pattern is checked against the literal strings that its regex requires, so a line that can't match
+ * is rejected with a few <code>indexOf</code> instead of a regex evaluation. Named groups are then
+ * copied directly from the matcher to the event. Patterns with typed captures, like
+ * <code>%{NUMBER:size:int}</code>, still use the java-grok captures, as its converters are not visible.
+ * <p>
+ * When many patterns are given, the first one that match is used. If <code>adaptiveOrder</code> is true,
+ * the patterns are regularly sorted by their hits count, it should only be used if they don't overlap.
+ */
 public class Grok extends FieldsProcessor {
 
-
     public static final String PATTERNSFOLDER = "patterns";
 
-    private io.krakens.grok.api.Grok grok;
+    // How many events between two sorts of the patterns
+    private static final int REORDERINTERVAL = 1024;
+    // Shorter literals are not worth an indexOf
+    private static final int MINLITERAL = 2;
+
+    /**
+     * A grok pattern, with everything needed to extract the captures from the matcher.
+     */
+    private static final class CompiledPattern {
+        private final io.krakens.grok.api.Grok grok;
+        private final Pattern regex;
+        private final String[] literals;
+        // The fields and the groups that fill them
+        private final String[] destinations;
+        private final String[][] groups;
+        // True if there is any capture, even if none are stored
+        private final boolean captures;
+        // True if java-grok's converters are needed
+        private final boolean typed;
+        private final AtomicLong hits = new AtomicLong(0);
+
+        private CompiledPattern(io.krakens.grok.api.Grok grok) {
+            this.grok = grok;
+            String namedRegex = grok.getNamedRegex();
+            regex = Pattern.compile(namedRegex);
+            literals = requiredLiterals(namedRegex);
+            typed = ! grok.converters.isEmpty();
+            Map<String, List<String>> mapping = new LinkedHashMap<>();
+            boolean found = false;
+            for (String group: grok.namedGroups) {
+                String key = grok.getNamedRegexCollectionById(group);
+                if (key == null || key.isEmpty()) {
+                    key = group;
+                }
+                if ("UNWANTED".equals(key)) {
+                    continue;
+                }
+                found = true;
+                // Dirty hack to filter non named regex
+                // Needed until https://github.com/thekrakken/java-grok/issues/61 is fixed
+                if (key.equals(key.toUpperCase()) && ! ".".equals(key)) {
+                    continue;
+                }
+                mapping.computeIfAbsent(key, k -> new ArrayList<>()).add(group);
+            }
+            captures = found;
+            destinations = mapping.keySet().toArray(new String[mapping.size()]);
+            groups = mapping.values().stream().map(l -> l.toArray(new String[l.size()])).toArray(String[][]::new);
+        }
+
+        private boolean accept(String line) {
+            for (String literal: literals) {
+                if (line.indexOf(literal) < 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public String toString() {
+            return grok.getOriginalGrokPattern();
+        }
+    }
+
     private String pattern;
+    private String[] patterns = new String[] {};
+    private boolean adaptiveOrder = false;
     private Map<Object, Object> customPatterns = Collections.emptyMap();
 
+    private volatile CompiledPattern[] ordered;
+    private final AtomicLong tries = new AtomicLong(0);
+
     @Override
     public boolean configure(Properties properties) {
         GrokCompiler grokCompiler = GrokCompiler.newInstance();
 
         Helpers.ThrowingConsumer<InputStream> grokloader = is -> grokCompiler.register(new InputStreamReader(new BufferedInputStream(is)));
+        Set<String> candidates = new LinkedHashSet<>();
+        if (pattern != null) {
+            candidates.add(pattern);
+        }
+        candidates.addAll(Arrays.asList(patterns));
+        if (candidates.isEmpty()) {
+            logger.error("no grok pattern given");
+            return false;
+        }
         try {
             Helpers.readRessources(properties.classloader, PATTERNSFOLDER, grokloader);
             customPatterns.forEach((k,v) -> {
                 grokCompiler.register(k.toString(), v.toString());
             });
-            grok = grokCompiler.compile(pattern, true);
-            // Switch to true when  https://github.com/thekrakken/java-grok/issues/61 is fixed
+            List<CompiledPattern> compiled = new ArrayList<>(candidates.size());
+            for (String p: candidates) {
+                // Switch to true when  https://github.com/thekrakken/java-grok/issues/61 is fixed
+                CompiledPattern cp = new CompiledPattern(grokCompiler.compile(p, true));
+                logger.debug("pattern {} requires {}", () -> p, () -> Arrays.toString(cp.literals));
+                compiled.add(cp);
+            }
+            ordered = compiled.toArray(new CompiledPattern[compiled.size()]);
         } catch (IOException | URISyntaxException | IllegalArgumentException e) {
             logger.error("unable to load patterns: {}", e.getMessage());
             logger.catching(Level.DEBUG, e);
@@ -49,14 +151,96 @@ public class Grok extends FieldsProcessor {
 
     @Override
     public Object fieldFunction(Event event, Object value) {
-        Match gm = grok.match(value.toString());
-        //Results from grok needs to be cleaned
-        Map<String, Object> captures = gm.capture();
+        String line = value.toString();
+        CompiledPattern[] current = ordered;
+        try {
+            for (CompiledPattern cp: current) {
+                if (! cp.accept(line)) {
+                    continue;
+                }
+                Matcher m = cp.regex.matcher(line);
+                if (! m.find()) {
+                    continue;
+                }
+                cp.hits.incrementAndGet();
+                if (! cp.captures) {
+                    return FieldsProcessor.RUNSTATUS.FAILED;
+                } else if (cp.typed) {
+                    return store(event, new Match(line, cp.grok, m, m.start(), m.end()).capture());
+                } else {
+                    return store(event, cp, m);
+                }
+            }
+            return FieldsProcessor.RUNSTATUS.FAILED;
+        } finally {
+            if (adaptiveOrder && current.length > 1 && tries.incrementAndGet() % REORDERINTERVAL == 0) {
+                reorder(current);
+            }
+        }
+    }
+
+    /**
+     * Sort the patterns by hits, the old hits are halved, so the order follows the changes in the events.
+     * If many threads do it at the same time, one of the results is kept, that's good enough.
+     */
+    private void reorder(CompiledPattern[] current) {
+        Map<CompiledPattern, Long> counts = new LinkedHashMap<>(current.length);
+        for (CompiledPattern cp: current) {
+            counts.put(cp, cp.hits.getAndUpdate(h -> h / 2));
+        }
+        CompiledPattern[] sorted = current.clone();
+        Arrays.sort(sorted, Comparator.comparing(counts::get, Comparator.reverseOrder()));
+        ordered = sorted;
+    }
+
+    /**
+     * Copy the groups from the matcher to the event.
+     */
+    private Object store(Event event, CompiledPattern cp, Matcher m) {
+        Object returned = FieldsProcessor.RUNSTATUS.NOSTORE;
+        for (int i = 0; i < cp.destinations.length; i++) {
+            String[] destinationGroups = cp.groups[i];
+            Object stored;
+            if (destinationGroups.length == 1) {
+                stored = cleanString(m.group(destinationGroups[0]));
+            } else {
+                List<String> newvalues = new ArrayList<>(destinationGroups.length);
+                for (String group: destinationGroups) {
+                    String groupValue = m.group(group);
+                    if (groupValue != null) {
+                        newvalues.add(cleanString(groupValue));
+                    }
+                }
+                if (newvalues.size() == 0) {
+                    stored = null;
+                } else if (newvalues.size() == 1) {
+                    stored = newvalues.get(0);
+                } else {
+                    stored = newvalues;
+                }
+            }
+            if (stored == null) {
+                continue;
+            }
+            // . is a special field name, it mean a value to put back in the original field
+            if (! ".".equals(cp.destinations[i])) {
+                event.put(cp.destinations[i], stored);
+            } else {
+                returned = stored;
+            }
+        }
+        return returned;
+    }
+
+    /**
+     * Copy the captures from java-grok to the event.
+     */
+    private Object store(Event event, Map<String, Object> captures) {
         if (captures.size() == 0) {
             return FieldsProcessor.RUNSTATUS.FAILED;
         }
         Object returned = FieldsProcessor.RUNSTATUS.NOSTORE;
-        for (Map.Entry<String, Object> e: gm.capture().entrySet()) {
+        for (Map.Entry<String, Object> e: captures.entrySet()) {
             String destinationField = e.getKey();
             Object stored;
             // Dirty hack to filter non named regex
@@ -91,6 +275,282 @@ public class Grok extends FieldsProcessor {
         return returned;
     }
 
+    /**
+     * Remove the quotes around a value, like java-grok does.
+     */
+    private static String cleanString(String value) {
+        if (value == null || value.isEmpty()) {
+            return value;
+        }
+        char first = value.charAt(0);
+        if (first == value.charAt(value.length() - 1) && (first == '"' || first == '\'')) {
+            if (value.length() <= 2) {
+                return "";
+            } else if (value.indexOf(first, 1) == value.length() - 1) {
+                return value.substring(1, value.length() - 1);
+            }
+        }
+        return value;
+    }
+
+    /**
+     * Find the literal strings that any line matched by the regex must contain. It's conservative, anything
+     * that is not understood stops the current literal, and if the regex might not be parsed correctly,
+     * nothing is returned.
+     * @param regex the regex to analyze
+     * @return the literals, longest first
+     */
+    static String[] requiredLiterals(String regex) {
+        // Flags or quoting can change how a literal is matched
+        if (regex.contains("\\Q") || Pattern.compile("\\(\\?[a-zA-Z-]").matcher(regex).find()) {
+            return new String[] {};
+        }
+        Set<String> literals = new LinkedHashSet<>();
+        if (! findLiterals(regex, literals)) {
+            return new String[] {};
+        }
+        return literals.stream().sorted(Comparator.comparing(String::length).reversed()).toArray(String[]::new);
+    }
+
+    /**
+     * Add the literals required by a regex. The mandatory groups are explored too, but an alternation
+     * means that nothing is required at its level.
+     * @return false if the regex is not understood
+     */
+    private static boolean findLiterals(String regex, Set<String> found) {
+        Set<String> literals = new LinkedHashSet<>();
+        StringBuilder current = new StringBuilder();
+        int n = regex.length();
+        int i = 0;
+        while (i < n) {
+            char c = regex.charAt(i);
+            boolean isLiteral = false;
+            char literal = 0;
+            // The content of a group, if it might contains required literals
+            String group = null;
+            int next;
+            switch (c) {
+            case '\\':
+                if (i + 1 >= n) {
+                    return false;
+                }
+                char escaped = regex.charAt(i + 1);
+                if (! Character.isLetterOrDigit(escaped)) {
+                    isLiteral = true;
+                    literal = escaped;
+                    next = i + 2;
+                } else {
+                    next = skipEscape(regex, i);
+                }
+                break;
+            case '[':
+                next = skipClass(regex, i);
+                break;
+            case '(':
+                next = skipGroup(regex, i);
+                if (next > 0) {
+                    group = groupContent(regex.substring(i, next));
+                }
+                break;
+            case '|':
+                // An alternation, nothing is required
+                return true;
+            case '.':
+            case '^':
+            case '$':
+                next = i + 1;
+                break;
+            case ')':
+            case ']':
+            case '{':
+            case '?':
+            case '*':
+            case '+':
+                // Not expected here, the regex is not understood
+                return false;
+            default:
+                isLiteral = true;
+                literal = c;
+                next = i + 1;
+            }
+            if (next < 0) {
+                return false;
+            }
+            // Look for a quantifier
+            boolean optional = false;
+            boolean repeated = false;
+            int q = next;
+            if (q < n) {
+                switch (regex.charAt(q)) {
+                case '?':
+                case '*':
+                    optional = true;
+                    q++;
+                    break;
+                case '+':
+                    repeated = true;
+                    q++;
+                    break;
+                case '{':
+                    int end = regex.indexOf('}', q);
+                    if (end < 0) {
+                        return false;
+                    }
+                    String[] bounds = regex.substring(q + 1, end).split(",", -1);
+                    try {
+                        int min = Integer.parseInt(bounds[0].trim());
+                        optional = min == 0;
+                        repeated = bounds.length > 1 || min > 1;
+                    } catch (NumberFormatException e) {
+                        return false;
+                    }
+                    q = end + 1;
+                    break;
+                default:
+                }
+                // Lazy or possessive quantifier
+                if (q > next && q < n && (regex.charAt(q) == '?' || regex.charAt(q) == '+')) {
+                    q++;
+                }
+            }
+            if (isLiteral && ! optional) {
+                current.append(literal);
+            }
+            if (! isLiteral || optional || repeated) {
+                addLiteral(literals, current);
+            }
+            if (group != null && ! optional && ! findLiterals(group, literals)) {
+                return false;
+            }
+            i = q;
+        }
+        addLiteral(literals, current);
+        found.addAll(literals);
+        return true;
+    }
+
+    /**
+     * @return the position after the escape sequence starting at start, or -1
+     */
+    private static int skipEscape(String regex, int start) {
+        int n = regex.length();
+        int i = start + 2;
+        switch (regex.charAt(start + 1)) {
+        case 'x':
+            if (i < n && regex.charAt(i) == '{') {
+                int end = regex.indexOf('}', i);
+                return end < 0 ? -1 : end + 1;
+            }
+            return i + 2 <= n ? i + 2 : -1;
+        case 'u':
+            return i + 4 <= n ? i + 4 : -1;
+        case 'c':
+            return i + 1 <= n ? i + 1 : -1;
+        case '0':
+            while (i < n && i < start + 5 && regex.charAt(i) >= '0' && regex.charAt(i) <= '7') {
+                i++;
+            }
+            return i;
+        case 'p':
+        case 'P':
+            if (i < n && regex.charAt(i) == '{') {
+                int end = regex.indexOf('}', i);
+                return end < 0 ? -1 : end + 1;
+            }
+            return i + 1 <= n ? i + 1 : -1;
+        case 'k':
+            int end = regex.indexOf('>', i);
+            return end < 0 ? -1 : end + 1;
+        default:
+            // A back reference
+            while (Character.isDigit(regex.charAt(i - 1)) && i < n && Character.isDigit(regex.charAt(i))) {
+                i++;
+            }
+            return i;
+        }
+    }
+
+    /**
+     * @return the content of a capturing, non capturing or atomic group, null for a look around
+     */
+    private static String groupContent(String group) {
+        int start;
+        if (! group.startsWith("(?")) {
+            start = 1;
+        } else if (group.startsWith("(?:") || group.startsWith("(?>")) {
+            start = 3;
+        } else if (group.startsWith("(?<") && ! group.startsWith("(?<=") && ! group.startsWith("(?<!")) {
+            start = group.indexOf('>') + 1;
+        } else {
+            return null;
+        }
+        return group.substring(start, group.length() - 1);
+    }
+
+    private static void addLiteral(Set<String> literals, StringBuilder current) {
+        if (current.length() >= MINLITERAL) {
+            literals.add(current.toString());
+        }
+        current.setLength(0);
+    }
+
+    /**
+     * @return the position after the character class starting at start, or -1
+     */
+    private static int skipClass(String regex, int start) {
+        int n = regex.length();
+        int i = start + 1;
+        if (i < n && regex.charAt(i) == '^') {
+            i++;
+        }
+        // A leading ] is a literal
+        if (i < n && regex.charAt(i) == ']') {
+            i++;
+        }
+        int depth = 1;
+        while (i < n) {
+            char c = regex.charAt(i);
+            if (c == '\\') {
+                i += 2;
+                continue;
+            } else if (c == '[') {
+                depth++;
+            } else if (c == ']' && --depth == 0) {
+                return i + 1;
+            }
+            i++;
+        }
+        return -1;
+    }
+
+    /**
+     * @return the position after the group starting at start, or -1
+     */
+    private static int skipGroup(String regex, int start) {
+        int n = regex.length();
+        int depth = 0;
+        int i = start;
+        while (i < n) {
+            char c = regex.charAt(i);
+            if (c == '\\') {
+                i += 2;
+                continue;
+            } else if (c == '[') {
+                i = skipClass(regex, i);
+                if (i < 0) {
+                    return -1;
+                }
+                continue;
+            } else if (c == '(') {
+                depth++;
+            } else if (c == ')' && --depth == 0) {
+                return i + 1;
+            }
+            i++;
+        }
+        return -1;
+    }
+
     public void setPattern(String pattern) {
         this.pattern = pattern;
     }
@@ -99,6 +559,34 @@ public class Grok extends FieldsProcessor {
         return pattern;
     }
 
+    /**
+     * @return the patterns to try, in addition to the pattern
+     */
+    public String[] getPatterns() {
+        return patterns;
+    }
+
+    /**
+     * @param patterns the patterns to try, in addition to the pattern
+     */
+    public void setPatterns(String[] patterns) {
+        this.patterns = patterns;
+    }
+
+    /**
+     * @return true if the patterns are sorted by hits
+     */
+    public boolean isAdaptiveOrder() {
+        return adaptiveOrder;
+    }
+
+    /**
+     * @param adaptiveOrder true to sort the patterns by hits, false to always try them in the given order
+     */
+    public void setAdaptiveOrder(boolean adaptiveOrder) {
+        this.adaptiveOrder = adaptiveOrder;
+    }
+
     @Override
     public String getName() {
         return "grok";
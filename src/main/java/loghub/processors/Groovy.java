@@ -1,35 +1,75 @@
 package loghub.processors;
 
+import java.util.Map;
+
+import org.codehaus.groovy.control.CompilationFailedException;
+
 import groovy.lang.Binding;
-import groovy.lang.GroovyShell;
 import groovy.lang.Script;
 import loghub.Event;
+import loghub.Helpers;
 import loghub.Processor;
 import loghub.ProcessorException;
+import loghub.configuration.Properties;
 
 public class Groovy extends Processor  {
 
-    private Script groovyScript;
+    private String script;
+    // The script is compiled once, each thread get it's own instance and binding, so no lock is needed
+    private ThreadLocal<Script> groovyScript;
+
+    @Override
+    public boolean configure(Properties properties) {
+        Class<Script> groovyClass;
+        try {
+            @SuppressWarnings("unchecked")
+            Class<Script> parsed = properties.groovyClassLoader.parseClass(script);
+            groovyClass = parsed;
+        } catch (CompilationFailedException e) {
+            logger.error("Groovy compilation failed for script {}: {}", script, e.getMessage());
+            return false;
+        }
+        groovyScript = ThreadLocal.withInitial(() -> {
+            try {
+                Script instance = groovyClass.newInstance();
+                instance.setBinding(new Binding());
+                return instance;
+            } catch (IllegalAccessException | InstantiationException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        // Fails early if the script can't be instantiated
+        try {
+            groovyScript.get();
+        } catch (IllegalStateException e) {
+            logger.error("Unusable groovy script {}: {}", script, Helpers.resolveThrowableException(e.getCause()));
+            return false;
+        }
+        return super.configure(properties);
+    }
 
     @Override
     public boolean process(Event event) throws ProcessorException {
-        Binding groovyBinding = new Binding();
-        groovyBinding.setVariable("event", event);
-        groovyScript.setBinding(groovyBinding);
+        Script localscript = groovyScript.get();
+        @SuppressWarnings("unchecked")
+        Map<String, Object> variables = localscript.getBinding().getVariables();
+        variables.put("event", event);
         try {
-            return Boolean.TRUE.equals(groovyScript.run());
+            return Boolean.TRUE.equals(localscript.run());
         } catch (Exception e) {
             throw event.buildException("groovy script failed", e);
+        } finally {
+            // Don't keep a reference to the event, nor any variable created by the script
+            variables.clear();
         }
     }
 
     public void setScript(String script) {
-        GroovyShell groovyShell = new GroovyShell(getClass().getClassLoader());
-        groovyScript = groovyShell.parse(script);
+        this.script = script;
     }
 
     public String getScript() {
-        return groovyScript.toString();
+        return script;
     }
 
     @Override
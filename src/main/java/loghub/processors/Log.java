@@ -27,7 +27,7 @@ public class Log extends Processor {
     public boolean configure(Properties properties) {
         customLogger = LogManager.getLogger("loghub.eventlogger." + pipeName);
         try {
-            expression = new Expression(message, properties.groovyClassLoader, properties.formatters);
+            expression = new Expression(message, properties.groovyClassLoader, properties.formatters, getMetricName());
         } catch (ExpressionException e) {
             Throwable cause = e.getCause();
             if (cause instanceof CompilationFailedException) {
@@ -22,7 +22,7 @@ public class Mapper extends Etl {
     @Override
     public boolean configure(Properties properties) {
         try {
-            script = new Expression(expression, properties.groovyClassLoader, properties.formatters);
+            script = new Expression(expression, properties.groovyClassLoader, properties.formatters, getMetricName());
         } catch (ExpressionException e) {
             Throwable cause = e.getCause();
             if (cause instanceof CompilationFailedException) {
@@ -347,7 +347,7 @@ public class Merge extends Processor {
         // Prepare fire only if test and processor given for that
         if (fireSource != null && fireProcessor != null) {
             try {
-                fire = new Expression(fireSource, properties.groovyClassLoader, properties.formatters);
+                fire = new Expression(fireSource, properties.groovyClassLoader, properties.formatters, getMetricName() + ".fire");
             } catch (ExpressionException e) {
                 Expression.logError(e, fireSource, logger);
                 return false;
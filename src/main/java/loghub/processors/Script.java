@@ -9,38 +9,136 @@ import java.nio.charset.Charset;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.Collections;
+import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import javax.script.Compilable;
 import javax.script.Invocable;
+import javax.script.ScriptContext;
 import javax.script.ScriptEngine;
+import javax.script.ScriptEngineFactory;
 import javax.script.ScriptEngineManager;
 import javax.script.ScriptException;
 
 import org.apache.logging.log4j.Level;
 
+import com.codahale.metrics.Timer;
+
 import loghub.Event;
 import loghub.Helpers;
 import loghub.Processor;
 import loghub.ProcessorException;
 import loghub.configuration.Properties;
 
+/**
+ * Run a JSR-223 script.
+ * <p>
+ * Most script engines can't be used concurrently, so a pool of engines is used, each one with its own
+ * copy of the script, compiled if the engine support it. The engines are created when needed, up to
+ * <code>poolSize</code>, that defaults to the number of workers.
+ */
 public class Script extends Processor {
 
     private static ScriptEngineManager factory = null;
 
     private String script;
-    private Invocable inv;
-    private Map<String, String> settings = Collections.emptyMap();
+    private int poolSize = 0;
+    private Map<String, String> settings = null;
+    private String source;
+    private ScriptEngineFactory engineFactory;
+    private Properties properties;
+    private BlockingQueue<Invocable> engines;
+    private final AtomicInteger created = new AtomicInteger(0);
+    private Timer poolWait;
+    private Timer invocation;
 
     @Override
     public boolean process(Event event) throws ProcessorException {
+        Invocable inv;
+        Timer.Context waitctx = poolWait.time();
+        try {
+            inv = borrow();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw event.buildException("interrupted while waiting for script " + script);
+        } catch (NoSuchMethodException | ScriptException e) {
+            throw event.buildException("unable to start script " + script, e);
+        } finally {
+            waitctx.stop();
+        }
+        Timer.Context invocationctx = invocation.time();
         try {
             Object result = inv.invokeFunction(settings.get("transform"), event);
             return Boolean.TRUE.equals(result);
         } catch (NoSuchMethodException | ScriptException e) {
             throw event.buildException("unable to execute script " + script, e);
+        } finally {
+            invocationctx.stop();
+            engines.add(inv);
+        }
+    }
+
+    /**
+     * Get an idle engine, create a new one if the pool is not full, or wait for one.
+     */
+    private Invocable borrow() throws InterruptedException, ScriptException, NoSuchMethodException {
+        Invocable inv = engines.poll();
+        if (inv != null) {
+            return inv;
+        }
+        int count;
+        while ((count = created.get()) < poolSize) {
+            if (created.compareAndSet(count, count + 1)) {
+                try {
+                    ScriptEngine engine = engineFactory.getScriptEngine();
+                    engine.setBindings(factory.getBindings(), ScriptContext.GLOBAL_SCOPE);
+                    return (Invocable) loadScript(engine);
+                } catch (ScriptException | NoSuchMethodException | RuntimeException e) {
+                    created.decrementAndGet();
+                    throw e;
+                }
+            }
+        }
+        return engines.take();
+    }
+
+    /**
+     * Load the script in a new engine, and configure it.
+     */
+    private ScriptEngine loadScript(ScriptEngine engine) throws ScriptException, NoSuchMethodException {
+        Object evaluated;
+        if (engine instanceof Compilable) {
+            evaluated = ((Compilable) engine).compile(source).eval();
+        } else {
+            evaluated = engine.eval(source);
+        }
+        // The settings are read from the first engine
+        if (settings == null) {
+            settings = readSettings(engine, evaluated);
+        }
+        if (settings != null && settings.containsKey("configure")) {
+            ((Invocable) engine).invokeFunction(settings.get("configure"), properties);
+        }
+        return engine;
+    }
+
+    /**
+     * Copy the settings, as the object returned by the script is bound to its engine.
+     */
+    private Map<String, String> readSettings(ScriptEngine engine, Object evaluated) {
+        Map<?, ?> found = (Map<?, ?>) evaluated;
+        if (found == null) {
+            found = (Map<?, ?>) engine.get("settings");
         }
+        if (found == null) {
+            return null;
+        }
+        Map<String, String> copy = new HashMap<>(found.size());
+        found.forEach((k, v) -> copy.put(String.valueOf(k), String.valueOf(v)));
+        return copy;
     }
 
     @Override
@@ -48,7 +146,6 @@ public class Script extends Processor {
         return "Script";
     }
 
-    @SuppressWarnings("unchecked")
     @Override
     public boolean configure(Properties properties) {
         synchronized (Script.class) {
@@ -56,6 +153,7 @@ public class Script extends Processor {
                 factory = new ScriptEngineManager(properties.classloader);
             }
         }
+        this.properties = properties;
         try {
             Path scriptp = Paths.get(script);
             String mimeType = Helpers.getMimeType(scriptp.toString());
@@ -81,16 +179,30 @@ public class Script extends Processor {
                 logger.error("engine for langage {} is not invocable", () -> logengine.getFactory().getLanguageName());
                 return false;
             }
+            engineFactory = engine.getFactory();
             try (Reader r = getScriptReader()) {
-                inv = (Invocable) engine;
-                settings = (Map<String, String>) engine.eval(r);
+                StringBuilder buffer = new StringBuilder();
+                char[] chars = new char[4096];
+                for (int read; (read = r.read(chars)) != -1; ) {
+                    buffer.append(chars, 0, read);
+                }
+                source = buffer.toString();
             }
-            if(settings == null) {
-                settings = (Map<String, String>) engine.get("settings");
+            if (poolSize <= 0) {
+                poolSize = properties.numWorkers;
             }
-            if(settings.containsKey("configure")) {
-                inv.invokeFunction(settings.get("configure"), properties );
+            engines = new ArrayBlockingQueue<>(poolSize);
+            // The first engine is created now, to check the script
+            created.set(1);
+            engines.add((Invocable) loadScript(engine));
+            if (settings == null) {
+                logger.error("script {} didn't return a configuration map", script);
+                return false;
             }
+            String prefix = "Script." + (getLocation() != null ? getMetricName() : scriptp.getFileName().toString());
+            logger.debug("script {} timed by {}", script, prefix);
+            poolWait = Properties.metrics.timer(prefix + ".poolWait");
+            invocation = Properties.metrics.timer(prefix + ".invocation");
             return super.configure(properties);
         } catch (IOException e) {
             logger.error("Finding script {} failed: {}", script, e);
@@ -102,7 +214,7 @@ public class Script extends Processor {
         } catch (NoSuchMethodException e) {
             return false;
         } catch (ClassCastException e) {
-            logger.error("script {} didn't return a configuration map");
+            logger.error("script {} didn't return a configuration map", script);
             return false;
         }
     }
@@ -127,4 +239,18 @@ public class Script extends Processor {
         this.script = script;
     }
 
+    /**
+     * @return the maximum number of script engines
+     */
+    public int getPoolSize() {
+        return poolSize;
+    }
+
+    /**
+     * @param poolSize the maximum number of script engines, 0 to use the number of workers
+     */
+    public void setPoolSize(int poolSize) {
+        this.poolSize = poolSize;
+    }
+
 }
@@ -53,10 +53,12 @@ public class Test extends Processor {
 
     @Override
     public boolean configure(Properties properties) {
+        locate(thenTransformer, "then");
+        locate(elseTransformer, "else");
         thenTransformer.configure(properties);
         elseTransformer.configure(properties);
         try {
-            ifClause = new Expression(ifClauseSource, properties.groovyClassLoader, properties.formatters);
+            ifClause = new Expression(ifClauseSource, properties.groovyClassLoader, properties.formatters, getMetricName() + ".test");
         } catch (ExpressionException e) {
             Expression.logError(e, ifClauseSource, logger);
             return false;
@@ -5,6 +5,7 @@ import java.nio.charset.IllegalCharsetNameException;
 import java.nio.charset.StandardCharsets;
 import java.nio.charset.UnsupportedCharsetException;
 import java.security.Principal;
+import java.util.Collections;
 import java.util.Map;
 import java.util.Optional;
 import java.util.stream.Collectors;
@@ -14,6 +15,7 @@ import io.netty.buffer.Unpooled;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.ChannelPipeline;
 import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.HttpHeaderNames;
 import io.netty.handler.codec.http.HttpMethod;
 import io.netty.handler.codec.http.HttpResponseStatus;
 import io.netty.handler.codec.http.HttpUtil;
@@ -47,6 +49,10 @@ public class Http extends AbstractTcpReceiver<Http, Http.HttpReceiverServer, Htt
 
         @Override
         protected boolean processRequest(FullHttpRequest request, ChannelHandlerContext ctx) throws HttpRequestFailure {
+            // Don't even try if the destination is already overloaded, the client will retry later
+            if (Http.this.isOverloaded()) {
+                throw busy();
+            }
             Event e = Event.emptyEvent(Http.this.getConnectionContext(ctx, null));
             try {
                 String mimeType = Optional.ofNullable(HttpUtil.getMimeType(request)).orElse("application/octet-stream").toString();
@@ -100,7 +106,7 @@ public class Http extends AbstractTcpReceiver<Http, Http.HttpReceiverServer, Htt
                     e.getConnectionContext().setPrincipal(p);
                 }
                 if (! Http.this.send(e)) {
-                    throw new HttpRequestFailure(HttpResponseStatus.TOO_MANY_REQUESTS, "Busy, try again");
+                    throw busy();
                 };
             } catch (DecodeException ex) {
                 e.end();
@@ -117,6 +123,11 @@ public class Http extends AbstractTcpReceiver<Http, Http.HttpReceiverServer, Htt
             return writeResponse(ctx, request, content, content.readableBytes());
         }
 
+        private HttpRequestFailure busy() {
+            return new HttpRequestFailure(HttpResponseStatus.TOO_MANY_REQUESTS, "Busy, try again",
+                                          Collections.singletonMap(HttpHeaderNames.RETRY_AFTER, retryAfter));
+        }
+
     };
 
     protected static class HttpReceiverServer extends AbstractHttpServer<HttpReceiverServer, HttpReceiverServer.Builder> {
@@ -149,6 +160,8 @@ public class Http extends AbstractTcpReceiver<Http, Http.HttpReceiverServer, Htt
         }
     }
 
+    private int retryAfter = 1;
+
     public Http() {
         super();
     }
@@ -188,6 +201,20 @@ public class Http extends AbstractTcpReceiver<Http, Http.HttpReceiverServer, Htt
         return "HTTP/" + getPort();
     }
 
+    /**
+     * @return the delay in seconds given to clients when the destination is overloaded
+     */
+    public int getRetryAfter() {
+        return retryAfter;
+    }
+
+    /**
+     * @param retryAfter the retryAfter to set
+     */
+    public void setRetryAfter(int retryAfter) {
+        this.retryAfter = retryAfter;
+    }
+
     public Object getDecoders() {
         return null;
     }
@@ -1,37 +1,88 @@
 package loghub.receivers;
 
 import java.net.URL;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Optional;
 import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
 import org.apache.kafka.clients.consumer.Consumer;
 import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.apache.kafka.clients.consumer.ConsumerRebalanceListener;
 import org.apache.kafka.clients.consumer.ConsumerRecord;
 import org.apache.kafka.clients.consumer.ConsumerRecords;
 import org.apache.kafka.clients.consumer.KafkaConsumer;
 import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.common.KafkaException;
 import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.errors.InterruptException;
 import org.apache.kafka.common.header.Header;
 import org.apache.kafka.common.record.TimestampType;
 import org.apache.kafka.common.serialization.ByteArrayDeserializer;
+import org.apache.logging.log4j.Level;
 
 import loghub.ConnectionContext;
 import loghub.Event;
 import loghub.Helpers;
+import loghub.ThreadBuilder;
 import loghub.decoders.Decoder.DecodeException;
 
 @Blocking
 public class Kafka extends Receiver {
 
+    private static final int DECODERQUEUESIZE = 1024;
+
     public static class KafkaContext extends ConnectionContext<Object> {
         public final String topic;
+        private final transient Runnable onAcknowledge;
+        // The contexts of the copies of an event that are not yet acknowledged, shared by all of them
+        private final transient AtomicInteger pending;
+        private final AtomicBoolean acknowledged = new AtomicBoolean(false);
         KafkaContext(String topic) {
+            this(topic, null);
+        }
+        KafkaContext(String topic, Runnable onAcknowledge) {
+            this(topic, onAcknowledge, new AtomicInteger(1));
+        }
+        private KafkaContext(String topic, Runnable onAcknowledge, AtomicInteger pending) {
             this.topic = topic;
+            this.onAcknowledge = onAcknowledge;
+            this.pending = pending;
+        }
+        @Override
+        public void acknowledge() {
+            // Only the first acknowledge of each context is used, and the record is acknowledged
+            // once all the copies are. A serialized copy of the context will not acknowledge.
+            if (onAcknowledge != null && acknowledged.compareAndSet(false, true) && pending.decrementAndGet() == 0) {
+                onAcknowledge.run();
+            }
+        }
+        @Override
+        public KafkaContext duplicate() {
+            KafkaContext copy;
+            if (onAcknowledge != null && ! acknowledged.get()) {
+                pending.incrementAndGet();
+                copy = new KafkaContext(topic, onAcknowledge, pending);
+            } else {
+                copy = new KafkaContext(topic);
+            }
+            copy.setPrincipal(getPrincipal());
+            return copy;
         }
         @Override
         public Object getLocalAddress() {
@@ -43,7 +94,186 @@ public class Kafka extends Receiver {
         }
     }
 
-    private Consumer<Long, byte[]> consumer;
+    /**
+     * Track the offsets of the records from a partition that are still processed. Records are
+     * received by the consumer thread, but can be acknowledged by any thread.
+     */
+    static class PartitionOffsets {
+        private final NavigableSet<Long> pending = new ConcurrentSkipListSet<>();
+        private final AtomicInteger pendingCount = new AtomicInteger();
+        // The offset following the last received record
+        private volatile long next = -1;
+        private long committed = -1;
+        void received(long offset) {
+            if (pending.add(offset)) {
+                pendingCount.incrementAndGet();
+            }
+            next = offset + 1;
+        }
+        void acknowledged(long offset) {
+            if (pending.remove(offset)) {
+                pendingCount.decrementAndGet();
+            }
+        }
+        int getPendingCount() {
+            return pendingCount.get();
+        }
+        /**
+         * @return the offset up to which all the records were acknowledged, or -1 if nothing new can be committed
+         */
+        long toCommit() {
+            long lastNext = next;
+            Long firstPending = pending.ceiling(Long.MIN_VALUE);
+            long offset = firstPending != null ? firstPending : lastNext;
+            if (offset > committed) {
+                return offset;
+            } else {
+                return -1;
+            }
+        }
+        void committed(long offset) {
+            committed = Math.max(committed, offset);
+        }
+    }
+
+    /**
+     * A consumer in the group, with its own thread. The records are processed in this thread,
+     * or dispatched to the decoding threads.
+     */
+    private class ConsumerLoop implements Runnable {
+        private final Consumer<Long, byte[]> consumer;
+        private final Map<TopicPartition, PartitionOffsets> offsets = new HashMap<>();
+
+        private ConsumerLoop(Properties props) {
+            consumer = consumerFactory.apply(props);
+        }
+
+        @Override
+        public void run() {
+            consumer.subscribe(Collections.singletonList(topic), new ConsumerRebalanceListener() {
+                @Override
+                public void onPartitionsRevoked(Collection<TopicPartition> partitions) {
+                    // Commit what can be, the other events will be received again by the new owner
+                    commit(partitions, true);
+                    partitions.forEach(offsets::remove);
+                }
+                @Override
+                public void onPartitionsAssigned(Collection<TopicPartition> partitions) {
+                }
+            });
+            long lastCommit = System.currentTimeMillis();
+            try {
+                while (! Thread.currentThread().isInterrupted()) {
+                    ConsumerRecords<Long, byte[]> consumerRecords = consumer.poll(100);
+                    for (TopicPartition partition: consumerRecords.partitions()) {
+                        PartitionOffsets partitionOffsets = offsets.computeIfAbsent(partition, i -> new PartitionOffsets());
+                        for (ConsumerRecord<Long, byte[]> record: consumerRecords.records(partition)) {
+                            if (Thread.currentThread().isInterrupted()) {
+                                break;
+                            }
+                            partitionOffsets.received(record.offset());
+                            if (decoders.length == 0) {
+                                process(record, partitionOffsets);
+                            } else {
+                                decoders[workerIndex(record)].put(() -> process(record, partitionOffsets));
+                            }
+                        }
+                    }
+                    throttle();
+                    long now = System.currentTimeMillis();
+                    if (now - lastCommit >= commitInterval) {
+                        commit(offsets.keySet(), false);
+                        lastCommit = now;
+                    }
+                }
+            } catch (InterruptedException | InterruptException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                // The interrupted state must be cleared, or the commit will fail
+                boolean interrupted = Thread.interrupted();
+                commit(offsets.keySet(), true);
+                consumer.close();
+                if (interrupted) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+
+        /**
+         * Pause the partitions with too many records still processed, and resume them when half of them
+         * were acknowledged.
+         */
+        private void throttle() {
+            Set<TopicPartition> paused = consumer.paused();
+            List<TopicPartition> toPause = new ArrayList<>();
+            List<TopicPartition> toResume = new ArrayList<>();
+            offsets.forEach((tp, po) -> {
+                int pendingCount = po.getPendingCount();
+                if (! paused.contains(tp) && pendingCount >= maxUnacknowledged) {
+                    toPause.add(tp);
+                } else if (paused.contains(tp) && pendingCount < maxUnacknowledged / 2) {
+                    toResume.add(tp);
+                }
+            });
+            if (! toPause.isEmpty()) {
+                logger.debug("Pausing partitions {}", toPause);
+                consumer.pause(toPause);
+            }
+            if (! toResume.isEmpty()) {
+                logger.debug("Resuming partitions {}", toResume);
+                consumer.resume(toResume);
+            }
+        }
+
+        /**
+         * Commit the offsets of the acknowledged records
+         * @param partitions the partitions to commit
+         * @param sync true for a synchronous commit
+         */
+        private void commit(Collection<TopicPartition> partitions, boolean sync) {
+            Map<TopicPartition, OffsetAndMetadata> toCommit = new HashMap<>(partitions.size());
+            for (TopicPartition tp: partitions) {
+                PartitionOffsets po = offsets.get(tp);
+                long offset = po != null ? po.toCommit() : -1;
+                if (offset >= 0) {
+                    toCommit.put(tp, new OffsetAndMetadata(offset));
+                }
+            }
+            if (toCommit.isEmpty()) {
+                return;
+            }
+            logger.trace("Committing {}", toCommit);
+            try {
+                if (sync) {
+                    consumer.commitSync(toCommit);
+                    markCommitted(toCommit);
+                } else {
+                    consumer.commitAsync(toCommit, (o, e) -> {
+                        if (e != null) {
+                            logger.error("Commit failed: {}", Helpers.resolveThrowableException(e));
+                            logger.catching(Level.DEBUG, e);
+                        } else {
+                            markCommitted(o);
+                        }
+                    });
+                }
+            } catch (KafkaException e) {
+                logger.error("Commit failed: {}", Helpers.resolveThrowableException(e));
+                logger.catching(Level.DEBUG, e);
+            }
+        }
+
+        private void markCommitted(Map<TopicPartition, OffsetAndMetadata> committed) {
+            committed.forEach((tp, oam) -> Optional.ofNullable(offsets.get(tp)).ifPresent(po -> po.committed(oam.offset())));
+        }
+    }
+
+    private Function<Properties, Consumer<Long, byte[]>> consumerFactory = KafkaConsumer::new;
+    private ConsumerLoop[] consumers;
+    private final List<Thread> consumerThreads = new ArrayList<>();
+    // The queues of the decoding threads
+    private BlockingQueue<Runnable>[] decoders;
+    private final List<Thread> decoderThreads = new ArrayList<>();
 
     // Beans
     private String[] brokers = new String[] { "localhost"};
@@ -51,6 +281,11 @@ public class Kafka extends Receiver {
     private String topic;
     private String group ="loghub";
     private String keyDeserializer = ByteArrayDeserializer.class.getName();
+    private int maxUnacknowledged = 10000;
+    private int commitInterval = 1000;
+    private int threads = 1;
+    private int decodeThreads = 0;
+    private String dispatch = "partition";
 
     public Kafka() {
         super();
@@ -61,8 +296,13 @@ public class Kafka extends Receiver {
         return String.format("Kafka/%s/%s", topic, hashCode());
     }
 
+    @SuppressWarnings({ "unchecked", "rawtypes" })
     @Override
     public boolean configure(loghub.configuration.Properties properties) {
+        if (! "partition".equals(dispatch) && ! "key".equals(dispatch)) {
+            logger.error("Unknown dispatch: {}", dispatch);
+            return false;
+        }
         Properties props = new Properties();
         URL[] brokersUrl = Helpers.stringsToUrl(brokers, port, "http", logger);
         String resolvedBrokers = Arrays.stream(brokersUrl)
@@ -73,53 +313,117 @@ public class Kafka extends Receiver {
         props.put(ConsumerConfig.GROUP_ID_CONFIG, group);
         props.put(ConsumerConfig.KEY_DESERIALIZER_CLASS_CONFIG, keyDeserializer);
         props.put(ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG, ByteArrayDeserializer.class.getName());
-        consumer = new KafkaConsumer<>(props);
+        // Offsets are committed when the events are acknowledged
+        props.put(ConsumerConfig.ENABLE_AUTO_COMMIT_CONFIG, false);
+        consumers = new ConsumerLoop[Math.max(1, threads)];
+        for (int i = 0; i < consumers.length; i++) {
+            consumers[i] = new ConsumerLoop(props);
+        }
+        decoders = new BlockingQueue[Math.max(0, decodeThreads)];
+        for (int i = 0; i < decoders.length; i++) {
+            decoders[i] = new ArrayBlockingQueue<>(DECODERQUEUESIZE);
+        }
         return super.configure(properties);
     }
 
     @Override
     public void run() {
-        consumer.subscribe(Collections.singletonList(topic));
-        boolean broke = false;
-        while (! isInterrupted()) {
-            ConsumerRecords<Long, byte[]> consumerRecords = consumer.poll(100);
-            if (consumerRecords.count()==0) {
-                continue;
-            }
-            for(ConsumerRecord<Long, byte[]> record: consumerRecords) {
-                KafkaContext ctxt = new KafkaContext(record.topic());
-                Event event = Event.emptyEvent(ctxt);
-                if (record.timestampType() ==  TimestampType.CREATE_TIME) {
-                    event.setTimestamp(new Date(record.timestamp()));
-                }
-                Header[] headers = record.headers().toArray();
-                if (headers.length > 0) {
-                    Map<String, byte[]> headersMap = new HashMap<>(headers.length);
-                    Arrays.stream(headers).forEach( i-> headersMap.put(i.key(), i.value()));
-                    event.put("headers", headersMap);
-                }
-                byte[] content = record.value();
-                try {
-                    event.putAll(decoder.decode(ctxt, content, 0, content.length));
-                    send(event);
-                } catch (DecodeException e) {
-                    logger.error(e.getMessage());
-                    logger.catching(e);
-                }
-                if (isInterrupted()) {
-                    consumer.commitSync(Collections.singletonMap(new TopicPartition(record.topic(), record.partition()), new OffsetAndMetadata(record.offset())));
-                    broke = true;
-                    break;
-                }
-            }
-            if (! broke) {
-                consumer.commitAsync();
-            } else {
-                break;
-            }
+        for (int i = 0; i < decoders.length; i++) {
+            BlockingQueue<Runnable> queue = decoders[i];
+            decoderThreads.add(ThreadBuilder.get()
+                               .setName(getName() + "/Decoder" + i)
+                               .setDaemon(true)
+                               .setRunnable(() -> {
+                                   try {
+                                       while (! Thread.currentThread().isInterrupted()) {
+                                           queue.take().run();
+                                       }
+                                   } catch (InterruptedException e) {
+                                       Thread.currentThread().interrupt();
+                                   }
+                               })
+                               .build(true));
+        }
+        // The first consumer uses the receiver's thread
+        for (int i = 1; i < consumers.length; i++) {
+            consumerThreads.add(ThreadBuilder.get()
+                                .setName(getName() + "/Consumer" + i)
+                                .setDaemon(false)
+                                .setRunnable(consumers[i])
+                                .build(true));
+        }
+        try {
+            consumers[0].run();
+        } finally {
+            consumerThreads.forEach(Thread::interrupt);
+            decoderThreads.forEach(Thread::interrupt);
+            close();
+        }
+    }
+
+    /**
+     * Used for tests, to replace the Kafka consumer
+     */
+    void setConsumerFactory(Function<Properties, Consumer<Long, byte[]>> consumerFactory) {
+        this.consumerFactory = consumerFactory;
+    }
+
+    @Override
+    public void stopReceiving() {
+        consumerThreads.forEach(Thread::interrupt);
+        super.stopReceiving();
+    }
+
+    /**
+     * Choose the decoding thread for a record, so the order of records with the same key, or from
+     * the same partition, is kept.
+     */
+    private int workerIndex(ConsumerRecord<?, byte[]> record) {
+        Object key = record.key();
+        int hash;
+        if ("key".equals(dispatch) && key != null) {
+            hash = key instanceof byte[] ? Arrays.hashCode((byte[]) key) : key.hashCode();
+        } else {
+            hash = 31 * record.topic().hashCode() + record.partition();
+        }
+        return Math.floorMod(hash, decoders.length);
+    }
+
+    private void process(ConsumerRecord<Long, byte[]> record, PartitionOffsets partitionOffsets) {
+        long offset = record.offset();
+        if (record.value() == null) {
+            // A tombstone, there is nothing to decode
+            logger.debug("Skipping tombstone record at {}-{}@{}", record.topic(), record.partition(), offset);
+            partitionOffsets.acknowledged(offset);
+            return;
+        }
+        KafkaContext ctxt = new KafkaContext(record.topic(), () -> partitionOffsets.acknowledged(offset));
+        Event event = Event.emptyEvent(ctxt);
+        if (record.timestampType() ==  TimestampType.CREATE_TIME) {
+            event.setTimestamp(new Date(record.timestamp()));
+        }
+        Header[] headers = record.headers().toArray();
+        if (headers.length > 0) {
+            Map<String, byte[]> headersMap = new HashMap<>(headers.length);
+            Arrays.stream(headers).forEach( i-> headersMap.put(i.key(), i.value()));
+            event.put("headers", headersMap);
+        }
+        // The record's value is given directly to the decoder, without copy
+        byte[] content = record.value();
+        try {
+            event.putAll(decoder.decode(ctxt, content, 0, content.length));
+            send(event);
+        } catch (DecodeException e) {
+            // Nothing more will be done with this record
+            event.end();
+            logger.error(e.getMessage());
+            logger.catching(e);
+        } catch (RuntimeException e) {
+            // The decoding thread must survive, and the record must still be acknowledged
+            event.end();
+            logger.error("Failed Kafka record processing: {}", Helpers.resolveThrowableException(e));
+            logger.catching(Level.DEBUG, e);
         }
-        consumer.close();
-        close();
     }
 
     public String[] getBrokers() {
@@ -154,6 +458,61 @@ public class Kafka extends Receiver {
         this.group = group;
     }
 
+    public int getMaxUnacknowledged() {
+        return maxUnacknowledged;
+    }
+
+    /**
+     * @param maxUnacknowledged the maximum number of records from a partition that can be processed at once
+     */
+    public void setMaxUnacknowledged(int maxUnacknowledged) {
+        this.maxUnacknowledged = maxUnacknowledged;
+    }
+
+    public int getCommitInterval() {
+        return commitInterval;
+    }
+
+    /**
+     * @param commitInterval the time between commits of the acknowledged offsets, in ms
+     */
+    public void setCommitInterval(int commitInterval) {
+        this.commitInterval = commitInterval;
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    /**
+     * @param threads the number of consumers in the group, each with its own thread
+     */
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+
+    public int getDecodeThreads() {
+        return decodeThreads;
+    }
+
+    /**
+     * @param decodeThreads the number of threads decoding the records, 0 to decode them in the consumers threads
+     */
+    public void setDecodeThreads(int decodeThreads) {
+        this.decodeThreads = decodeThreads;
+    }
+
+    public String getDispatch() {
+        return dispatch;
+    }
+
+    /**
+     * @param dispatch how records are dispatched to decoding threads, "partition" or "key"
+     */
+    public void setDispatch(String dispatch) {
+        this.dispatch = dispatch;
+    }
+
     public String getKeyDeserializer() {
         return keyDeserializer;
     }
@@ -2,8 +2,10 @@ package loghub.receivers;
 
 import java.io.Closeable;
 import java.time.Instant;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.Optional;
@@ -43,6 +45,8 @@ public abstract class Receiver extends Thread implements Iterator<Event>, Closea
     private String password = null;
     private boolean useJwt = false;
     private String timeStampField = Event.TIMESTAMPKEY;
+    private int highWatermark = 90;
+    private int lowWatermark = 70;
 
     private BlockingQueue<Event> outQueue;
     private Pipeline pipeline;
@@ -209,25 +213,7 @@ public abstract class Receiver extends Thread implements Iterator<Event>, Closea
             return null;
         } else {
             try {
-                Map<String, Object>  content = decoder.get();
-                if (content == null) {
-                    Event.emptyEvent(ctx).end();
-                    manageDecodeException(new DecodeException("Received event with no usable body"));
-                    return null;
-                } else if (content instanceof Event) {
-                    return (Event) content;
-                } else {
-                    Event event = Event.emptyEvent(ctx);
-                    Optional.ofNullable(content.get(timeStampField))
-                    .filter(i -> i instanceof Date || i instanceof Instant || i instanceof Number)
-                    .ifPresent(ts -> {
-                        if (event.setTimestamp(ts)) {
-                            content.remove(timeStampField);
-                        }
-                    });
-                    content.entrySet().stream().forEach( i -> event.put(i.getKey(), i.getValue()));
-                    return event;
-                }
+                return mapToEvent(ctx, decoder.get());
             } catch (RuntimeDecodeException e) {
                 Event.emptyEvent(ctx).end();
                 manageDecodeException(e.getDecodeException());
@@ -236,6 +222,57 @@ public abstract class Receiver extends Thread implements Iterator<Event>, Closea
         }
     }
 
+    private Event mapToEvent(ConnectionContext<?> ctx, Map<String, Object> content) {
+        if (content == null) {
+            Event.emptyEvent(ctx).end();
+            manageDecodeException(new DecodeException("Received event with no usable body"));
+            return null;
+        } else if (content instanceof Event) {
+            return (Event) content;
+        } else {
+            Event event = Event.emptyEvent(ctx);
+            Optional.ofNullable(content.get(timeStampField))
+            .filter(i -> i instanceof Date || i instanceof Instant || i instanceof Number)
+            .ifPresent(ts -> {
+                if (event.setTimestamp(ts)) {
+                    content.remove(timeStampField);
+                }
+            });
+            content.entrySet().stream().forEach( i -> event.put(i.getKey(), i.getValue()));
+            return event;
+        }
+    }
+
+    /**
+     * Decode a message that can hold many events, like a Netflow packet with many flow records.
+     * @param ctx the connection context
+     * @param bbuf the message
+     * @return the events, or null if the message was invalid
+     */
+    protected final List<Event> decodeAll(ConnectionContext<?> ctx, ByteBuf bbuf) {
+        if (bbuf == null || ! bbuf.isReadable()) {
+            manageDecodeException(new DecodeException("received null or empty event"));
+            Event.emptyEvent(ctx).end();
+            return null;
+        }
+        try {
+            List<Map<String, Object>> contents = decoder.decodeAll(ctx, bbuf);
+            List<Event> events = new ArrayList<>(contents.size());
+            for (Map<String, Object> content: contents) {
+                Event event = mapToEvent(ctx, content);
+                if (event != null) {
+                    events.add(event);
+                }
+            }
+            // Nothing usable was decoded
+            return events.isEmpty() && ! contents.isEmpty() ? null : events;
+        } catch (DecodeException e) {
+            Event.emptyEvent(ctx).end();
+            manageDecodeException(e);
+            return null;
+        }
+    }
+
     protected final Event decode(ConnectionContext<?> ctx, ByteBuf bbuf) {
         return decode(ctx, () -> bbuf != null && bbuf.isReadable(), () -> {
             try {
@@ -277,7 +314,7 @@ public abstract class Receiver extends Thread implements Iterator<Event>, Closea
         Stats.received.incrementAndGet();
         if(! event.inject(pipeline, outQueue, blocking)) {
             event.end();
-            Properties.metrics.meter("Pipeline." + pipeline.getName() + ".blocked.in").mark();
+            pipeline.getMetrics().blockedIn.mark();
             Stats.newBlockedError("Listener " + getName() + " sending to " + pipeline.getName());
             logger.debug("send failed from {}, pipeline destination {} blocked", () -> getName(), () -> pipeline.getName());
             return false;
@@ -286,6 +323,37 @@ public abstract class Receiver extends Thread implements Iterator<Event>, Closea
         }
     }
 
+    /**
+     * Check if the destination queue is filled above the high watermark. Receivers that can slow
+     * down their sources should do it instead of letting the queue fill and drop events.
+     * @return true if the destination is overloaded
+     */
+    public boolean isOverloaded() {
+        return occupancy() >= highWatermark;
+    }
+
+    /**
+     * Check if the destination queue was drained below the low watermark, so a slowed
+     * down source can be resumed.
+     * @return true if the destination can accept new events
+     */
+    public boolean canResume() {
+        return occupancy() <= lowWatermark;
+    }
+
+    /**
+     * @return the percentage of the destination queue used, an unbounded queue is never used
+     */
+    private int occupancy() {
+        int remaining = outQueue.remainingCapacity();
+        if (remaining == Integer.MAX_VALUE) {
+            return 0;
+        }
+        long size = outQueue.size();
+        long capacity = size + remaining;
+        return capacity == 0 ? 100 : (int) (size * 100 / capacity);
+    }
+
     public Decoder getDecoder() {
         return decoder;
     }
@@ -396,4 +464,32 @@ public abstract class Receiver extends Thread implements Iterator<Event>, Closea
         this.timeStampField = timeStampField;
     }
 
+    /**
+     * @return the highWatermark, in percent of the destination queue
+     */
+    public int getHighWatermark() {
+        return highWatermark;
+    }
+
+    /**
+     * @param highWatermark the highWatermark to set, in percent of the destination queue
+     */
+    public void setHighWatermark(int highWatermark) {
+        this.highWatermark = highWatermark;
+    }
+
+    /**
+     * @return the lowWatermark, in percent of the destination queue
+     */
+    public int getLowWatermark() {
+        return lowWatermark;
+    }
+
+    /**
+     * @param lowWatermark the lowWatermark to set, in percent of the destination queue
+     */
+    public void setLowWatermark(int lowWatermark) {
+        this.lowWatermark = lowWatermark;
+    }
+
 }
@@ -3,6 +3,7 @@ package loghub.senders;
 import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
 import java.io.Reader;
 import java.io.UncheckedIOException;
 import java.lang.management.ManagementFactory;
@@ -10,14 +11,24 @@ import java.net.ConnectException;
 import java.net.SocketTimeoutException;
 import java.net.URL;
 import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 import java.security.GeneralSecurityException;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Date;
+import java.util.Base64;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.TimerTask;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import javax.management.InstanceAlreadyExistsException;
 import javax.management.InstanceNotFoundException;
@@ -28,12 +39,15 @@ import javax.management.MalformedObjectNameException;
 import javax.management.NotCompliantMBeanException;
 import javax.management.ObjectName;
 import javax.management.StandardMBean;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLException;
 
 import org.apache.http.HttpEntity;
 import org.apache.http.HttpHost;
 import org.apache.http.HttpVersion;
 import org.apache.http.RequestLine;
 import org.apache.http.auth.AuthScope;
+import org.apache.http.auth.Credentials;
 import org.apache.http.auth.UsernamePasswordCredentials;
 import org.apache.http.client.CredentialsProvider;
 import org.apache.http.client.config.RequestConfig;
@@ -61,16 +75,30 @@ import org.apache.http.pool.ConnPoolControl;
 import org.apache.http.util.VersionInfo;
 import org.apache.logging.log4j.Level;
 
+import com.codahale.metrics.Counter;
 import com.codahale.metrics.Timer;
 
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ConnectTimeoutException;
+import io.netty.channel.epoll.Epoll;
+import io.netty.handler.codec.http.DefaultFullHttpRequest;
+import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpHeaders;
+import io.netty.handler.codec.http.HttpMethod;
+
 import loghub.Event;
 import loghub.Helpers;
 import loghub.ThreadBuilder;
 import loghub.configuration.Properties;
+import loghub.netty.POLLER;
 import lombok.Setter;
 
 public abstract class AbstractHttpSender extends Sender {
 
+    private static final String NETTYUSERAGENT = "LogHub-HttpClient (netty)";
+
     public abstract static class Builder<S extends AbstractHttpSender> extends Sender.Builder<S> {
         @Setter
         private String protocol = "http";
@@ -90,6 +118,26 @@ public abstract class AbstractHttpSender extends Sender {
         private String[] destinations;
         @Setter
         private int buffersize = 20;
+        // Maximum size in bytes of a request, 0 for no limit
+        @Setter
+        private int batchBytes = 0;
+        // Maximum time in ms an event wait in a batch, 0 to wait until the batch is full
+        @Setter
+        private int linger = 5000;
+        // Resize the batches, from 1 up to buffersize, so that flushing takes about targetFlushDuration ms
+        @Setter
+        private boolean adaptiveBatch = false;
+        @Setter
+        private int targetFlushDuration = 1000;
+        // The http client, "apache" for the blocking client, "netty" for the asynchronous one
+        @Setter
+        private String httpClient = "apache";
+        // Maximum number of connections for each destination, 0 for threads + 1
+        @Setter
+        private int connections = 0;
+        // The poller used by the netty client
+        @Setter
+        private String poller = "NIO";
     };
 
     protected class HttpRequest {
@@ -98,6 +146,10 @@ public abstract class AbstractHttpSender extends Sender {
         private URL url = null;
         private final Map<String, String> headers = new HashMap<>();
         private HttpEntity content = null;
+        // The content bytes, used without a copy by the netty client
+        private byte[] rawContent = null;
+        private int rawOffset = 0;
+        private int rawLength = 0;
         public String getVerb() {
             return verb;
         }
@@ -124,22 +176,50 @@ public abstract class AbstractHttpSender extends Sender {
         }
         public void setContent(byte[] content) {
             this.content = new ByteArrayEntity(content);
+            setRawContent(content, 0, content.length);
         }
         public void setTypeAndContent(String mimeType, Charset charset, byte[] content) throws IOException {
             EntityBuilder builder = EntityBuilder.create()
                             .setBinary(content)
                             .setContentType(org.apache.http.entity.ContentType.create(mimeType, charset));
             this.content = builder.build();
+            setRawContent(content, 0, content.length);
+        }
+        /**
+         * Use a part of an array as the content, without copying it. The array must not be modified until
+         * the request is done.
+         */
+        public void setTypeAndContent(String mimeType, Charset charset, byte[] content, int offset, int length) {
+            this.content = new ByteArrayEntity(content, offset, length, org.apache.http.entity.ContentType.create(mimeType, charset));
+            setRawContent(content, offset, length);
+        }
+        private void setRawContent(byte[] content, int offset, int length) {
+            rawContent = content;
+            rawOffset = offset;
+            rawLength = length;
         }
     }
 
     protected class Batch extends ArrayList<Event> {
+        private final Counter activeBatches;
+        // When the first event was added
+        private long started;
+        // How many times the events were already sent
+        private final int retries;
         Batch() {
+            this(0);
+        }
+        private Batch(int retries) {
             super(buffersize);
-            Properties.metrics.counter("sender." + getName() + ".activeBatches").inc();
+            this.retries = retries;
+            activeBatches = getMetrics().activeBatches;
+            activeBatches.inc();
         }
         public void finished() {
-            Properties.metrics.counter("sender." + getName() + ".activeBatches").dec();
+            activeBatches.dec();
+        }
+        public int getRetries() {
+            return retries;
         }
     }
 
@@ -258,22 +338,46 @@ public abstract class AbstractHttpSender extends Sender {
     // Beans
     private final int buffersize;
     private final int timeout;
+    private final int batchBytes;
+    private final int linger;
+    private final boolean adaptiveBatch;
+    private final long targetFlushDuration;
+    // The current batch size, changed by the adaptive mode
+    private volatile int batchSize;
     private CredentialsProvider credsProvider = null;
 
+    private final String httpClient;
+    private final int connections;
+    private final POLLER poller;
+    // Bounds the flushes waiting for a response
+    private final Semaphore inflight;
+    private final int maxInflight;
+
     private CloseableHttpClient client = null;
+    private NettyHttpClient nettyClient = null;
+    private java.util.Timer timer = null;
     private Batch batch = new Batch();
     private final BlockingQueue<Batch> batches;
     private final Runnable publisher;
     protected final URL[] endPoints;
     private volatile boolean closed = false;
     private final Thread[] threads;
-    private volatile long lastFlush = 0;
 
     public AbstractHttpSender(Builder<? extends AbstractHttpSender> builder) {
         super(builder);
         timeout = builder.timeout;
         buffersize = builder.buffersize;
+        batchBytes = builder.batchBytes;
+        linger = builder.linger;
+        adaptiveBatch = builder.adaptiveBatch;
+        targetFlushDuration = TimeUnit.MILLISECONDS.toNanos(builder.targetFlushDuration);
+        batchSize = buffersize;
+        httpClient = builder.httpClient;
+        connections = builder.connections > 0 ? builder.connections : builder.threads + 1;
+        poller = POLLER.valueOf(builder.poller.toUpperCase());
         endPoints = Helpers.stringsToUrl(builder.destinations, builder.port, builder.protocol, logger);
+        maxInflight = Math.max(1, connections * endPoints.length);
+        inflight = new Semaphore(maxInflight);
         batches = new ArrayBlockingQueue<>(builder.threads * 2);
         // A runnable that will be affected to threads
         // It consumes event and send them as bulk
@@ -283,34 +387,46 @@ public abstract class AbstractHttpSender extends Sender {
                 try {
                     while (!isInterrupted() && ! closed) {
                         synchronized (this) {
-                            wait();
+                            wait(lingerWait());
+                            // Flush a batch that waited too long
+                            if (linger > 0 && ! batch.isEmpty()
+                                && System.currentTimeMillis() - batch.started >= linger
+                                && batches.offer(batch)) {
+                                batch = new Batch();
+                            }
                             logger.debug("Flush initated");
                         }
                         Batch flushedBatch;
                         while ((flushedBatch = batches.poll()) != null){
-                            Properties.metrics.histogram("sender." + getName() + ".batchesSize").update(flushedBatch.size());
+                            getMetrics().batchesSize.update(flushedBatch.size());
                             if (flushedBatch.isEmpty()) {
                                 flushedBatch.finished();
                                 continue;
-                            } else {
-                                lastFlush = new Date().getTime();
                             }
-                            Timer.Context tctx = Properties.metrics.timer("sender." + getName() + ".flushDuration").time();
+                            // Don't wait for the response, but only a few flushes can be pending
+                            inflight.acquire();
+                            Timer.Context tctx = getMetrics().flushDuration.time();
+                            CompletableFuture<?> done;
                             try {
-                                Object response = flush(flushedBatch);
-                                if (response != null) {
-                                    logger.debug("response from http server: {}", response);
-                                }
-                            } catch (IOException | UncheckedIOException e) {
-                                logger.error("IO exception: {}", e.getMessage());
-                                logger.catching(Level.DEBUG, e);
+                                done = flush(flushedBatch);
                             } catch (Exception e) {
-                                String message = Helpers.resolveThrowableException(e);
-                                logger.error("Unexpected exception: {}", message);
-                                logger.catching(e);
+                                done = new CompletableFuture<>();
+                                done.completeExceptionally(e);
                             }
-                            flushedBatch.finished();
-                            tctx.close();
+                            Batch flushed = flushedBatch;
+                            done.whenComplete((response, ex) -> {
+                                if (ex != null) {
+                                    flushFailed(ex instanceof CompletionException && ex.getCause() != null ? ex.getCause() : ex);
+                                } else if (response != null) {
+                                    logger.debug("response from http server: {}", response);
+                                }
+                                flushed.finished();
+                                inflight.release();
+                                long duration = tctx.stop();
+                                if (adaptiveBatch) {
+                                    adaptBatchSize(duration, flushed.size());
+                                }
+                            });
                         }
                     }
                 } catch (InterruptedException e) {
@@ -347,6 +463,33 @@ public abstract class AbstractHttpSender extends Sender {
             return false;
         }
 
+        timer = properties.timer;
+
+        if ("netty".equals(httpClient)) {
+            if (poller == POLLER.EPOLL && ! Epoll.isAvailable()) {
+                logger.error("Epoll poller not available: {}", Helpers.resolveThrowableException(Epoll.unavailabilityCause()));
+                return false;
+            }
+            try {
+                SSLContext ssl = properties.ssl != null ? properties.ssl : SSLContext.getDefault();
+                nettyClient = new NettyHttpClient(getPublishName() + "HttpClient", threads.length, connections, timeout, ssl, poller);
+            } catch (NoSuchAlgorithmException e) {
+                logger.error("No SSL context available: {}", Helpers.resolveThrowableException(e));
+                logger.catching(Level.DEBUG, e);
+                return false;
+            }
+        } else if ("apache".equals(httpClient)) {
+            client = buildApacheClient(properties);
+        } else {
+            logger.error("Unknown http client: {}", httpClient);
+            return false;
+        }
+
+        Helpers.waitAllThreads(Arrays.stream(threads));
+        return true;
+    }
+
+    private CloseableHttpClient buildApacheClient(Properties properties) {
         // The HTTP connection management
         HttpClientBuilder clientBuilder = HttpClientBuilder.create();
         clientBuilder.setUserAgent(VersionInfo.getUserAgent("LogHub-HttpClient",
@@ -358,8 +501,8 @@ public abstract class AbstractHttpSender extends Sender {
                         .register("https", new SSLConnectionSocketFactory(properties.ssl))
                         .build();
         PoolingHttpClientConnectionManager cm = new PoolingHttpClientConnectionManager(registry);
-        cm.setMaxTotal(threads.length + 1);
-        cm.setDefaultMaxPerRoute(threads.length + 1);
+        cm.setMaxTotal(connections * endPoints.length);
+        cm.setDefaultMaxPerRoute(connections);
         cm.setValidateAfterInactivity(timeout * 1000);
         clientBuilder.setConnectionManager(cm);
 
@@ -391,32 +534,19 @@ public abstract class AbstractHttpSender extends Sender {
 
         clientBuilder.setRetryHandler((i,j, k) -> false);
 
-        client = clientBuilder.build();
-
-        //Schedule a task to flush every 5 seconds
-        Runnable flush = () -> {
-            synchronized(publisher) {
-                long now = new Date().getTime();
-                if (( now - lastFlush) > 5000) {
-                    batches.add(batch);
-                    batch = new Batch();
-                    publisher.notify();
-                }
-            }
-        };
-        properties.registerScheduledTask(getPublishName() + "Flusher" , flush, 5000);
-        Helpers.waitAllThreads(Arrays.stream(threads));
-        return true;
+        return clientBuilder.build();
     }
 
     @Override
     public void stopSending() {
-        try {
+        if (client != null) {
+            try {
             MBeanServer mbs = ManagementFactory.getPlatformMBeanServer();
-            mbs.unregisterMBean(new ObjectName("loghub:type=sender,servicename=" + getName() + ",name=connectionsPool"));
-        } catch (MalformedObjectNameException | MBeanRegistrationException | InstanceNotFoundException e) {
-            logger.error("Failed to unregister mbeam: " + Helpers.resolveThrowableException(e), e);
-            logger.catching(Level.DEBUG, e);
+                mbs.unregisterMBean(new ObjectName("loghub:type=sender,servicename=" + getName() + ",name=connectionsPool"));
+            } catch (MalformedObjectNameException | MBeanRegistrationException | InstanceNotFoundException e) {
+                logger.error("Failed to unregister mbeam: " + Helpers.resolveThrowableException(e), e);
+                logger.catching(Level.DEBUG, e);
+            }
         }
         super.stopSending();
     }
@@ -444,6 +574,17 @@ public abstract class AbstractHttpSender extends Sender {
                 t.interrupt();
             }
         });
+        // Wait for the pending flushes
+        try {
+            if (! inflight.tryAcquire(maxInflight, timeout, TimeUnit.SECONDS)) {
+                logger.warn("Some flushes are still pending");
+            }
+        } catch (InterruptedException e) {
+            interrupt();
+        }
+        if (nettyClient != null) {
+            nettyClient.close();
+        }
     }
 
     protected abstract String getPublishName();
@@ -454,8 +595,15 @@ public abstract class AbstractHttpSender extends Sender {
             return false;
         }
         synchronized(publisher) {
+            if (batch.isEmpty()) {
+                batch.started = System.currentTimeMillis();
+                // Wake up a publisher, so it will wait for the linger time of this batch
+                if (linger > 0) {
+                    publisher.notify();
+                }
+            }
             batch.add(event);
-            if (batch.size() >= buffersize) {
+            if (batch.size() >= batchSize) {
                 logger.debug("batch full, flush");
                 try {
                     batches.put(batch);
@@ -472,9 +620,123 @@ public abstract class AbstractHttpSender extends Sender {
         return true;
     }
 
-    protected abstract Object flush(Batch documents) throws IOException;
+    /**
+     * How long a publisher can wait before the current batch must be flushed, must be called with the publisher lock.
+     * @return the wait in ms, 0 to wait for a notification
+     */
+    private long lingerWait() {
+        if (linger <= 0 || batch.isEmpty()) {
+            return 0;
+        } else {
+            return Math.max(linger - (System.currentTimeMillis() - batch.started), 1);
+        }
+    }
+
+    /**
+     * Shrink the batches if flushing was too slow, or grow them if it was fast enough and they are full.
+     * @param duration the flush duration, in ns
+     * @param flushedSize the number of events flushed
+     */
+    private void adaptBatchSize(long duration, int flushedSize) {
+        int current = batchSize;
+        if (duration > targetFlushDuration) {
+            batchSize = Math.max(1, current / 2);
+        } else if (flushedSize >= current) {
+            batchSize = Math.min(buffersize, current + Math.max(1, current / 10));
+        }
+    }
+
+    /**
+     * @return the current number of events in a batch.
+     */
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * @return the maximum size in bytes of a request, 0 if there is no limit.
+     */
+    protected int getBatchBytes() {
+        return batchBytes;
+    }
+
+    /**
+     * Send a batch. The returned future is completed when the status of all the events is resolved,
+     * the batch is then released.
+     * @param documents the events to send
+     * @return the future response
+     * @throws IOException
+     */
+    protected abstract CompletableFuture<?> flush(Batch documents) throws IOException;
+
+    private void flushFailed(Throwable e) {
+        if (e instanceof IOException || e instanceof UncheckedIOException) {
+            logger.error("IO exception: {}", e.getMessage());
+            logger.catching(Level.DEBUG, e);
+        } else {
+            String message = Helpers.resolveThrowableException(e);
+            logger.error("Unexpected exception: {}", message);
+            logger.catching(e);
+        }
+    }
+
+    /**
+     * Send again some events of a flushed batch, in a new batch queued after a delay. The publisher
+     * thread is not blocked while waiting.
+     * @param events the events to send again
+     * @param previous the batch they come from
+     * @param delay the delay in ms
+     */
+    protected void retry(Collection<Event> events, Batch previous, long delay) {
+        Batch retryBatch = new Batch(previous.retries + 1);
+        retryBatch.addAll(events);
+        scheduleRetry(retryBatch, delay);
+    }
+
+    private void scheduleRetry(Batch retryBatch, long delay) {
+        timer.schedule(new TimerTask() {
+            @Override
+            public void run() {
+                if (closed) {
+                    retryBatch.forEach(e -> processStatus(e, CompletableFuture.completedFuture(false)));
+                    retryBatch.finished();
+                } else if (batches.offer(retryBatch)) {
+                    synchronized (publisher) {
+                        publisher.notify();
+                    }
+                } else {
+                    // The timer thread is shared, it must not wait for a free slot
+                    scheduleRetry(retryBatch, delay);
+                }
+            }
+        }, delay);
+    }
+
+    /**
+     * Send a request, without waiting for the response when the netty client is used.
+     * @param therequest the request, it must not be modified until the future is completed
+     * @return the future response, it never completes exceptionally
+     */
+    protected CompletableFuture<HttpResponse> doRequestAsync(HttpRequest therequest) {
+        if (nettyClient != null) {
+            return doNettyRequest(therequest);
+        } else {
+            return CompletableFuture.completedFuture(doRequest(therequest));
+        }
+    }
 
     protected HttpResponse doRequest(HttpRequest therequest) {
+        if (nettyClient != null) {
+            try {
+                return doNettyRequest(therequest).get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return new HttpResponse(null, null, new InterruptedIOException(), null);
+            } catch (ExecutionException e) {
+                // doNettyRequest handles the failures
+                throw new IllegalStateException(e.getCause());
+            }
+        }
 
         HttpClientContext context = HttpClientContext.create();
         if (credsProvider != null) {
@@ -530,4 +792,58 @@ public abstract class AbstractHttpSender extends Sender {
         }
     };
 
+    private CompletableFuture<HttpResponse> doNettyRequest(HttpRequest therequest) {
+        HttpHost host = new HttpHost(therequest.url.getHost(),
+                                     therequest.url.getPort(),
+                                     therequest.url.getProtocol());
+        // The request bytes are wrapped, not copied
+        ByteBuf content = therequest.rawContent != null ? Unpooled.wrappedBuffer(therequest.rawContent, therequest.rawOffset, therequest.rawLength) : Unpooled.EMPTY_BUFFER;
+        FullHttpRequest request = new DefaultFullHttpRequest(io.netty.handler.codec.http.HttpVersion.valueOf(therequest.httpVersion.toString()),
+                                                             HttpMethod.valueOf(therequest.verb),
+                                                             therequest.url.getPath(),
+                                                             content);
+        HttpHeaders headers = request.headers();
+        headers.set(HttpHeaderNames.HOST, host.toHostString());
+        headers.set(HttpHeaderNames.USER_AGENT, NETTYUSERAGENT);
+        headers.set(HttpHeaderNames.CONTENT_LENGTH, content.readableBytes());
+        if (therequest.content != null && therequest.content.getContentType() != null) {
+            headers.set(HttpHeaderNames.CONTENT_TYPE, therequest.content.getContentType().getValue());
+        }
+        // Preemptive authentication, the server will not be asked first
+        Credentials creds = credsProvider != null ? credsProvider.getCredentials(new AuthScope(host.getHostName(), host.getPort())) : null;
+        if (creds != null) {
+            String token = creds.getUserPrincipal().getName() + ":" + creds.getPassword();
+            headers.set(HttpHeaderNames.AUTHORIZATION, "Basic " + Base64.getEncoder().encodeToString(token.getBytes(StandardCharsets.UTF_8)));
+        }
+        therequest.headers.forEach(headers::set);
+        return nettyClient.execute(host, request).handle((response, ex) -> {
+            if (ex == null) {
+                return new HttpResponse(host, response, null, null);
+            }
+            Throwable cause = ex instanceof CompletionException && ex.getCause() != null ? ex.getCause() : ex;
+            if (cause instanceof TimeoutException) {
+                logger.error("All connections slots to {} used.", host);
+                return new HttpResponse(host, null, new IOException(cause), null);
+            } else if (cause instanceof ConnectTimeoutException || cause instanceof SocketTimeoutException) {
+                logger.error("Slow response from {}", host);
+                logger.catching(Level.DEBUG, cause);
+                return new HttpResponse(host, null, (IOException) cause, null);
+            } else if (cause instanceof ConnectException) {
+                logger.error("Connection to {} refused", host);
+                logger.catching(Level.DEBUG, cause);
+                return new HttpResponse(host, null, (IOException) cause, null);
+            } else if (cause instanceof SSLException || cause instanceof GeneralSecurityException) {
+                // A TLS exception, will not help to retry
+                logger.error("Secure comunication with {} failed: {}", host, Helpers.resolveThrowableException(cause));
+                logger.catching(Level.DEBUG, cause);
+                GeneralSecurityException sslexception = cause instanceof GeneralSecurityException ? (GeneralSecurityException) cause : new GeneralSecurityException(cause.getMessage(), cause);
+                return new HttpResponse(host, null, null, sslexception);
+            } else {
+                logger.error("Comunication with {} failed: {}", host, Helpers.resolveThrowableException(cause));
+                logger.catching(Level.DEBUG, cause);
+                return new HttpResponse(host, null, cause instanceof IOException ? (IOException) cause : new IOException(cause), null);
+            }
+        });
+    }
+
 }
@@ -1,5 +1,6 @@
 package loghub.senders;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.UncheckedIOException;
@@ -8,14 +9,21 @@ import java.net.URL;
 import java.nio.file.Paths;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.Deque;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Queue;
 import java.util.TimeZone;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.function.Function;
 import java.util.stream.Stream;
 
@@ -24,6 +32,7 @@ import org.apache.logging.log4j.Level;
 import com.fasterxml.jackson.core.JsonFactory;
 import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.util.BufferRecyclers;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.SerializationFeature;
@@ -59,6 +68,9 @@ public class ElasticSearch extends AbstractHttpSender {
         private String templatePath = null;
         @Setter
         private boolean withTemplate = true;
+        // How many times rejected documents are sent again
+        @Setter
+        private int maxRetries = 5;
         public Builder() {
             this.setPort(9200);
         }
@@ -77,10 +89,44 @@ public class ElasticSearch extends AbstractHttpSender {
         protected ObjectMapper initialValue() {
             return new ObjectMapper(factory)
                             .configure(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS, false)
+                            .configure(SerializationFeature.FLUSH_AFTER_WRITE_VALUE, false)
                             .configure(JsonGenerator.Feature.ESCAPE_NON_ASCII, true);
         }
     };
 
+    /**
+     * A reusable buffer for the bulk body, that can be sent without copying it.
+     */
+    static final class BulkBuffer extends ByteArrayOutputStream {
+        BulkBuffer() {
+            super(64 * 1024);
+        }
+        byte[] getBuffer() {
+            return buf;
+        }
+        void truncate(int size) {
+            count = size;
+        }
+        void append(byte[] content) {
+            write(content, 0, content.length);
+        }
+    }
+
+    // The delays in ms before sending again rejected documents
+    private static final long RETRYDELAY = 100;
+    private static final long MAXRETRYDELAY = 10000;
+
+    // A buffer bigger than that will not be reused
+    private static final int MAXRETAINEDBUFFER = 16 * 1024 * 1024;
+    // The buffers not used by a flush, a pending flush can be completed by another thread
+    private final Queue<BulkBuffer> bulkBuffers = new ConcurrentLinkedQueue<>();
+
+    // The constant parts of the action line
+    private static final byte[] ACTIONSTART = "{\"index\":{\"_index\":\"".getBytes(CharsetUtil.UTF_8);
+    private static final byte[] ACTIONTYPE = "\",\"_type\":\"".getBytes(CharsetUtil.UTF_8);
+    private static final byte[] ACTIONEND = "\"}}\n".getBytes(CharsetUtil.UTF_8);
+    private static final Function<String, byte[]> QUOTER = i -> BufferRecyclers.getJsonStringEncoder().quoteAsUTF8(i);
+
     private static final ThreadLocal<DateFormat> ISO8601 = ThreadLocal.withInitial( () -> new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSSZ"));
 
     private final String type;
@@ -91,9 +137,9 @@ public class ElasticSearch extends AbstractHttpSender {
     private final String templateName;
     private URL templatePath;
     private final boolean withTemplate;
+    private final int maxRetries;
 
     private ThreadLocal<DateFormat> esIndexFormat;
-    private final ThreadLocal<URL[]> UrlArrayCopy;
 
     public ElasticSearch(Builder builder) {
         super(builder);
@@ -113,9 +159,9 @@ public class ElasticSearch extends AbstractHttpSender {
             }
         }
         type = builder.type;
+        maxRetries = builder.maxRetries;
         typeExpressionSrc = builder.typeX;
         indexExpressionSrc = builder.indexX;
-        UrlArrayCopy = ThreadLocal.withInitial(() -> Arrays.copyOf(endPoints, endPoints.length));
         if (indexExpressionSrc == null) {
             esIndexFormat = ThreadLocal.withInitial( () -> {
                 DateFormat df = new SimpleDateFormat(builder.indexformat);
@@ -133,11 +179,11 @@ public class ElasticSearch extends AbstractHttpSender {
             try {
                 if (typeExpressionSrc != null) {
                     processedSrc = typeExpressionSrc;
-                    typeExpression = new Expression(typeExpressionSrc, properties.groovyClassLoader, properties.formatters);
+                    typeExpression = new Expression(typeExpressionSrc, properties.groovyClassLoader, properties.formatters, "sender." + getName() + ".type");
                 }
                 if (indexExpressionSrc != null) {
                     processedSrc = indexExpressionSrc;
-                    indexExpression = new Expression(indexExpressionSrc, properties.groovyClassLoader, properties.formatters);
+                    indexExpression = new Expression(indexExpressionSrc, properties.groovyClassLoader, properties.formatters, "sender." + getName() + ".index");
                 }
             } catch (ExpressionException e) {
                 Expression.logError(e, processedSrc, logger);
@@ -159,62 +205,169 @@ public class ElasticSearch extends AbstractHttpSender {
     }
 
     @Override
-    protected Object flush(Batch documents) throws IOException {
-        HttpRequest request = new HttpRequest();
-        byte[] content = putContent(documents);
-        if (content.length == 0) {
-            return null;
-        }
-        request.setTypeAndContent("application/json", CharsetUtil.UTF_8, content);
-        request.setVerb("POST");
-        Function<JsonNode, Map<String, ? extends Object>> reader;
+    protected CompletableFuture<Object> flush(Batch documents) {
+        BulkBuffer buffer = Optional.ofNullable(bulkBuffers.poll()).orElseGet(BulkBuffer::new);
+        // The batch is split if it's too big
+        Deque<Event> remaining = new ArrayDeque<>(documents);
+        List<Event> current = new ArrayList<>();
+        List<Event> rejected = new ArrayList<>();
+        return sendBulks(remaining, buffer, current, rejected, null).whenComplete((r, e) -> {
+            // Don't keep a buffer inflated by a huge bulk
+            if (buffer.getBuffer().length <= MAXRETAINEDBUFFER) {
+                bulkBuffers.offer(buffer);
+            }
+            // The events of a failed bulk, the failure itself is logged by the publisher, and the events that were not sent
+            current.forEach(ev -> processStatus(ev, CompletableFuture.completedFuture(false)));
+            remaining.forEach(ev -> processStatus(ev, CompletableFuture.completedFuture(false)));
+            if (! rejected.isEmpty()) {
+                int retries = documents.getRetries();
+                if (retries >= maxRetries) {
+                    logger.error("{} documents still rejected after {} retries", rejected.size(), retries);
+                    rejected.forEach(ev -> processStatus(ev, CompletableFuture.completedFuture(false)));
+                } else {
+                    long delay = Math.min(RETRYDELAY << retries, MAXRETRYDELAY);
+                    logger.debug("{} documents rejected, retry in {} ms", rejected.size(), delay);
+                    retry(rejected, documents, delay);
+                }
+            }
+        });
+    }
+
+    /**
+     * Send the documents as bulks, one after the other, as the buffer is reused.
+     * @param remaining the documents to send
+     * @param buffer the bulk content buffer
+     * @param current the events of the bulk being sent, still unresolved if the returned future fails
+     * @param rejected where to add the rejected documents, that can be sent again
+     * @param previous the response of the previous bulk
+     * @return the response of the last bulk
+     */
+    private CompletableFuture<Object> sendBulks(Deque<Event> remaining, BulkBuffer buffer, List<Event> current, List<Event> rejected, Object previous) {
         try {
-            reader = node -> {
-                try {
-                    return json.get().readerFor(Map.class).readValue(node);
-                } catch (IOException e) {
-                    throw new UncheckedIOException(e);
+            while (! remaining.isEmpty()) {
+                buffer.reset();
+                current.clear();
+                if (putContent(remaining, buffer, current, getBatchBytes()) > 0) {
+                    return sendBulk(current, buffer, rejected).thenCompose(r -> sendBulks(remaining, buffer, current, rejected, r));
                 }
-            };
-        } catch (UncheckedIOException e) {
-            throw e.getCause();
+            }
+            return CompletableFuture.completedFuture(previous);
+        } catch (IOException | RuntimeException e) {
+            CompletableFuture<Object> failed = new CompletableFuture<>();
+            failed.completeExceptionally(e);
+            return failed;
         }
-        Map<String, ? extends Object> response = doquery(request, "/_bulk", reader, Collections.emptyMap(), null);
-        if (response != null && Boolean.TRUE.equals(response.get("errors"))) {
-            @SuppressWarnings("unchecked")
-            List<Map<String, ?>> items = (List<Map<String, ?>>) response.get("items");
-            for (Map<String, ?> i: items) {
-                @SuppressWarnings("unchecked")
-                Map<String, Map<String, ? extends Object>> index = (Map<String, Map<String, ? extends Object>>) i.get("index");
-                if (! index.containsKey("error")) {
-                    continue;
-                }
-                Map<String, ? extends Object> error =  Optional.ofNullable((Map<String, ? extends Object>) index.get("error")).orElse(Collections.emptyMap());
-                String type = (String) error.get("type");
-                String errorReason = (String) error.get("reason");
-                Optional<Map<?, ?>> errorCause = Optional.ofNullable((Map<?, ?>) error.get("caused_by"));
+    }
+
+    /**
+     * Send a bulk.
+     * @param bulk the events in the bulk, in the same order, it's emptied once their status is resolved
+     * @param buffer the bulk content, it must not be modified until the response is received
+     * @param rejected where to add the rejected documents, that can be sent again
+     * @return the future response
+     */
+    private CompletableFuture<Object> sendBulk(List<Event> bulk, BulkBuffer buffer, List<Event> rejected) {
+        HttpRequest request = new HttpRequest();
+        request.setVerb("POST");
+        Function<JsonNode, Map<String, ? extends Object>> reader = node -> {
+            try {
+                return json.get().readerFor(Map.class).readValue(node);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        };
+        getMetrics().batchesBytes.update(buffer.size());
+        request.setTypeAndContent("application/json", CharsetUtil.UTF_8, buffer.getBuffer(), 0, buffer.size());
+        return doqueryAsync(request, "/_bulk", reader, Collections.emptyMap(), null).thenApply(response -> {
+            rejected.addAll(checkResponse(bulk, response));
+            bulk.clear();
+            return response;
+        });
+    }
+
+    /**
+     * Check the status of each document in a bulk response, and resolve the status of the events.
+     * @param bulk the events in the bulk, in the same order
+     * @param response the bulk response, null if no node answered
+     * @return the events that were rejected and can be sent again
+     */
+    List<Event> checkResponse(List<Event> bulk, Map<String, ? extends Object> response) {
+        if (response == null) {
+            // No node was able to process the bulk, try again
+            return bulk;
+        } else if (! Boolean.TRUE.equals(response.get("errors"))) {
+            bulk.forEach(e -> processStatus(e, CompletableFuture.completedFuture(true)));
+            return Collections.emptyList();
+        }
+        Object items = response.get("items");
+        if (! (items instanceof List)) {
+            // Can't tell which documents failed
+            Stats.newSenderError("Missing items in failed bulk response");
+            bulk.forEach(e -> processStatus(e, CompletableFuture.completedFuture(false)));
+            return Collections.emptyList();
+        }
+        List<Event> rejected = new ArrayList<>();
+        Iterator<Event> events = bulk.iterator();
+        for (Object i: (List<?>) items) {
+            if (! events.hasNext()) {
+                break;
+            }
+            Event e = events.next();
+            Object index = i instanceof Map ? ((Map<?, ?>) i).get("index") : null;
+            if (! (index instanceof Map)) {
+                Stats.newSenderError("Missing index status in bulk response");
+                processStatus(e, CompletableFuture.completedFuture(false));
+                continue;
+            } else if (! ((Map<?, ?>) index).containsKey("error")) {
+                processStatus(e, CompletableFuture.completedFuture(true));
+                continue;
+            }
+            Map<?, ?> error = asMap(((Map<?, ?>) index).get("error"));
+            Object type = error.get("type");
+            Object status = ((Map<?, ?>) index).get("status");
+            if ("es_rejected_execution_exception".equals(type) || (status instanceof Number && ((Number) status).intValue() == 429)) {
+                rejected.add(e);
+            } else {
+                Map<?, ?> errorCause = asMap(error.get("caused_by"));
                 Stats.newSenderError(String.format("%s %s, caused by %s %s",
-                                                   type, errorReason,
-                                                   errorCause.orElse(Collections.emptyMap()).get("type"), errorCause.orElse(Collections.emptyMap()).get("reason")));
+                                                   type, error.get("reason"),
+                                                   errorCause.get("type"), errorCause.get("reason")));
+                processStatus(e, CompletableFuture.completedFuture(false));
             }
         }
-        return response;
+        // Should not happen, but the events must be resolved
+        events.forEachRemaining(e -> processStatus(e, CompletableFuture.completedFuture(false)));
+        return rejected;
+    }
+
+    private static Map<?, ?> asMap(Object o) {
+        return o instanceof Map ? (Map<?, ?>) o : Collections.emptyMap();
     }
 
-    private byte[] putContent(Batch documents) {
-        StringBuilder builder = new StringBuilder();
-        StringBuilder eventbuilder = new StringBuilder();
-        Map<String, String> settings = new HashMap<>(2);
-        Map<String, Object> action = Collections.singletonMap("index", settings);
-        Map<String, Object> esjson = new HashMap<>();
+    /**
+     * Write the bulk request body for some events in a buffer, the written events are removed from the documents.
+     * It stops before the buffer gets bigger than the bytes limit, the event that would have exceeded it is
+     * kept in the documents for the next bulk. Only an event alone in a bulk can exceed it.
+     * <p>
+     * The events that can't be written are marked as failed, the other ones will have their status
+     * resolved with the bulk response.
+     * @param documents the events to send
+     * @param buffer the destination buffer
+     * @param written the events written in the buffer
+     * @param maxBytes the bytes limit, 0 for no limit
+     * @return the number of events written
+     * @throws IOException
+     */
+    int putContent(Deque<Event> documents, BulkBuffer buffer, List<Event> written, int maxBytes) throws IOException {
         ObjectMapper jsonmapper = json.get();
+        // Index and type values are few, so they are encoded only once per bulk
+        Map<String, byte[]> encoded = new HashMap<>();
+        JsonGenerator generator = null;
         int validEvents = 0;
-        for(Event e: documents) {
+        Event e;
+        while ((e = documents.poll()) != null) {
+            int mark = buffer.size();
             try {
-                eventbuilder.setLength(0);
-                esjson.clear();
-                esjson.putAll(e);
-                esjson.put("@timestamp", ISO8601.get().format(e.getTimestamp()));
                 String indexvalue;
                 if (indexExpression != null) {
                     indexvalue = Optional.ofNullable(indexExpression.eval(e)).map( i-> i.toString()).orElse(null);
@@ -225,47 +378,76 @@ public class ElasticSearch extends AbstractHttpSender {
                     processStatus(e, CompletableFuture.completedFuture(false));
                     logger.warn("No usable index name for event {}", e);
                     continue;
-                } else {
-                    settings.put("_index", indexvalue);
                 }
                 String typevalue;
                 if (typeExpression != null) {
                     typevalue = Optional.ofNullable(typeExpression.eval(e)).map( i-> i.toString()).orElse(null);
                 } else {
-                    typevalue = Optional.ofNullable(esjson.remove(type)).map(i -> i.toString()).orElse(null);
+                    typevalue = Optional.ofNullable(e.get(type)).map(i -> i.toString()).orElse(null);
                 }
                 if (typevalue == null || typevalue.isEmpty()) {
                     processStatus(e, CompletableFuture.completedFuture(false));
                     logger.warn("No usable type for event {}", e);
                     continue;
-                } else {
-                    settings.put("_type", typevalue);
                 }
-                eventbuilder.append(jsonmapper.writeValueAsString(action));
-                eventbuilder.append("\n");
-                eventbuilder.append(jsonmapper.writeValueAsString(esjson));
-                eventbuilder.append("\n");
-                builder.append(eventbuilder);
+                buffer.append(ACTIONSTART);
+                buffer.append(encoded.computeIfAbsent(indexvalue, QUOTER));
+                buffer.append(ACTIONTYPE);
+                buffer.append(encoded.computeIfAbsent(typevalue, QUOTER));
+                buffer.append(ACTIONEND);
+                if (generator == null) {
+                    generator = jsonmapper.getFactory().createGenerator(buffer);
+                    generator.setRootValueSeparator(null);
+                }
+                writeDocument(generator, jsonmapper, e);
+                generator.flush();
+                buffer.write('\n');
+                if (maxBytes > 0 && buffer.size() > maxBytes && validEvents > 0) {
+                    // Too big, it will go in the next bulk
+                    buffer.truncate(mark);
+                    documents.addFirst(e);
+                    break;
+                }
                 validEvents++;
-                processStatus(e, CompletableFuture.completedFuture(true));
+                written.add(e);
             } catch (java.lang.StackOverflowError ex) {
+                // The generator is in an unknown state, drop it and the partial document
+                generator = null;
+                buffer.truncate(mark);
                 processStatus(e, CompletableFuture.completedFuture(false));
                 logger.error("Failed to serialized event {}, infinite recursion", e);
             } catch (ProcessorException ex) {
                 processStatus(e, CompletableFuture.completedFuture(false));
                 logger.error("Failed to determine index/type for event {}: {}", e, ex);
                 logger.catching(Level.DEBUG, ex);
-            } catch (JsonProcessingException ex) {
+            } catch (IOException ex) {
+                generator = null;
+                buffer.truncate(mark);
+                processStatus(e, CompletableFuture.completedFuture(false));
                 logger.error("Failed to serialized {}: {}", e, ex.getMessage());
                 logger.catching(Level.DEBUG, ex);
-                continue;
             }
         }
-        if (validEvents == 0) {
-            return new byte[] {};
-        } else {
-            return builder.toString().getBytes(CharsetUtil.UTF_8);
+        if (generator != null) {
+            generator.close();
         }
+        return validEvents;
+    }
+
+    private void writeDocument(JsonGenerator generator, ObjectMapper jsonmapper, Event e) throws IOException {
+        // If the type is taken from the event, it's not sent
+        String typeField = typeExpression == null ? type : null;
+        generator.writeStartObject();
+        for (Map.Entry<String, Object> i: e.entrySet()) {
+            String key = i.getKey();
+            if ("@timestamp".equals(key) || key.equals(typeField)) {
+                continue;
+            }
+            generator.writeFieldName(key);
+            jsonmapper.writeValue(generator, i.getValue());
+        }
+        generator.writeStringField("@timestamp", ISO8601.get().format(e.getTimestamp()));
+        generator.writeEndObject();
     }
 
     private int checkMajorVersion() {
@@ -362,12 +544,33 @@ public class ElasticSearch extends AbstractHttpSender {
     }
 
     private <T> T doquery(HttpRequest request, String filePart, Function<JsonNode, T> transform, Map<Integer, Function<JsonNode, T>> failureHandlers, T onFailure) {
+        try {
+            return doqueryAsync(request, filePart, transform, failureHandlers, onFailure).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            } else {
+                throw e;
+            }
+        }
+    }
+
+    private <T> CompletableFuture<T> doqueryAsync(HttpRequest request, String filePart, Function<JsonNode, T> transform, Map<Integer, Function<JsonNode, T>> failureHandlers, T onFailure) {
         if (request == null) {
             request = new HttpRequest();
         }
-        URL[] localendPoints = UrlArrayCopy.get();
+        // A copy for each query, it might be used by many threads
+        URL[] localendPoints = Arrays.copyOf(endPoints, endPoints.length);
         Helpers.shuffleArray(localendPoints);
-        for (URL endPoint: localendPoints) {
+        return doqueryAsync(request, localendPoints, 0, filePart, transform, failureHandlers, onFailure);
+    }
+
+    /**
+     * Try the query on each end point, starting from next, until one of them gives an usable answer.
+     */
+    private <T> CompletableFuture<T> doqueryAsync(HttpRequest request, URL[] localendPoints, int next, String filePart, Function<JsonNode, T> transform, Map<Integer, Function<JsonNode, T>> failureHandlers, T onFailure) {
+        for (int i = next; i < localendPoints.length; i++) {
+            URL endPoint = localendPoints[i];
             URL newEndPoint;
             try {
                 newEndPoint = new URL(endPoint.getProtocol(), endPoint.getHost(), endPoint.getPort(), endPoint.getFile() + filePart);
@@ -375,39 +578,49 @@ public class ElasticSearch extends AbstractHttpSender {
                 continue;
             }
             request.setUrl(newEndPoint);
-            try (HttpResponse response = doRequest(request)) {
-                if (response.isConnexionFailed()) {
-                    continue;
+            int tried = i;
+            return doRequestAsync(request).thenCompose(r -> {
+                boolean tryNext = true;
+                T value = onFailure;
+                try (HttpResponse response = r) {
+                    if (! response.isConnexionFailed()) {
+                        int status = response.getStatus();
+                        String responseMimeType = response.getMimeType();
+                        if ((status - status % 100) == 200 && "application/json".equals(responseMimeType)) {
+                            JsonNode node = json.get().readTree(response.getContentReader());
+                            value = transform.apply(node);
+                            tryNext = false;
+                        } else if ((status - status % 100) == 200 || (status - status % 100) == 500) {
+                            // This node return 200 but not a application/json, or a 500
+                            // Looks like this node is broken try another one
+                            logger.warn("Broken node: {}, returned '{} {}' {}", newEndPoint, status, response.getStatusMessage(), response.getMimeType());
+                        } else if (failureHandlers.containsKey(status) && "application/json".equals(responseMimeType)){
+                            JsonNode node = json.get().readTree(response.getContentReader());
+                            // Only ES failures can be handled
+                            value = failureHandlers.get(status).apply(node);
+                            tryNext = false;
+                        } else if ("application/json".equals(responseMimeType)){
+                            JsonNode node = json.get().readTree(response.getContentReader());
+                            logger.error("Invalid query: {} {}, return '{} {}'", request.getVerb(), newEndPoint, status, response.getStatusMessage());
+                            logger.debug("error body: {}", () -> node.toString());
+                        } else {
+                            // Valid, but not good request, useless to try something else
+                            logger.error("Invalid query: {} {}, return '{} {}', {}", request.getVerb(), newEndPoint, status, response.getStatusMessage(), responseMimeType);
+                            tryNext = false;
+                        }
+                    }
+                } catch (IOException | UncheckedIOException e) {
+                    logger.error("Can't communicate with node {}:{}: {}", endPoint.getHost(), endPoint.getPort(), e.getMessage());
+                    logger.catching(Level.DEBUG, e);
                 }
-                int status = response.getStatus();
-                String responseMimeType = response.getMimeType();
-                if ((status - status % 100) == 200 && "application/json".equals(responseMimeType)) {
-                    JsonNode node = json.get().readTree(response.getContentReader());
-                    return transform.apply(node);
-                } else if ((status - status % 100) == 200 || (status - status % 100) == 500) {
-                    // This node return 200 but not a application/json, or a 500
-                    // Looks like this node is broken try another one
-                    logger.warn("Broken node: {}, returned '{} {}' {}", newEndPoint, status, response.getStatusMessage(), response.getMimeType());
-                    continue;
-                } else if (failureHandlers.containsKey(status) && "application/json".equals(responseMimeType)){
-                    JsonNode node = json.get().readTree(response.getContentReader());
-                    // Only ES failures can be handled
-                    return failureHandlers.get(status).apply(node);
-                } else if ("application/json".equals(responseMimeType)){
-                    JsonNode node = json.get().readTree(response.getContentReader());
-                    logger.error("Invalid query: {} {}, return '{} {}'", request.getVerb(), newEndPoint, status, response.getStatusMessage());
-                    logger.debug("error body: {}", () -> node.toString());
+                if (tryNext) {
+                    return doqueryAsync(request, localendPoints, tried + 1, filePart, transform, failureHandlers, onFailure);
                 } else {
-                    // Valid, but not good request, useless to try something else
-                    logger.error("Invalid query: {} {}, return '{} {}', {}", request.getVerb(), newEndPoint, status, response.getStatusMessage(), responseMimeType);
-                    break;
+                    return CompletableFuture.completedFuture(value);
                 }
-            } catch (IOException | UncheckedIOException e) {
-                logger.error("Can't communicate with node {}:{}: {}", endPoint.getHost(), endPoint.getPort(), e.getMessage());
-                logger.catching(Level.DEBUG, e);
-            }
+            });
         }
-        return onFailure;
+        return CompletableFuture.completedFuture(onFailure);
     }
 
     @Override
@@ -1,24 +1,45 @@
 package loghub.senders;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
 import java.nio.channels.AsynchronousCloseException;
 import java.nio.channels.AsynchronousFileChannel;
 import java.nio.channels.ClosedChannelException;
 import java.nio.channels.CompletionHandler;
+import java.nio.channels.FileChannel;
 import java.nio.channels.NonWritableChannelException;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 
+import org.apache.commons.compress.compressors.CompressorException;
+import org.apache.commons.compress.compressors.CompressorStreamFactory;
 import org.apache.logging.log4j.Level;
 
 import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
 import io.netty.buffer.Unpooled;
 import loghub.BuilderClass;
 import loghub.Event;
 import loghub.Helpers;
+import loghub.ThreadBuilder;
 import loghub.configuration.Properties;
 import lombok.Getter;
 import lombok.Setter;
@@ -34,6 +55,24 @@ public class File extends Sender {
         private String separator = "";
         @Setter
         private boolean truncate = false;
+        // The size in bytes of the write-behind buffers, 0 means one write for each event
+        @Setter
+        private int batchSize = 0;
+        // The maximum time in ms an event stays in a buffer
+        @Setter
+        private int flushInterval = 1000;
+        // Force the buffers to the storage before acknowledging the events
+        @Setter
+        private boolean sync = false;
+        // Rotate the file after this size in bytes
+        @Setter
+        private long rotateSize = 0;
+        // Rotate the file after this delay in seconds
+        @Setter
+        private int rotateInterval = 0;
+        // The compression of rotated files, a commons-compress name like gz, bzip2, xz or zstd
+        @Setter
+        private String compression = null;
         @Override
         public File build() {
             return new File(this);
@@ -42,6 +81,23 @@ public class File extends Sender {
     public static Builder getBuilder() {
         return new Builder();
     }
+
+    private static final int PENDINGBATCHES = 4;
+    private static final DateTimeFormatter ROTATEDFORMAT = DateTimeFormatter.ofPattern("yyyyMMdd'T'HHmmss");
+
+    /**
+     * The events waiting to be written, with their encoded content
+     */
+    private static class Batch {
+        private final ByteBuf buffer;
+        private final List<Event> events = new ArrayList<>();
+        private final long deadline;
+        private Batch(ByteBuf buffer, long deadline) {
+            this.buffer = buffer;
+            this.deadline = deadline;
+        }
+    }
+    private static final Batch END = new Batch(null, 0);
   
     private final CompletionHandler<Integer, Event> handler = new CompletionHandler<Integer, Event>() {
 
@@ -71,10 +127,25 @@ public class File extends Sender {
     private final String fileName;
     private final byte[] separatorBytes;
     private final boolean truncate;
+    private final int batchSize;
+    private final int flushInterval;
+    private final boolean sync;
+    private final long rotateSize;
+    private final long rotateInterval;
+    private final String compression;
+    private final String compressedSuffix;
 
     private AsynchronousFileChannel destination;
     private AtomicLong position;
 
+    // Used by the write-behind mode
+    private final BlockingQueue<Batch> batches;
+    private FileChannel output;
+    private long written;
+    private long openedAt;
+    private Thread writer;
+    private ExecutorService compressor;
+
     public File(Builder builder) {
         super(builder);
         if (builder.separator.length() > 0) {
@@ -84,11 +155,33 @@ public class File extends Sender {
         }
         fileName = builder.fileName;
         truncate = builder.truncate;
+        batchSize = builder.batchSize;
+        flushInterval = builder.flushInterval;
+        sync = builder.sync;
+        rotateSize = builder.rotateSize;
+        rotateInterval = TimeUnit.SECONDS.toMillis(builder.rotateInterval);
+        compression = builder.compression;
+        if (compression == null) {
+            compressedSuffix = "";
+        } else if (CompressorStreamFactory.BZIP2.equals(compression)) {
+            compressedSuffix = ".bz2";
+        } else if (CompressorStreamFactory.ZSTANDARD.equals(compression)) {
+            compressedSuffix = ".zst";
+        } else {
+            compressedSuffix = "." + compression;
+        }
+        batches = batchSize > 0 ? new ArrayBlockingQueue<>(PENDINGBATCHES) : null;
     }
 
 
     @Override
     public boolean configure(Properties properties) {
+        if (batchSize > 0) {
+            return configureBatch() && super.configure(properties);
+        } else if (rotateSize > 0 || rotateInterval > 0) {
+            logger.error("File rotation needs a batch size");
+            return false;
+        }
         try {
             destination = AsynchronousFileChannel.open(Paths.get(fileName), StandardOpenOption.WRITE, StandardOpenOption.CREATE);
             // Failed to used StandardOpenOption.(APPEND vs CREATE), so truncate if need after creation
@@ -104,16 +197,221 @@ public class File extends Sender {
         return super.configure(properties);
     }
 
+    private boolean configureBatch() {
+        if (compression != null) {
+            // Fails if the compression is unknown, or if it needs a missing library
+            try {
+                CompressorStreamFactory.getSingleton().createCompressorOutputStream(compression, new ByteArrayOutputStream()).close();
+            } catch (CompressorException | IOException e) {
+                logger.error("Unusable compression {}: {}", compression, Helpers.resolveThrowableException(e));
+                logger.catching(Level.DEBUG, e);
+                return false;
+            }
+        }
+        try {
+            openOutput(truncate);
+        } catch (IOException e) {
+            logger.error("error openening output file {}: {}", fileName, Helpers.resolveThrowableException(e));
+            logger.catching(Level.DEBUG, e);
+            return false;
+        }
+        if (compression != null) {
+            compressor = Executors.newSingleThreadExecutor(r -> ThreadBuilder.get()
+                                                           .setName(getName() + "-compressor")
+                                                           .setDaemon(true)
+                                                           .setRunnable(r)
+                                                           .build());
+        }
+        return true;
+    }
+
+    private void openOutput(boolean truncate) throws IOException {
+        if (truncate) {
+            output = FileChannel.open(Paths.get(fileName), StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+        } else {
+            output = FileChannel.open(Paths.get(fileName), StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        }
+        written = output.size();
+        openedAt = System.currentTimeMillis();
+    }
+
+    /**
+     * In write-behind mode, the events are encoded in a buffer by this thread, and the full
+     * buffers are written by another thread, with a single write.
+     */
+    @Override
+    public void run() {
+        if (batchSize <= 0) {
+            super.run();
+            return;
+        }
+        writer = ThreadBuilder.get()
+                        .setName(getName() + "-writer")
+                        .setDaemon(true)
+                        .setRunnable(this::writeBatches)
+                        .build(true);
+        Batch batch = null;
+        try {
+            while (! isInterrupted()) {
+                long wait = batch == null ? flushInterval : batch.deadline - System.currentTimeMillis();
+                Event event = wait > 0 ? getNext(wait, TimeUnit.MILLISECONDS) : null;
+                if (event != null) {
+                    if (batch == null) {
+                        batch = new Batch(PooledByteBufAllocator.DEFAULT.directBuffer(batchSize), System.currentTimeMillis() + flushInterval);
+                    }
+                    addToBatch(batch, event);
+                }
+                if (batch != null && (batch.buffer.readableBytes() >= batchSize || System.currentTimeMillis() >= batch.deadline)) {
+                    batches.put(batch);
+                    batch = null;
+                }
+            }
+        } catch (InterruptedException e) {
+            // Just stop
+        } finally {
+            // The last events are still written
+            Thread.interrupted();
+            try {
+                if (batch != null) {
+                    batches.put(batch);
+                }
+                batches.put(END);
+            } catch (InterruptedException e) {
+                writer.interrupt();
+            }
+            interrupt();
+        }
+    }
+
+    private void addToBatch(Batch batch, Event event) {
+        int mark = batch.buffer.writerIndex();
+        try {
+            getEncoder().encode(event, batch.buffer);
+            batch.buffer.writeBytes(separatorBytes);
+            batch.events.add(event);
+        } catch (Exception | StackOverflowError e) {
+            batch.buffer.writerIndex(mark);
+            CompletableFuture<Boolean> failed = new CompletableFuture<>();
+            failed.completeExceptionally(e);
+            processStatus(event, failed);
+        }
+    }
+
+    private void writeBatches() {
+        try {
+            Batch batch;
+            while ((batch = batches.take()) != END) {
+                writeBatch(batch);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            try {
+                output.close();
+            } catch (IOException e) {
+                logger.error("Failed to close {}: {}", fileName,
+                             Helpers.resolveThrowableException(e));
+                logger.catching(Level.DEBUG, e);
+            }
+        }
+    }
+
+    private void writeBatch(Batch batch) {
+        CompletableFuture<Boolean> status;
+        try {
+            int length = batch.buffer.readableBytes();
+            if (! output.isOpen()) {
+                // A previous rotation failed to open the new file
+                openOutput(false);
+            }
+            if (written > 0 && ((rotateSize > 0 && written + length > rotateSize) || (rotateInterval > 0 && System.currentTimeMillis() - openedAt >= rotateInterval))) {
+                rotate();
+            }
+            ByteBuffer content = batch.buffer.nioBuffer();
+            while (content.hasRemaining()) {
+                output.write(content);
+            }
+            written += length;
+            if (sync) {
+                output.force(false);
+            }
+            status = CompletableFuture.completedFuture(true);
+        } catch (ClosedChannelException e) {
+            status = CompletableFuture.completedFuture(false);
+        } catch (IOException e) {
+            status = new CompletableFuture<>();
+            status.completeExceptionally(e);
+        } finally {
+            batch.buffer.release();
+        }
+        for (Event event: batch.events) {
+            if (status.getNow(false)) {
+                event.getConnectionContext().acknowledge();
+            }
+            processStatus(event, status);
+        }
+    }
+
+    /**
+     * Rotate the output file. If the file can't be moved, the current file is reopened and
+     * still used. If the new file can't be opened, the output stays closed, the batch fails and
+     * the next batch will try to open it again.
+     * @throws IOException if the new file can't be opened
+     */
+    private void rotate() throws IOException {
+        output.close();
+        Path current = Paths.get(fileName);
+        String rotatedPrefix = fileName + "." + ROTATEDFORMAT.format(LocalDateTime.now());
+        Path rotated = Paths.get(rotatedPrefix);
+        // The previous rotated file might be already compressed
+        for (int i = 1; Files.exists(rotated) || (compressor != null && Files.exists(Paths.get(rotated + compressedSuffix))); i++) {
+            rotated = Paths.get(rotatedPrefix + "-" + i);
+        }
+        try {
+            Files.move(current, rotated);
+            logger.debug("Rotated {} to {}", fileName, rotated);
+        } catch (IOException e) {
+            logger.error("Failed to rotate {}: {}", fileName, Helpers.resolveThrowableException(e));
+            logger.catching(Level.DEBUG, e);
+            rotated = null;
+        }
+        openOutput(false);
+        if (compressor != null && rotated != null) {
+            Path toCompress = rotated;
+            compressor.execute(() -> compress(toCompress));
+        }
+    }
+
+    private void compress(Path rotated) {
+        Path compressed = rotated.resolveSibling(rotated.getFileName() + compressedSuffix);
+        Path tmpCompressed = rotated.resolveSibling(compressed.getFileName() + ".tmp");
+        try (InputStream is = Files.newInputStream(rotated);
+             OutputStream os = CompressorStreamFactory.getSingleton().createCompressorOutputStream(compression, Files.newOutputStream(tmpCompressed))) {
+            byte[] buffer = new byte[64 * 1024];
+            for (int length; (length = is.read(buffer)) != -1; ) {
+                os.write(buffer, 0, length);
+            }
+        } catch (IOException | CompressorException e) {
+            logger.error("Failed to compress {}: {}", rotated, Helpers.resolveThrowableException(e));
+            logger.catching(Level.DEBUG, e);
+            return;
+        }
+        try {
+            Files.move(tmpCompressed, compressed, StandardCopyOption.ATOMIC_MOVE);
+            Files.delete(rotated);
+        } catch (IOException e) {
+            logger.error("Failed to compress {}: {}", rotated, Helpers.resolveThrowableException(e));
+            logger.catching(Level.DEBUG, e);
+        }
+    }
+
     @Override
     public boolean send(Event event) {
         try {
-            byte[] msg = getEncoder().encode(event);
-            ByteBuf buffer = Unpooled.buffer(msg.length
-                                             + separatorBytes.length);
-            buffer.writeBytes(msg);
+            ByteBuf buffer = Unpooled.buffer();
+            getEncoder().encode(event, buffer);
             buffer.writeBytes(separatorBytes);
-            long writepose = position.getAndAdd(msg.length
-                                                + separatorBytes.length);
+            long writepose = position.getAndAdd(buffer.readableBytes());
             destination.write(buffer.nioBuffer(), writepose, event,
                               handler);
             return true;
@@ -131,7 +429,11 @@ public class File extends Sender {
     @Override
     public void close() {
         try {
-            destination.close();
+            if (batchSize > 0) {
+                output.close();
+            } else {
+                destination.close();
+            }
         } catch (IOException e) {
             logger.error("Failed to close {}: {}", fileName,
                          Helpers.resolveThrowableException(e));
@@ -141,7 +443,11 @@ public class File extends Sender {
 
     @Override
     public void stopSending() {
-        if (destination.isOpen()) {
+        if (batchSize > 0) {
+            // It stops the sending thread itself
+            stopBatch();
+            return;
+        } else if (destination.isOpen()) {
             try {
                 // The lock will not be released, as you don't release a closed file
                 destination.lock();
@@ -156,6 +462,33 @@ public class File extends Sender {
         super.stopSending();
     }
 
+    /**
+     * Wait for the pending events to be written
+     */
+    private void stopBatch() {
+        super.stopSending();
+        try {
+            if (Thread.currentThread() != this) {
+                join();
+            }
+            if (writer != null) {
+                writer.join();
+            } else {
+                // Never started
+                output.close();
+            }
+        } catch (IOException e) {
+            logger.error("Failed to close {}: {}", fileName,
+                         Helpers.resolveThrowableException(e));
+            logger.catching(Level.DEBUG, e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (compressor != null) {
+            compressor.shutdown();
+        }
+    }
+
     @Override
     public String getSenderName() {
         return "File_" + fileName;
@@ -0,0 +1,201 @@
+package loghub.senders;
+
+import java.io.Closeable;
+import java.net.SocketTimeoutException;
+import java.nio.channels.ClosedChannelException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+
+import org.apache.http.HttpHost;
+import org.apache.http.ProtocolVersion;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.entity.InputStreamEntity;
+import org.apache.http.message.BasicHttpResponse;
+import org.apache.http.message.BasicStatusLine;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.buffer.ByteBufInputStream;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.ChannelPipeline;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.channel.pool.AbstractChannelPoolHandler;
+import io.netty.channel.pool.AbstractChannelPoolMap;
+import io.netty.channel.pool.ChannelHealthChecker;
+import io.netty.channel.pool.FixedChannelPool;
+import io.netty.channel.pool.FixedChannelPool.AcquireTimeoutAction;
+import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpClientCodec;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpObjectAggregator;
+import io.netty.handler.codec.http.HttpUtil;
+import io.netty.handler.ssl.SslHandler;
+import io.netty.util.AttributeKey;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import io.netty.util.concurrent.Future;
+import io.netty.util.concurrent.ScheduledFuture;
+import loghub.netty.POLLER;
+import loghub.netty.TcpClientFactory;
+
+/**
+ * An asynchronous HTTP/1.1 client using Netty.
+ * <p>
+ * It keeps a pool of keep-alive connections for each endpoint, each connection can handle one request at a time,
+ * but many requests can be in flight concurrently. The responses are provided as Apache's {@link CloseableHttpResponse},
+ * so they can be used like the ones from the blocking client.
+ */
+class NettyHttpClient implements Closeable {
+
+    private static final AttributeKey<CompletableFuture<CloseableHttpResponse>> RESPONSE = AttributeKey.valueOf("loghub.httpresponse");
+    private static final int MAXCONTENTLENGTH = 128 * 1024 * 1024;
+
+    /**
+     * A response that must be closed to release the Netty buffer.
+     */
+    private static class NettyResponse extends BasicHttpResponse implements CloseableHttpResponse {
+        private final FullHttpResponse response;
+        NettyResponse(FullHttpResponse response) {
+            super(new BasicStatusLine(new ProtocolVersion("HTTP", response.protocolVersion().majorVersion(), response.protocolVersion().minorVersion()),
+                                      response.status().code(), response.status().reasonPhrase()));
+            this.response = response;
+            response.headers().forEach(i -> addHeader(i.getKey(), i.getValue()));
+            InputStreamEntity entity = new InputStreamEntity(new ByteBufInputStream(response.content()), response.content().readableBytes());
+            String contentType = response.headers().get(HttpHeaderNames.CONTENT_TYPE);
+            if (contentType != null) {
+                entity.setContentType(contentType);
+            }
+            setEntity(entity);
+        }
+        @Override
+        public void close() {
+            if (response.refCnt() > 0) {
+                response.release();
+            }
+        }
+    }
+
+    private static class ResponseHandler extends SimpleChannelInboundHandler<FullHttpResponse> {
+        @Override
+        protected void channelRead0(ChannelHandlerContext ctx, FullHttpResponse msg) {
+            CompletableFuture<CloseableHttpResponse> result = ctx.channel().attr(RESPONSE).getAndSet(null);
+            if (result != null) {
+                NettyResponse response = new NettyResponse(msg.retain());
+                if (! result.complete(response)) {
+                    response.close();
+                }
+            }
+        }
+        @Override
+        public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+            CompletableFuture<CloseableHttpResponse> result = ctx.channel().attr(RESPONSE).getAndSet(null);
+            if (result != null) {
+                result.completeExceptionally(new ClosedChannelException());
+            }
+            super.channelInactive(ctx);
+        }
+        @Override
+        public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+            CompletableFuture<CloseableHttpResponse> result = ctx.channel().attr(RESPONSE).getAndSet(null);
+            if (result != null) {
+                result.completeExceptionally(cause);
+            }
+            ctx.close();
+        }
+    }
+
+    private final Runnable finisher;
+    private final AbstractChannelPoolMap<HttpHost, FixedChannelPool> pools;
+    private final int timeout;
+
+    /**
+     * @param name the name prefix of the event loop threads
+     * @param threads the number of event loop threads
+     * @param connections the maximum number of connections for each endpoint
+     * @param timeout the timeout for connection and requests, in seconds
+     * @param ssl the SSL context used for https endpoints
+     * @param poller the poller used by the event loop
+     */
+    NettyHttpClient(String name, int threads, int connections, int timeout, SSLContext ssl, POLLER poller) {
+        this.timeout = timeout;
+        TcpClientFactory factory = new TcpClientFactory(poller);
+        Bootstrap bootstrap = factory.getBootStrap();
+        factory.group(threads, new DefaultThreadFactory(name, true));
+        finisher = factory.finisher();
+        bootstrap.option(ChannelOption.CONNECT_TIMEOUT_MILLIS, timeout * 1000)
+                 .option(ChannelOption.TCP_NODELAY, true)
+                 .option(ChannelOption.SO_KEEPALIVE, true);
+        pools = new AbstractChannelPoolMap<HttpHost, FixedChannelPool>() {
+            @Override
+            protected FixedChannelPool newPool(HttpHost host) {
+                AbstractChannelPoolHandler handler = new AbstractChannelPoolHandler() {
+                    @Override
+                    public void channelCreated(Channel ch) {
+                        ChannelPipeline p = ch.pipeline();
+                        if ("https".equals(host.getSchemeName())) {
+                            SSLEngine engine = ssl.createSSLEngine(host.getHostName(), host.getPort());
+                            engine.setUseClientMode(true);
+                            p.addLast("ssl", new SslHandler(engine));
+                        }
+                        p.addLast("codec", new HttpClientCodec());
+                        p.addLast("aggregator", new HttpObjectAggregator(MAXCONTENTLENGTH));
+                        p.addLast("response", new ResponseHandler());
+                    }
+                };
+                return new FixedChannelPool(bootstrap.clone().remoteAddress(host.getHostName(), host.getPort()),
+                                            handler, ChannelHealthChecker.ACTIVE, AcquireTimeoutAction.FAIL,
+                                            timeout * 1000L, connections, Integer.MAX_VALUE);
+            }
+        };
+    }
+
+    /**
+     * Send a request, the returned future is completed when the response is received.
+     * @param host the destination
+     * @param request the request, it will be released
+     * @return the future response, that must be closed.
+     */
+    CompletableFuture<CloseableHttpResponse> execute(HttpHost host, FullHttpRequest request) {
+        CompletableFuture<CloseableHttpResponse> result = new CompletableFuture<>();
+        FixedChannelPool pool = pools.get(host);
+        pool.acquire().addListener((Future<Channel> f) -> {
+            if (! f.isSuccess()) {
+                request.release();
+                result.completeExceptionally(f.cause());
+                return;
+            }
+            Channel ch = f.getNow();
+            ScheduledFuture<?> timeoutTask = ch.eventLoop().schedule(() -> {
+                if (result.completeExceptionally(new SocketTimeoutException("Read timed out"))) {
+                    ch.close();
+                }
+            }, timeout, TimeUnit.SECONDS);
+            result.whenComplete((r, e) -> {
+                timeoutTask.cancel(false);
+                ch.attr(RESPONSE).set(null);
+                if (e != null || ! HttpUtil.isKeepAlive(((NettyResponse) r).response)) {
+                    ch.close();
+                }
+                pool.release(ch);
+            });
+            ch.attr(RESPONSE).set(result);
+            ch.writeAndFlush(request).addListener(wf -> {
+                if (! wf.isSuccess()) {
+                    result.completeExceptionally(wf.cause());
+                }
+            });
+        });
+        return result;
+    }
+
+    @Override
+    public void close() {
+        pools.close();
+        finisher.run();
+    }
+
+}
@@ -5,6 +5,7 @@ import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.logging.log4j.Level;
 import org.apache.logging.log4j.LogManager;
@@ -15,6 +16,7 @@ import loghub.Event;
 import loghub.Helpers;
 import loghub.Stats;
 import loghub.configuration.Properties;
+import loghub.configuration.Properties.MetricRegistryWrapper.SenderMetrics;
 import loghub.encoders.Encoder;
 import lombok.Getter;
 import lombok.Setter;
@@ -32,6 +34,7 @@ public abstract class Sender extends Thread implements Closeable {
     @Getter
     private final Encoder encoder;
     private final boolean isAsync;
+    private SenderMetrics metrics = null;
 
     public Sender(Builder<?  extends  Sender> builder) {
         setDaemon(true);
@@ -42,6 +45,7 @@ public abstract class Sender extends Thread implements Closeable {
     }
 
     public boolean configure(Properties properties) {
+        metrics = Properties.metrics.senderMetrics(getName());
         if (encoder != null) {
             return encoder.configure(properties, this);
         } else if (getClass().getAnnotation(SelfEncoder.class) == null) {
@@ -52,6 +56,19 @@ public abstract class Sender extends Thread implements Closeable {
         }
     }
 
+    /**
+     * Return the metrics of this sender. They are resolved during configuration, but a sender not configured yet
+     * will resolve them on each call.
+     * @return the metrics handles
+     */
+    protected SenderMetrics getMetrics() {
+        SenderMetrics m = metrics;
+        if (m == null) {
+            m = Properties.metrics.senderMetrics(getName());
+        }
+        return m;
+    }
+
     public void stopSending() {
         interrupt();
     }
@@ -90,6 +107,18 @@ public abstract class Sender extends Thread implements Closeable {
         return inQueue.take();
     }
 
+    /**
+     * A method that can be used inside custom {@link Sender#run()} for a bounded wait
+     * 
+     * @param timeout how long to wait
+     * @param unit the unit of the timeout
+     * @return a waiting event, or null if none came before the timeout
+     * @throws InterruptedException
+     */
+    protected Event getNext(long timeout, TimeUnit unit) throws InterruptedException {
+        return inQueue.poll(timeout, unit);
+    }
+
     public void processStatus(Event event, Future<Boolean> result) {
         try {
             if (result.get()) {
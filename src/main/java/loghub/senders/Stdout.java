@@ -42,8 +42,7 @@ public class Stdout extends Sender {
     @Override
     public boolean send(Event event) {
         try {
-            byte[] msg = getEncoder().encode(event);
-            destination.write(msg);
+            getEncoder().encode(event, destination);
             destination.println();
             destination.flush();
             return true;
@@ -1,74 +1,211 @@
 package loghub.senders;
 
-import java.io.IOException;
-import java.net.DatagramPacket;
-import java.net.DatagramSocket;
-import java.net.InetAddress;
-import java.net.SocketException;
-import java.net.UnknownHostException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
 
 import org.apache.logging.log4j.Level;
 
+import com.codahale.metrics.Meter;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.WriteBufferWaterMark;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.socket.DatagramPacket;
+import io.netty.handler.flush.FlushConsolidationHandler;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import loghub.BuilderClass;
 import loghub.Event;
+import loghub.Helpers;
 import loghub.configuration.Properties;
+import loghub.netty.POLLER;
+import loghub.netty.UdpFactory;
 import lombok.Setter;
 
+/**
+ * Send events as datagrams, using Netty.
+ * <p>
+ * The datagrams are written from pooled direct buffers, and the flushes are consolidated, so
+ * many datagrams are sent with a single system call when the EPOLL poller is used. If the
+ * socket can't keep up, the events are dropped instead of being queued.
+ */
+@AsyncSender
+@BuilderClass(Udp.Builder.class)
 public class Udp extends Sender {
-    
+
     public static class Builder extends Sender.Builder<Udp> {
         @Setter
         private int port = -1;
         @Setter
         private String destination = "127.0.0.1";
+        // Many destinations, as host or host:port
+        @Setter
+        private String[] destinations = null;
+        // roundrobin or hash
+        @Setter
+        private String routing = "roundrobin";
+        // The field used by the hash routing
+        @Setter
+        private String routingKey = "host";
+        @Setter
+        private String poller = "NIO";
+        @Setter
+        private int workerThreads = 1;
+        // The size of the data that can wait to be sent, above that events are dropped
+        @Setter
+        private int bufferSize = 1024 * 1024;
         @Override
         public Udp build() {
             return new Udp(this);
         }
     }
+    public static Builder getBuilder() {
+        return new Builder();
+    }
 
     private final int port;
-    private final DatagramSocket socket;
-    private final InetAddress IPAddress;
+    private final String[] destinationNames;
+    private final boolean hashRouting;
+    private final String routingKey;
+    private final POLLER poller;
+    private final int workerThreads;
+    private final int bufferSize;
+
+    private InetSocketAddress[] destinations;
+    private int next = 0;
+    private Channel channel;
+    private Runnable finisher;
+    private Meter datagrams;
+    private Meter dropped;
 
     public Udp(Builder builder) {
         super(builder);
         port = builder.port;
-        DatagramSocket tempSocket = null;
-        InetAddress tempIPAddress = null;
-        try {
-            tempIPAddress = InetAddress.getByName(builder.destination);
-            tempSocket = new DatagramSocket();
-        } catch (UnknownHostException e) {
-            logger.error("Can't resolve destination address '{}': {}", builder.destination, e.getMessage());
-        } catch (SocketException e) {
-            logger.error("Can't start socket: {}", e.getMessage());
-        } finally {
-            socket = tempSocket;
-            IPAddress = tempIPAddress;
-        }
+        destinationNames = builder.destinations != null ? Arrays.copyOf(builder.destinations, builder.destinations.length) : new String[] {builder.destination};
+        hashRouting = "hash".equals(builder.routing);
+        routingKey = builder.routingKey;
+        poller = POLLER.valueOf(builder.poller.toUpperCase());
+        workerThreads = builder.workerThreads;
+        bufferSize = builder.bufferSize;
     }
 
     @Override
     public boolean configure(Properties properties) {
-        if (socket !=null && IPAddress != null) {
-            return super.configure(properties);
-        } else {
+        destinations = new InetSocketAddress[destinationNames.length];
+        for (int i = 0; i < destinationNames.length; i++) {
+            try {
+                URI uri = new URI("udp://" + destinationNames[i]);
+                int destPort = uri.getPort() > 0 ? uri.getPort() : port;
+                if (uri.getHost() == null || destPort <= 0) {
+                    logger.error("Invalid destination '{}'", destinationNames[i]);
+                    return false;
+                }
+                destinations[i] = new InetSocketAddress(uri.getHost(), destPort);
+                if (destinations[i].isUnresolved()) {
+                    logger.error("Can't resolve destination address '{}'", uri.getHost());
+                    return false;
+                }
+            } catch (URISyntaxException e) {
+                logger.error("Invalid destination '{}': {}", destinationNames[i], e.getMessage());
+                return false;
+            }
+        }
+        if (poller == POLLER.EPOLL && ! Epoll.isAvailable()) {
+            logger.error("Epoll poller not available: {}", Helpers.resolveThrowableException(Epoll.unavailabilityCause()));
             return false;
         }
+        UdpFactory factory = new UdpFactory(poller);
+        Bootstrap bootstrap = factory.getBootStrap();
+        factory.group(workerThreads, new DefaultThreadFactory(getName(), true));
+        finisher = factory.finisher();
+        bootstrap.option(ChannelOption.WRITE_BUFFER_WATER_MARK, new WriteBufferWaterMark(bufferSize / 2, bufferSize));
+        bootstrap.handler(new ChannelInitializer<Channel>() {
+            @Override
+            protected void initChannel(Channel ch) {
+                // Writes are done from the sender thread, so flushes are delayed in the event loop
+                // and done in a batch
+                ch.pipeline().addLast(new FlushConsolidationHandler(FlushConsolidationHandler.DEFAULT_EXPLICIT_FLUSH_AFTER_FLUSHES, true));
+            }
+        });
+        try {
+            channel = bootstrap.bind(0).sync().channel();
+        } catch (InterruptedException e) {
+            interrupt();
+            return false;
+        } catch (RuntimeException e) {
+            logger.error("Can't start socket: {}", Helpers.resolveThrowableException(e));
+            logger.catching(Level.DEBUG, e);
+            return false;
+        }
+        datagrams = Properties.metrics.meter("sender." + getName() + ".datagrams");
+        dropped = Properties.metrics.meter("sender." + getName() + ".dropped");
+        return super.configure(properties);
     }
 
     @Override
     public boolean send(Event event) {
-        byte[] msg = getEncoder().encode(event);
+        if (! channel.isWritable()) {
+            dropped.mark();
+            processStatus(event, CompletableFuture.completedFuture(false));
+            return false;
+        }
+        ByteBuf buffer = channel.alloc().directBuffer();
+        try {
+            getEncoder().encode(event, buffer);
+        } catch (RuntimeException e) {
+            buffer.release();
+            throw e;
+        }
+        channel.writeAndFlush(new DatagramPacket(buffer, route(event))).addListener(f -> {
+            if (f.isSuccess()) {
+                datagrams.mark();
+                processStatus(event, CompletableFuture.completedFuture(true));
+            } else {
+                dropped.mark();
+                CompletableFuture<Boolean> failed = new CompletableFuture<>();
+                failed.completeExceptionally(f.cause());
+                processStatus(event, failed);
+            }
+        });
+        return true;
+    }
 
-        DatagramPacket packet = new DatagramPacket(msg, msg.length, IPAddress, port);
+    private InetSocketAddress route(Event event) {
+        if (destinations.length == 1) {
+            return destinations[0];
+        } else if (hashRouting) {
+            return destinations[Math.floorMod(Objects.hashCode(event.get(routingKey)), destinations.length)];
+        } else {
+            // Only used by the sender thread
+            InetSocketAddress destination = destinations[next];
+            next = (next + 1) % destinations.length;
+            return destination;
+        }
+    }
+
+    @Override
+    public void stopSending() {
+        // The sender thread must not write in a closed channel
+        super.stopSending();
         try {
-            socket.send(packet);
-            return true;
-        } catch (IOException e) {
-            logger.error("unable to send message: {}", e);
-            logger.throwing(Level.DEBUG, e);
-            return false;
+            if (Thread.currentThread() != this) {
+                join();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (channel != null) {
+            channel.close().awaitUninterruptibly();
+        }
+        if (finisher != null) {
+            finisher.run();
         }
     }
 
@@ -6,6 +6,8 @@ import org.zeromq.SocketType;
 import org.zeromq.ZMQ.Socket;
 import org.zeromq.ZPoller;
 
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
 import loghub.BuilderClass;
 import loghub.Event;
 import loghub.configuration.Properties;
@@ -45,6 +47,8 @@ public class ZMQ extends Sender {
     private Runnable handlerstopper = () -> {}; // Default to empty, don' fail on crossed start/stop
     //Interrupt is only allowed outside of ZMQ poll, this flag protect that
     private volatile boolean canInterrupt;
+    // Only used by the ZMQ thread, reused for each event
+    private final ByteBuf buffer = Unpooled.buffer();
 
     public ZMQ(Builder builder) {
         super(builder);
@@ -102,9 +106,10 @@ public class ZMQ extends Sender {
             while (handler.isRunning() && (socket.getEvents() & ZPoller.OUT) != 0) {
                 canInterrupt = true;
                 Event event = getNext();
-                byte[] msg = getEncoder().encode(event);
+                buffer.clear();
+                getEncoder().encode(event, buffer);
                 canInterrupt = false;
-                boolean sent = socket.send(msg);
+                boolean sent = socket.send(buffer.array(), buffer.arrayOffset() + buffer.readerIndex(), buffer.readableBytes(), 0);
                 CompletableFuture<Boolean> statusFuture = CompletableFuture.completedFuture(sent);
                 processStatus(event, statusFuture);
             }
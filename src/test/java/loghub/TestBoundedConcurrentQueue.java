@@ -0,0 +1,140 @@
+package loghub;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestBoundedConcurrentQueue {
+
+    @Test
+    public void testBound() throws InterruptedException {
+        BoundedConcurrentQueue<Integer> queue = new BoundedConcurrentQueue<>(2);
+        Assert.assertTrue(queue.offer(1));
+        Assert.assertTrue(queue.offer(2));
+        Assert.assertFalse(queue.offer(3));
+        Assert.assertFalse(queue.offer(3, 10, TimeUnit.MILLISECONDS));
+        Assert.assertEquals(2, queue.size());
+        Assert.assertEquals(0, queue.remainingCapacity());
+        Assert.assertEquals(Integer.valueOf(1), queue.peek());
+        Assert.assertEquals(Integer.valueOf(1), queue.take());
+        Assert.assertEquals(Integer.valueOf(2), queue.poll());
+        Assert.assertNull(queue.poll());
+        Assert.assertNull(queue.poll(10, TimeUnit.MILLISECONDS));
+        Assert.assertEquals(2, queue.remainingCapacity());
+    }
+
+    @Test(timeout=5000)
+    public void testBlockingPut() throws InterruptedException {
+        BoundedConcurrentQueue<Integer> queue = new BoundedConcurrentQueue<>(1);
+        queue.put(1);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(1);
+        Thread t = new Thread(() -> {
+            started.countDown();
+            try {
+                queue.put(2);
+                done.countDown();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        t.start();
+        started.await();
+        Assert.assertFalse(done.await(50, TimeUnit.MILLISECONDS));
+        Assert.assertEquals(Integer.valueOf(1), queue.take());
+        Assert.assertTrue(done.await(1, TimeUnit.SECONDS));
+        Assert.assertEquals(Integer.valueOf(2), queue.take());
+    }
+
+    @Test
+    public void testDrain() {
+        BoundedConcurrentQueue<Integer> queue = new BoundedConcurrentQueue<>(10);
+        for (int i = 0; i < 10; i++) {
+            queue.offer(i);
+        }
+        List<Integer> drained = new ArrayList<>();
+        Assert.assertEquals(4, queue.drainTo(drained, 4));
+        Assert.assertEquals(6, queue.drainTo(drained));
+        Assert.assertEquals(10, drained.size());
+        for (int i = 0; i < 10; i++) {
+            Assert.assertEquals(Integer.valueOf(i), drained.get(i));
+        }
+        Assert.assertEquals(0, queue.size());
+        Assert.assertEquals(10, queue.remainingCapacity());
+    }
+
+    @Test
+    public void testRemove() {
+        BoundedConcurrentQueue<Integer> queue = new BoundedConcurrentQueue<>(3);
+        queue.offer(1);
+        queue.offer(2);
+        queue.offer(3);
+        Assert.assertFalse(queue.offer(4));
+        Assert.assertTrue(queue.remove(Integer.valueOf(2)));
+        Assert.assertFalse(queue.remove(Integer.valueOf(2)));
+        Assert.assertEquals(2, queue.size());
+        Assert.assertEquals(1, queue.remainingCapacity());
+        Iterator<Integer> i = queue.iterator();
+        Assert.assertEquals(Integer.valueOf(1), i.next());
+        i.remove();
+        Assert.assertEquals(1, queue.size());
+        Assert.assertTrue(queue.offer(4));
+        Assert.assertTrue(queue.offer(5));
+        List<Integer> drained = new ArrayList<>();
+        Assert.assertEquals(3, queue.drainTo(drained));
+        Assert.assertEquals(Arrays.asList(3, 4, 5), drained);
+    }
+
+    @Test(timeout=20000)
+    public void testConcurrent() throws InterruptedException, ExecutionException {
+        BoundedConcurrentQueue<Long> queue = new BoundedConcurrentQueue<>(16);
+        int producers = 4;
+        int consumers = 4;
+        long count = 10000;
+        ExecutorService executor = Executors.newFixedThreadPool(producers + consumers);
+        try {
+            AtomicLong sum = new AtomicLong();
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < producers; i++) {
+                futures.add(executor.submit(() -> {
+                    for (long j = 1; j <= count; j++) {
+                        queue.put(j);
+                    }
+                    return null;
+                }));
+            }
+            for (int i = 0; i < consumers; i++) {
+                futures.add(executor.submit(() -> {
+                    List<Long> buffer = new ArrayList<>();
+                    for (long j = 0; j < count;) {
+                        buffer.add(queue.take());
+                        queue.drainTo(buffer, (int) Math.min(7, count - j - 1));
+                        j += buffer.size();
+                        buffer.forEach(sum::addAndGet);
+                        buffer.clear();
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> f: futures) {
+                f.get();
+            }
+            Assert.assertEquals(producers * count * (count + 1) / 2, sum.get());
+            Assert.assertEquals(0, queue.size());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+}
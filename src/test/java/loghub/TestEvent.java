@@ -1,10 +1,16 @@
 package loghub;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 
 import org.apache.logging.log4j.Level;
 import org.apache.logging.log4j.LogManager;
@@ -16,6 +22,7 @@ import org.junit.Test;
 import loghub.Event.Action;
 import loghub.EventsProcessor.ProcessingStatus;
 import loghub.configuration.Properties;
+import loghub.processors.AnonymousSubPipeline;
 import loghub.processors.Identity;
 
 public class TestEvent {
@@ -74,6 +81,65 @@ public class TestEvent {
         e2.end();
     }
 
+    @Test
+    public void TestDeepCopy() {
+        Event e = Tools.getEvent();
+        e.setTimestamp(new Date(0));
+        Map<String, Object> sub = new HashMap<>();
+        sub.put("b", new ArrayList<>(Collections.singletonList("c")));
+        e.put("a", sub);
+        e.put("d", new int[] {1, 2});
+        // Not serializable, it will be shared
+        Object notSerializable = new Object();
+        e.put("e", notSerializable);
+        e.putMeta("f", 1);
+        Event e2 = e.duplicate();
+        Assert.assertNotNull(e2);
+        Assert.assertEquals(e.get("a"), e2.get("a"));
+        Assert.assertNotSame(e.get("a"), e2.get("a"));
+        Assert.assertArrayEquals((int[]) e.get("d"), (int[]) e2.get("d"));
+        Assert.assertNotSame(e.get("d"), e2.get("d"));
+        Assert.assertSame(notSerializable, e2.get("e"));
+        Assert.assertEquals(1, e2.getMeta("f"));
+        Assert.assertEquals(new Date(0), e2.getTimestamp());
+        Assert.assertNotSame(e.getTimestamp(), e2.getTimestamp());
+        e.end();
+        e2.end();
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void TestDeepCopyUnmodifiable() {
+        Event e = Tools.getEvent();
+        e.put("list", Collections.unmodifiableList(new ArrayList<>(Arrays.asList(1, 2))));
+        e.put("map", Collections.singletonMap("a", new ArrayList<>(Collections.singletonList("b"))));
+        e.put("set", Collections.emptySet());
+        Event e2 = e.duplicate();
+        Assert.assertEquals(e.get("list"), e2.get("list"));
+        Assert.assertEquals(e.get("map"), e2.get("map"));
+        Assert.assertNotSame(e.get("map"), e2.get("map"));
+        try {
+            ((List<Object>) e2.get("list")).add(3);
+            Assert.fail("Unmodifiable list modified");
+        } catch (UnsupportedOperationException ex) {
+        }
+        try {
+            ((Map<Object, Object>) e2.get("map")).put("c", "d");
+            Assert.fail("Unmodifiable map modified");
+        } catch (UnsupportedOperationException ex) {
+        }
+        try {
+            ((Set<Object>) e2.get("set")).add(1);
+            Assert.fail("Unmodifiable set modified");
+        } catch (UnsupportedOperationException ex) {
+        }
+        // The content is still a copy
+        Map<?, ?> map = (Map<?, ?>) e2.get("map");
+        Assert.assertNotSame(((Map<?, ?>) e.get("map")).get("a"), map.get("a"));
+        e.end();
+        e2.end();
+    }
+
     @Test
     public void TestLoop() {
         Map<String, Object> conf = new HashMap<>();
@@ -100,6 +166,73 @@ public class TestEvent {
         e.end();
     }
 
+    @Test
+    public void TestProgram() {
+        Processor a = new Identity();
+        Processor b = new Identity();
+        Processor c = new Identity();
+        Processor d = new Identity();
+        Processor inserted = new Identity();
+        AnonymousSubPipeline sub = new AnonymousSubPipeline();
+        sub.setPipeline(new Pipeline(Arrays.asList(b, c), null, null));
+        Pipeline main = new Pipeline(Arrays.asList(a, sub, d), "main", null);
+        BlockingQueue<Event> queue = new ArrayBlockingQueue<>(2);
+        Event e = Event.emptyTestEvent(ConnectionContext.EMPTY);
+        Assert.assertTrue(e.inject(main, queue, false));
+        Assert.assertEquals("main", e.getCurrentPipeline());
+        Assert.assertEquals("preSubpipline", e.next().getName());
+        Assert.assertSame(a, e.next());
+        e.insertProcessor(inserted);
+        Assert.assertSame(inserted, e.next());
+        Assert.assertSame(b, e.next());
+        // The copy must continue at the same step
+        Event copy = Event.emptyTestEvent(ConnectionContext.EMPTY);
+        Assert.assertTrue(copy.inject(e, queue));
+        for (Event i: new Event[] {e, copy}) {
+            Assert.assertSame(c, i.next());
+            Assert.assertSame(d, i.next());
+            Assert.assertEquals("postSubpipline", i.next().getName());
+            Assert.assertNull(i.next());
+        }
+    }
+
+    @Test
+    public void TestInjectedCopy() throws InterruptedException {
+        Properties props = new Properties(Collections.emptyMap());
+        // Copy the event, like netflow does for each record
+        Processor injector = new Processor() {
+            @Override
+            public boolean process(Event event) {
+                Event copy = Tools.getEvent();
+                copy.put("copy", true);
+                Assert.assertTrue(copy.inject(event, props.mainQueue));
+                return true;
+            }
+        };
+        Processor last = new Identity();
+        AnonymousSubPipeline sub = new AnonymousSubPipeline();
+        sub.setPipeline(new Pipeline(Arrays.asList(injector), null, null));
+        Pipeline main = new Pipeline(Arrays.asList(sub, last), "main", null);
+        Assert.assertTrue(main.configure(props));
+        EventsProcessor ep = new EventsProcessor(props.mainQueue, props.outputQueues, Collections.singletonMap("main", main), props.maxSteps, props.repository);
+        Event e = Tools.getEvent();
+        Assert.assertTrue(e.inject(main, props.mainQueue, false));
+        int processed = 0;
+        Event toprocess;
+        while ((toprocess = props.mainQueue.poll()) != null) {
+            Processor processor;
+            List<String> steps = new ArrayList<>();
+            while ((processor = toprocess.next()) != null) {
+                steps.add(processor.getName());
+                Assert.assertEquals(steps.toString(), ProcessingStatus.SUCCESS, ep.process(toprocess, processor));
+            }
+            Assert.assertEquals("postSubpipline", steps.get(steps.size() - 1));
+            toprocess.end();
+            processed++;
+        }
+        Assert.assertEquals(2, processed);
+    }
+
     @Test
     public void testWrapper() {
         Event event = Tools.getEvent();
@@ -1,8 +1,14 @@
 package loghub;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.apache.logging.log4j.Level;
 import org.apache.logging.log4j.LogManager;
@@ -49,4 +55,32 @@ public class TestExpression {
         Assert.assertEquals("failed to parse expression", "11", (String)o);
     }
 
+    @Test
+    public void testConcurrent() throws ExpressionException, InterruptedException, ExecutionException {
+        String expressionScript = "event.a * 2";
+        Expression expression = new Expression(expressionScript, new Properties(Collections.emptyMap()).groovyClassLoader, Collections.emptyMap());
+        int workers = 16;
+        ExecutorService executor = Executors.newFixedThreadPool(workers);
+        try {
+            List<Future<Boolean>> results = new ArrayList<>(workers);
+            for (int i = 0 ; i < workers ; i++) {
+                results.add(executor.submit(() -> {
+                    for (int j = 0 ; j < 1000 ; j++) {
+                        Event ev = Tools.getEvent();
+                        ev.put("a", j);
+                        if (! Integer.valueOf(j * 2).equals(expression.eval(ev))) {
+                            return false;
+                        }
+                    }
+                    return true;
+                }));
+            }
+            for (Future<Boolean> f: results) {
+                Assert.assertTrue("concurrent evaluation failed", f.get());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
 }
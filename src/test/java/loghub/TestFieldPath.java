@@ -0,0 +1,53 @@
+package loghub;
+
+import java.io.IOException;
+import java.util.Collections;
+
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import loghub.Event.Action;
+
+public class TestFieldPath {
+
+    @BeforeClass
+    static public void configure() throws IOException {
+        Tools.configure();
+    }
+
+    @Test
+    public void testParse() {
+        for (String path: new String[] {"a", "a.b.c", "a..b", "a.b.", ".a", "", "...", "#meta"}) {
+            Assert.assertArrayEquals(path, path.split("\\."), FieldPath.parse(path).toArray());
+        }
+        Assert.assertEquals("a.b.c", FieldPath.parse("a.b.c").toString());
+        Assert.assertEquals("c", FieldPath.parse("a.b.c").last());
+        Assert.assertEquals(3, FieldPath.parse("a.b.c").size());
+    }
+
+    @Test
+    public void testIdentity() {
+        FieldPath p1 = FieldPath.parse("a.b");
+        FieldPath p2 = FieldPath.of(new String("a"), new String("b"));
+        Assert.assertEquals(p1, p2);
+        Assert.assertEquals(p1.hashCode(), p2.hashCode());
+        Assert.assertNotEquals(p1, FieldPath.of("a.b"));
+        // Segments are interned
+        Assert.assertSame(p1.get(0), p2.get(0));
+        // Parsed paths are cached
+        Assert.assertSame(p1, FieldPath.parse("a.b"));
+    }
+
+    @Test
+    public void testApply() throws ProcessorException {
+        Event e = Tools.getEvent();
+        FieldPath path = FieldPath.parse("a.b");
+        e.applyAtPath(Action.PUT, path, 1, true);
+        Assert.assertEquals(Collections.singletonMap("b", 1), e.get("a"));
+        Assert.assertEquals(1, e.applyAtPath(Action.GET, path, null));
+        Assert.assertEquals(1, e.applyAtPath(Action.REMOVE, path, null));
+        Assert.assertNull(e.applyAtPath(Action.GET, FieldPath.parse("a.b.c"), null));
+    }
+
+}
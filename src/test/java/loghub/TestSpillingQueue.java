@@ -0,0 +1,209 @@
+package loghub;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.net.InetAddress;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import loghub.configuration.Properties;
+
+public class TestSpillingQueue {
+
+    private static Logger logger;
+
+    @BeforeClass
+    static public void configure() throws IOException {
+        Tools.configure();
+        logger = LogManager.getLogger();
+        LogUtils.setLevel(logger, Level.TRACE, "loghub.SpillingQueue");
+    }
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Event getEvent(int i) {
+        Event e = Tools.getEvent();
+        e.put("message", i);
+        return e;
+    }
+
+    @Test
+    public void testCodec() throws IOException {
+        Event e = Tools.getEvent();
+        e.setTimestamp(new Date(1500));
+        e.putMeta("meta", "value");
+        e.put("string", "a message");
+        e.put("int", 1);
+        e.put("long", -2L);
+        e.put("double", 1.5);
+        e.put("boolean", true);
+        e.put("null", null);
+        e.put("date", new Date(2000));
+        e.put("instant", Instant.ofEpochSecond(3, 4));
+        e.put("address", InetAddress.getLoopbackAddress());
+        e.put("list", Arrays.asList(1, "2"));
+        e.put("map", Collections.singletonMap("key", "value"));
+        e.put("bytes", new byte[] {1, 2});
+        ByteBuf buffer = Unpooled.buffer();
+        SpillCodec.encode(e, buffer);
+        Event decoded = SpillCodec.decode(buffer.nioBuffer());
+        Assert.assertEquals(new Date(1500), decoded.getTimestamp());
+        Assert.assertEquals("value", decoded.getMeta("meta"));
+        Assert.assertArrayEquals(new byte[] {1, 2}, (byte[]) decoded.remove("bytes"));
+        e.remove("bytes");
+        Assert.assertEquals(new HashMap<>(e), new HashMap<>(decoded));
+        @SuppressWarnings("unchecked")
+        Map<String, Object> map = (Map<String, Object>) decoded.get("map");
+        Assert.assertEquals("value", map.get("key"));
+    }
+
+    @Test
+    public void testCodecOtherTypes() throws IOException {
+        Event e = Tools.getEvent();
+        e.put("decimal", new BigDecimal("1.5"));
+        ByteBuf buffer = Unpooled.buffer();
+        SpillCodec.encode(e, buffer);
+        // Serialized, not converted to a string
+        Assert.assertEquals(new BigDecimal("1.5"), SpillCodec.decode(buffer.nioBuffer()).get("decimal"));
+        e.put("object", new Object());
+        buffer.clear();
+        try {
+            SpillCodec.encode(e, buffer);
+            Assert.fail("Non serializable value encoded");
+        } catch (IllegalArgumentException ex) {
+            Assert.assertEquals("Value of type java.lang.Object can't be encoded", ex.getMessage());
+        }
+    }
+
+    @Test(timeout=5000)
+    public void testAcknowledge() throws IOException, InterruptedException {
+        AtomicInteger acknowledged = new AtomicInteger();
+        ConnectionContext<Object> ctx = new ConnectionContext<Object>() {
+            @Override
+            public Object getLocalAddress() {
+                return null;
+            }
+            @Override
+            public Object getRemoteAddress() {
+                return null;
+            }
+            @Override
+            public void acknowledge() {
+                acknowledged.incrementAndGet();
+            }
+        };
+        SpillingQueue queue = new SpillingQueue(new ArrayBlockingQueue<>(1), folder.getRoot().toPath(), 1024 * 1024);
+        for (int i = 0; i < 3; i++) {
+            Event e = Event.emptyEvent(ctx);
+            e.put("message", i);
+            queue.put(e);
+        }
+        Assert.assertEquals(2, queue.getSpilled());
+        // Not yet on disk
+        Assert.assertEquals(0, acknowledged.get());
+        Assert.assertEquals(0, queue.take().get("message"));
+        Thread.sleep(110);
+        // The consumer forced them to disk
+        queue.peek();
+        Assert.assertEquals(2, acknowledged.get());
+    }
+
+    @Test(timeout=5000)
+    public void testSpill() throws IOException, InterruptedException {
+        SpillingQueue queue = new SpillingQueue(new ArrayBlockingQueue<>(2), folder.getRoot().toPath(), 1024 * 1024);
+        queue.registerMetrics("EventWaiting.output.testspill");
+        long replayed = Properties.metrics.meter("EventWaiting.output.testspill.replayed").getCount();
+        for (int i = 0; i < 10; i++) {
+            Assert.assertTrue(queue.offer(getEvent(i)));
+        }
+        Assert.assertEquals(8, queue.getSpilled());
+        Assert.assertEquals(10, queue.size());
+        Assert.assertNotEquals(0, Properties.metrics.meter("EventWaiting.output.testspill.spilledBytes").getCount());
+        // New events go after the spilled ones
+        Assert.assertEquals(0, queue.take().get("message"));
+        queue.put(getEvent(10));
+        for (int i = 1; i <= 10; i++) {
+            Assert.assertEquals(i, queue.poll(1, TimeUnit.SECONDS).get("message"));
+        }
+        Assert.assertNull(queue.poll());
+        Assert.assertEquals(0, queue.getSpilled());
+        Assert.assertEquals(9, Properties.metrics.meter("EventWaiting.output.testspill.replayed").getCount() - replayed);
+        // Back to memory
+        Assert.assertTrue(queue.offer(getEvent(11)));
+        Assert.assertEquals(0, queue.getSpilled());
+    }
+
+    @Test
+    public void testRestart() throws IOException, InterruptedException {
+        Path directory = folder.getRoot().toPath();
+        SpillingQueue queue = new SpillingQueue(new ArrayBlockingQueue<>(1), directory, 1024, 1024 * 1024);
+        for (int i = 0; i < 200; i++) {
+            Assert.assertTrue(queue.offer(getEvent(i)));
+        }
+        // Consume some spilled events, they are not replayed again
+        for (int i = 0; i < 50; i++) {
+            Assert.assertEquals(i, queue.poll().get("message"));
+        }
+        SpillingQueue reloaded = new SpillingQueue(new ArrayBlockingQueue<>(10), directory, 1024, 1024 * 1024);
+        Assert.assertEquals(150, reloaded.getSpilled());
+        for (int i = 50; i < 200; i++) {
+            Assert.assertEquals(i, reloaded.poll().get("message"));
+        }
+        Assert.assertNull(reloaded.poll());
+    }
+
+    @Test
+    public void testFull() throws IOException, InterruptedException {
+        SpillingQueue queue = new SpillingQueue(new ArrayBlockingQueue<>(1), folder.getRoot().toPath(), 1024, 2048);
+        int count = 0;
+        while (queue.offer(getEvent(count))) {
+            count++;
+        }
+        Assert.assertTrue(count > 1);
+        Assert.assertEquals(0, queue.remainingCapacity());
+        Assert.assertFalse(queue.offer(getEvent(count), 10, TimeUnit.MILLISECONDS));
+        // Consuming the first segment frees it
+        boolean freed = false;
+        for (int i = 0; i < count && ! freed; i++) {
+            Assert.assertEquals(i, queue.poll().get("message"));
+            freed = queue.offer(getEvent(count));
+        }
+        Assert.assertTrue(freed);
+    }
+
+    @Test(timeout=5000)
+    public void testTooBig() throws IOException, InterruptedException {
+        SpillingQueue queue = new SpillingQueue(new ArrayBlockingQueue<>(1), folder.getRoot().toPath(), 64, 1024);
+        Assert.assertTrue(queue.offer(getEvent(0)));
+        Event e = getEvent(1);
+        e.put("payload", new String(new byte[128]));
+        Assert.assertFalse(queue.offer(e));
+        Assert.assertFalse(queue.offer(e, 1, TimeUnit.SECONDS));
+        // Dropped, instead of waiting forever
+        long dropped = Stats.dropped.get();
+        queue.put(e);
+        Assert.assertEquals(dropped + 1, Stats.dropped.get());
+        Assert.assertEquals(1, queue.size());
+    }
+
+}
@@ -1,6 +1,7 @@
 package loghub;
 
 import java.io.IOException;
+import java.text.MessageFormat;
 import java.time.ZonedDateTime;
 import java.util.Arrays;
 import java.util.Collections;
@@ -16,6 +17,7 @@ import org.apache.logging.log4j.Logger;
 import org.apache.logging.log4j.core.config.Configurator;
 import org.junit.Assert;
 import org.junit.BeforeClass;
+import org.junit.Ignore;
 import org.junit.Test;
 
 public class TestVarFormatter {
@@ -152,6 +154,65 @@ public class TestVarFormatter {
         Assert.assertTrue(varformatter < printf);
     }
 
+    @Test
+    public void testLikeMessageFormat() {
+        Map<String, Object> values = new HashMap<>();
+        values.put("host", "localhost");
+        values.put("program", "sshd");
+        MessageFormat mf = new MessageFormat("{0}/{1}.log", Locale.getDefault());
+        VarFormatter vf = new VarFormatter("${host}/${program}.log", Locale.getDefault());
+        Assert.assertEquals(mf.format(new Object[] {"localhost", "sshd"}), vf.format(values));
+    }
+
+    /**
+     * A benchmark against {@link MessageFormat}, it only logs the durations.
+     */
+    @Ignore
+    @Test
+    public void benchmarkMessageFormat() {
+        Map<String, Object> values = new HashMap<>();
+        values.put("host", "localhost");
+        values.put("program", "sshd");
+        MessageFormat mf = new MessageFormat("{0}/{1}.log", Locale.getDefault());
+        VarFormatter vf = new VarFormatter("${host}/${program}.log", Locale.getDefault());
+
+        long messageformat = Long.MAX_VALUE;
+        long varformatter = Long.MAX_VALUE;
+        // The first round is a warm up
+        for (int round = 0; round < 2; round++) {
+            long start = System.nanoTime();
+            for(int i = 0 ; i < 1000000 ; i++) {
+                @SuppressWarnings("unused")
+                String a = mf.format(new Object[] {values.get("host"), values.get("program")});
+            }
+            messageformat = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for(int i = 0 ; i < 1000000 ; i++) {
+                @SuppressWarnings("unused")
+                String a = vf.format(values);
+            }
+            varformatter = System.nanoTime() - start;
+        }
+        logger.info("MessageFormat: {}ms, VarFormatter: {}ms", messageformat / 1000000, varformatter / 1000000);
+    }
+
+    @Test
+    public void testConstant() {
+        VarFormatter vf = new VarFormatter("a${}b{}c'd");
+        Assert.assertEquals("a${}b{}c'd", vf.format(Collections.emptyMap()));
+        Assert.assertSame(vf.format(Collections.emptyMap()), vf.format(1));
+    }
+
+    @Test
+    public void testRepeated() {
+        Map<String, Object> values = new HashMap<>();
+        values.put("a", 1);
+        values.put("b", Collections.singletonMap("c", 2));
+        VarFormatter vf = new VarFormatter("${a}-${b.c%02d}-${a%03d}-${d}", Locale.ENGLISH);
+        Assert.assertEquals("1-02-001-null", vf.format(new HashMap<String, Object>(values) {{ put("d", null); }}));
+    }
+
     @Test
     public void testEscape() {
         Map<String, Object> values = Collections.singletonMap("var", 1);
@@ -13,13 +13,17 @@ import org.junit.BeforeClass;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
+import org.junit.rules.TemporaryFolder;
 
+import loghub.BoundedConcurrentQueue;
 import loghub.ContextRule;
 import loghub.Event;
 import loghub.EventsProcessor;
 import loghub.LogUtils;
 import loghub.ProcessorException;
+import loghub.SpillingQueue;
 import loghub.Tools;
+import loghub.configuration.Properties.MetricRegistryWrapper.PipelineMetrics;
 import loghub.processors.Identity;
 import loghub.processors.SyslogPriority;
 
@@ -33,6 +37,9 @@ public class TestConfigurations {
     @Rule
     public ExpectedException thrown = ExpectedException.none();
 
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
     @BeforeClass
     static public void configure() throws IOException {
         Tools.configure();
@@ -82,6 +89,59 @@ public class TestConfigurations {
         }
     }
 
+    @Test
+    public void testSpillQueue() throws ConfigException, IOException {
+        String confile = String.format("queueDepth: 2 spillDirectory: \"%s\" spillMaxSize: 1048576 pipeline[main] { } output $main | { loghub.senders.InMemorySender }",
+                                       folder.getRoot().getAbsolutePath());
+        Properties conf = Tools.loadConf(new StringReader(confile));
+        Assert.assertTrue(conf.outputQueues.get("main") instanceof SpillingQueue);
+        Assert.assertFalse(conf.mainQueue instanceof SpillingQueue);
+        Assert.assertTrue(folder.getRoot().toPath().resolve("main").toFile().isDirectory());
+    }
+
+    @Test
+    public void testTwoPipeBatch() throws InterruptedException, ConfigException, IOException {
+        String confile = "queueType: \"concurrent\" workerBatchSize: 4 pipeline[pipeone] { loghub.processors.Identity } | $main pipeline[main] { } output $main | { loghub.senders.InMemorySender }";
+        Properties conf = Tools.loadConf(new StringReader(confile));
+        Assert.assertTrue(conf.mainQueue instanceof BoundedConcurrentQueue);
+        Thread t = new EventsProcessor(conf.mainQueue, conf.outputQueues, conf.namedPipeLine, conf.maxSteps, conf.repository, conf.workerBatchSize);
+        t.start();
+
+        try {
+            for (int i = 0; i < 10; i++) {
+                Event sent = Tools.getEvent();
+                sent.put("message", i);
+                sent.inject(conf.namedPipeLine.get("pipeone"), conf.mainQueue);
+            }
+            for (int i = 0; i < 10; i++) {
+                Event re = conf.outputQueues.get("main").poll(1, TimeUnit.SECONDS);
+                Assert.assertEquals("wrong event received", i, re.get("message"));
+            }
+        } finally {
+            t.interrupt();
+        }
+    }
+
+    @Test
+    public void testPipelineMetrics() throws InterruptedException, ConfigException, IOException {
+        Properties conf = Tools.loadConf("twopipe.conf");
+        PipelineMetrics pipeoneMetrics = conf.namedPipeLine.get("pipeone").getMetrics();
+        Assert.assertSame(Properties.metrics.counter("Pipeline.pipeone.inflight"), pipeoneMetrics.inflight);
+        Assert.assertSame(Properties.metrics.pausingTimer("Pipeline.pipeone.timer"), pipeoneMetrics.timer);
+        Thread t = new EventsProcessor(conf.mainQueue, conf.outputQueues, conf.namedPipeLine, conf.maxSteps, conf.repository);
+        t.start();
+        try {
+            Event sent = Tools.getEvent();
+            sent.inject(conf.namedPipeLine.get("pipeone"), conf.mainQueue);
+            Assert.assertNotNull(conf.outputQueues.get("main").poll(1, TimeUnit.SECONDS));
+            Assert.assertEquals(1, pipeoneMetrics.timer.getCount());
+            Assert.assertEquals(0, pipeoneMetrics.inflight.getCount());
+            Assert.assertEquals(0, conf.namedPipeLine.get("main").getMetrics().inflight.getCount());
+        } finally {
+            t.interrupt();
+        }
+    }
+
     @Test
     public void testFork() throws InterruptedException, ProcessorException, ConfigException, IOException {
         Properties conf = Tools.loadConf("forkforward.conf");
@@ -15,6 +15,9 @@ import org.junit.Assert;
 import org.junit.BeforeClass;
 import org.junit.Test;
 
+import groovy.lang.Binding;
+import groovy.lang.GroovyShell;
+
 import loghub.ConnectionContext;
 import loghub.Event;
 import loghub.Expression;
@@ -226,4 +229,72 @@ public class TestExpressionParsing {
         Assert.assertEquals(35710, localAddr.getPort());
     }
 
+    @Test
+    public void testCompiled() throws ExpressionException, ProcessorException {
+        Event ev =  Tools.getEvent();
+        ev.put("a", 1);
+        ev.put("b", "abc");
+        ev.put("c", 2.5);
+        ev.putMeta("m", 3);
+        ev.setTimestamp(new Date(0));
+        String[] expressions = new String[] {
+            "[a] + 1", "[a] == 1", "[b] == \"abc\"", "[b] + [a]", "[a] * 2 - 1 >= 1",
+            "[a] / 2", "[c] * 2", "[a] % 2", "1.5 + [a]", "![a]", "-[a]", "[a] < [c] && [b] ==~ /a.c/",
+            "[a] > 1 || [#m] != 3", "([a] + 2) * 3", "[d] == null", "[@timestamp] == [@timestamp]",
+            "\"${b}-${a}\"", "\"${#1}\"([b])", "[b] ==~ /A.C/", "null",
+        };
+        for (String exp: expressions) {
+            Map<String, VarFormatter> formats = new HashMap<>();
+            String source = parseExpression(exp, formats);
+            Expression expression = new Expression(source, new Properties(Collections.emptyMap()).groovyClassLoader, formats);
+            Assert.assertTrue("not compiled: " + source, expression.isCompiled());
+            Binding binding = new Binding();
+            binding.setVariable("event", ev);
+            binding.setVariable("formatters", formats);
+            Object groovyValue = new GroovyShell(binding).evaluate(source);
+            Assert.assertEquals(source, groovyValue, expression.eval(ev));
+        }
+    }
+
+    @Test
+    public void testRegexPrecedence() throws ExpressionException, ProcessorException {
+        Event ev =  Tools.getEvent();
+        ev.put("a", 1);
+        ev.put("b", "abc");
+        // ==~ binds less tightly than ==, so the regex is applied to the boolean
+        for (String exp: new String[] {"[a] == 1 ==~ /true/", "[a] != 1 ==~ /true/", "[b] ==~ /a.c/ && [a] == 1 ==~ /tru./"}) {
+            Map<String, VarFormatter> formats = new HashMap<>();
+            String source = parseExpression(exp, formats);
+            Expression expression = new Expression(source, new Properties(Collections.emptyMap()).groovyClassLoader, formats);
+            Assert.assertTrue("not compiled: " + source, expression.isCompiled());
+            Binding binding = new Binding();
+            binding.setVariable("event", ev);
+            binding.setVariable("formatters", formats);
+            Object groovyValue = new GroovyShell(binding).evaluate(source);
+            Assert.assertEquals(source, groovyValue, expression.eval(ev));
+        }
+    }
+
+    @Test
+    public void testNotCompiled() throws ExpressionException, ProcessorException {
+        Map<String, VarFormatter> formats = new HashMap<>();
+        for (String exp: new String[] {".~1", "1 .| 2", "[a][0]", "new java.util.Date(1)", "[a] =~ /b/", "[ @context principal name ]"}) {
+            String source = parseExpression(exp, formats);
+            Expression expression = new Expression(source, new Properties(Collections.emptyMap()).groovyClassLoader, formats);
+            Assert.assertFalse("compiled: " + source, expression.isCompiled());
+        }
+    }
+
+    @Test(expected=ProcessorException.class)
+    public void testCompiledFailure() throws ExpressionException, ProcessorException {
+        Event ev =  Tools.getEvent();
+        ev.put("a", "b");
+        try {
+            evalExpression("[a c] == 1", ev);
+        } catch (ProcessorException e) {
+            Assert.assertTrue(e.getMessage().startsWith("failed expression"));
+            throw e;
+        }
+    }
+
 }
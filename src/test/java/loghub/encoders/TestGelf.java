@@ -0,0 +1,107 @@
+package loghub.encoders;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import loghub.Event;
+import loghub.LogUtils;
+import loghub.Tools;
+import loghub.configuration.Properties;
+
+public class TestGelf {
+
+    private static Logger logger;
+
+    @BeforeClass
+    static public void configure() throws IOException {
+        Tools.configure();
+        logger = LogManager.getLogger();
+        LogUtils.setLevel(logger, Level.TRACE);
+    }
+
+    private Event getEvent() {
+        Event e = Tools.getEvent();
+        e.setTimestamp(new Date(1500));
+        e.put("shortmessage", "a message");
+        e.put("K1", "V1");
+        e.put("K2", 2);
+        e.put("id", "ignored");
+        e.put("bad key", "ignored");
+        return e;
+    }
+
+    private Map<String, Object> parse(byte[] content) throws IOException {
+        return new ObjectMapper().readValue(content, new TypeReference<Map<String, Object>>() {});
+    }
+
+    private void check(Map<String, Object> gelf) {
+        Assert.assertEquals("1.1", gelf.get("version"));
+        Assert.assertEquals("a message", gelf.get("short_message"));
+        Assert.assertEquals(1.5, gelf.get("timestamp"));
+        Assert.assertEquals("V1", gelf.get("_K1"));
+        Assert.assertEquals(2, gelf.get("_K2"));
+        Assert.assertFalse(gelf.containsKey("_id"));
+        Assert.assertFalse(gelf.containsKey("_bad key"));
+        Assert.assertFalse(gelf.containsKey("_shortmessage"));
+    }
+
+    @Test
+    public void testEncode() throws IOException {
+        Gelf encoder = Gelf.getBuilder().build();
+        Assert.assertTrue(encoder.configure(new Properties(Collections.emptyMap()), null));
+        Event e = getEvent();
+        check(parse(encoder.encode(e)));
+        // The event is not modified
+        Assert.assertEquals("a message", e.get("shortmessage"));
+    }
+
+    @Test
+    public void testBuffer() throws IOException {
+        Gelf.Builder builder = Gelf.getBuilder();
+        builder.setStream(true);
+        Gelf encoder = builder.build();
+        Assert.assertTrue(encoder.configure(new Properties(Collections.emptyMap()), null));
+        ByteBuf buffer = Unpooled.buffer();
+        buffer.writeByte('>');
+        encoder.encode(getEvent(), buffer);
+        Assert.assertEquals('>', buffer.readByte());
+        Assert.assertEquals(0, buffer.getByte(buffer.writerIndex() - 1));
+        byte[] content = new byte[buffer.readableBytes() - 1];
+        buffer.readBytes(content);
+        check(parse(content));
+        Assert.assertEquals(new String(content, StandardCharsets.UTF_8) + "\0", new String(encoder.encode(getEvent()), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testCompressed() throws IOException {
+        Gelf.Builder builder = Gelf.getBuilder();
+        builder.setCompressed(true);
+        Gelf encoder = builder.build();
+        Assert.assertTrue(encoder.configure(new Properties(Collections.emptyMap()), null));
+        ByteBuf buffer = Unpooled.buffer();
+        encoder.encode(getEvent(), buffer);
+        byte[] compressed = new byte[buffer.readableBytes()];
+        buffer.readBytes(compressed);
+        try (GZIPInputStream is = new GZIPInputStream(new ByteArrayInputStream(compressed))) {
+            check(new ObjectMapper().readValue(is, new TypeReference<Map<String, Object>>() {}));
+        }
+    }
+
+}
@@ -1,6 +1,7 @@
 package loghub.netflow;
 
 import java.io.IOException;
+import java.net.InetAddress;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
@@ -13,6 +14,8 @@ import org.junit.Assert;
 import org.junit.BeforeClass;
 import org.junit.Test;
 
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
 import loghub.LogUtils;
 import loghub.Tools;
 import loghub.netflow.IpfixInformationElements;
@@ -45,4 +48,20 @@ public class IpfixInformationElementsTest {
             Assert.assertNotEquals(0, j.size());
         });
     }
+
+    @Test
+    public void testReaders() throws IOException {
+        IpfixInformationElements iie = new IpfixInformationElements();
+        ByteBuf bbuf = Unpooled.wrappedBuffer(new byte[] {10, 0, 0, 1, 0, 0, 1, 0, 'a', 'b', 'c', 1, 2});
+        // sourceIPv4Address
+        Assert.assertEquals(InetAddress.getByAddress(new byte[] {10, 0, 0, 1}), iie.getReader(8).read(bbuf, 4));
+        // octetDeltaCount, an unsigned64 sent with 4 bytes
+        Assert.assertEquals(256L, iie.getReader(1).read(bbuf, 4));
+        // interfaceName
+        Assert.assertEquals("abc", iie.getReader(82).read(bbuf, 3));
+        // Unknown element
+        Assert.assertArrayEquals(new byte[] {1, 2}, (byte[]) iie.getReader(65000).read(bbuf, 2));
+        Assert.assertFalse(bbuf.isReadable());
+    }
+
 }
@@ -0,0 +1,108 @@
+package loghub.netflow;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import loghub.LogUtils;
+import loghub.Tools;
+import loghub.configuration.Properties;
+import loghub.decoders.Decoder.DecodeException;
+
+public class TemplatesCacheTest {
+
+    private static Logger logger;
+
+    @BeforeClass
+    static public void configure() throws IOException {
+        Tools.configure();
+        logger = LogManager.getLogger();
+        LogUtils.setLevel(logger, Level.TRACE, "loghub.netflow");
+    }
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private ByteBuf read(String name) throws IOException {
+        try (InputStream is = getClass().getResourceAsStream("/netflow/packets/" + name);
+             ByteArrayOutputStream out = new ByteArrayOutputStream()) {
+            byte[] buffer = new byte[8*1024];
+            for (int length; (length = is.read(buffer)) != -1; ){
+                out.write(buffer, 0, length);
+            }
+            return Unpooled.wrappedBuffer(out.toByteArray());
+        }
+    }
+
+    private int countRecords(String name, TemplatesCache templates) throws IOException, DecodeException {
+        ByteBuf bbuf = read(name);
+        int records = 0;
+        while (bbuf.isReadable()) {
+            records += PacketFactory.parsePacket(InetAddress.getLoopbackAddress(), bbuf, templates).getRecords().size();
+        }
+        return records;
+    }
+
+    @Test
+    public void testShared() throws IOException, DecodeException {
+        TemplatesCache templates = new TemplatesCache(60, null);
+        long misses = Properties.metrics.meter("netflow.templates.misses").getCount();
+        Assert.assertEquals(0, countRecords("netflow9_test_cisco_asa_1_data.dat", templates));
+        Assert.assertTrue(Properties.metrics.meter("netflow.templates.misses").getCount() > misses);
+        countRecords("netflow9_test_cisco_asa_1_tpl.dat", templates);
+        Assert.assertNotEquals(0, templates.size());
+        long hits = Properties.metrics.meter("netflow.templates.hits").getCount();
+        Assert.assertNotEquals(0, countRecords("netflow9_test_cisco_asa_1_data.dat", templates));
+        Assert.assertTrue(Properties.metrics.meter("netflow.templates.hits").getCount() > hits);
+    }
+
+    @Test
+    public void testExpire() throws IOException, DecodeException {
+        AtomicLong now = new AtomicLong(0);
+        TemplatesCache templates = new TemplatesCache(60, null, now::get);
+        countRecords("netflow9_test_cisco_asa_1_tpl.dat", templates);
+        int size = templates.size();
+        Assert.assertNotEquals(0, size);
+        now.set(30_000);
+        Assert.assertNotEquals(0, countRecords("netflow9_test_cisco_asa_1_data.dat", templates));
+        // Announcing the templates again keeps them alive
+        countRecords("netflow9_test_cisco_asa_1_tpl.dat", templates);
+        now.set(80_000);
+        templates.expire();
+        Assert.assertEquals(size, templates.size());
+        now.set(100_000);
+        Assert.assertEquals(0, countRecords("netflow9_test_cisco_asa_1_data.dat", templates));
+        templates.expire();
+        Assert.assertEquals(0, templates.size());
+    }
+
+    @Test
+    public void testStore() throws IOException, DecodeException {
+        Path store = folder.getRoot().toPath().resolve("templates.bin");
+        TemplatesCache templates = new TemplatesCache(60, store);
+        templates.load();
+        countRecords("netflow9_test_cisco_asa_1_tpl.dat", templates);
+        templates.save();
+        Assert.assertTrue(store.toFile().exists());
+
+        TemplatesCache reloaded = new TemplatesCache(60, store);
+        reloaded.load();
+        Assert.assertEquals(templates.size(), reloaded.size());
+        Assert.assertNotEquals(0, countRecords("netflow9_test_cisco_asa_1_data.dat", reloaded));
+    }
+
+}
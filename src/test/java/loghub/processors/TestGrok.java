@@ -133,6 +133,104 @@ public class TestGrok {
         Assert.assertEquals("FAILED", grok.fieldFunction(e, "www.yahoo.com").toString());
     }
 
+    @Test
+    public void TestRequiredLiterals() {
+        Assert.assertArrayEquals(new String[] {".google.com"}, Grok.requiredLiterals("(?<name0>[a-z]+)\\.google\\.com"));
+        Assert.assertArrayEquals(new String[] {" user ", "for "}, Grok.requiredLiterals("^for (?<user>\\S+) user \\d+"));
+        // Optional or repeated characters
+        Assert.assertArrayEquals(new String[] {"ab", "cd"}, Grok.requiredLiterals("abx?cd"));
+        Assert.assertArrayEquals(new String[] {"abc", "cd"}, Grok.requiredLiterals("abc+d{0,2}cd"));
+        Assert.assertArrayEquals(new String[] {"a]b"}, Grok.requiredLiterals("[]a]+a\\]b[^]]"));
+        // Mandatory groups are explored
+        Assert.assertArrayEquals(new String[] {"user ", " id="}, Grok.requiredLiterals("(?:(?<name0>user \\w+)(?: id=\\d+)(opt)?)"));
+        Assert.assertArrayEquals(new String[] {"ab"}, Grok.requiredLiterals("(?:ab(c|d))"));
+        // Escaped sequences are not literals
+        Assert.assertArrayEquals(new String[] {"ab"}, Grok.requiredLiterals("\\xEFab\\u00e9\\p{Alpha}"));
+        // Nothing is required
+        Assert.assertArrayEquals(new String[] {}, Grok.requiredLiterals("abc|def"));
+        Assert.assertArrayEquals(new String[] {}, Grok.requiredLiterals("(?i)abc"));
+        Assert.assertArrayEquals(new String[] {}, Grok.requiredLiterals("\\Qabc\\E"));
+    }
+
+    @Test
+    public void TestPrefilter() throws ProcessorException {
+        Grok grok = new Grok();
+        grok.setFields(new String[]{"message"});
+        grok.setPattern("%{USERNAME:user} logged from %{IP:ip}");
+
+        Assert.assertTrue("Failed to configure grok", grok.configure(new Properties(Collections.emptyMap())));
+
+        Event e = Tools.getEvent();
+        Assert.assertEquals("FAILED", grok.fieldFunction(e, "someone logged in").toString());
+        Assert.assertEquals("NOSTORE", grok.fieldFunction(e, "someone logged from 127.0.0.1").toString());
+        Assert.assertEquals("someone", e.get("user"));
+        Assert.assertEquals("127.0.0.1", e.get("ip"));
+    }
+
+    @Test
+    public void TestTyped() throws ProcessorException {
+        Grok grok = new Grok();
+        grok.setFields(new String[]{"message"});
+        grok.setPattern("%{WORD:verb} %{NUMBER:size:int} '%{WORD:quoted}'");
+
+        Assert.assertTrue("Failed to configure grok", grok.configure(new Properties(Collections.emptyMap())));
+
+        Event e = Tools.getEvent();
+        Assert.assertEquals("NOSTORE", grok.fieldFunction(e, "GET 1024 'a'").toString());
+        Assert.assertEquals("GET", e.get("verb"));
+        Assert.assertEquals(1024, e.get("size"));
+        Assert.assertEquals("a", e.get("quoted"));
+    }
+
+    @Test
+    public void TestManyPatterns() throws ProcessorException {
+        Grok grok = new Grok();
+        grok.setFields(new String[]{"message"});
+        grok.setPatterns(new String[] {"opened %{WORD:opened}", "closed %{WORD:closed}", "%{WORD:word}"});
+
+        // The given order is kept by default
+        Assert.assertTrue("Failed to configure grok", grok.configure(new Properties(Collections.emptyMap())));
+        Event e = Tools.getEvent();
+        grok.fieldFunction(e, "opened door");
+        Assert.assertEquals("door", e.get("opened"));
+        for (int i = 0; i < 2048; i++) {
+            grok.fieldFunction(Tools.getEvent(), "something");
+        }
+        e = Tools.getEvent();
+        grok.fieldFunction(e, "closed door");
+        Assert.assertEquals("door", e.get("closed"));
+
+        grok.setAdaptiveOrder(true);
+        Assert.assertTrue("Failed to configure grok", grok.configure(new Properties(Collections.emptyMap())));
+        // Enough hits for the catch all pattern to be tried before the others
+        for (int i = 0; i < 2048; i++) {
+            grok.fieldFunction(Tools.getEvent(), "something");
+        }
+        e = Tools.getEvent();
+        grok.fieldFunction(e, "closed door");
+        Assert.assertEquals("closed", e.get("word"));
+        Assert.assertNull(e.get("closed"));
+    }
+
+    @Test
+    public void TestSpeed() throws ProcessorException {
+        Grok grok = new Grok();
+        grok.setFields(new String[]{"message"});
+        grok.setPatterns(new String[] {"%{COMBINEDAPACHELOG}", "(?:%{SYSLOG_LINE})"});
+        Assert.assertTrue("Failed to configure grok", grok.configure(new Properties(Collections.emptyMap())));
+
+        String[] lines = new String[] {
+            "112.169.19.192 - - [06/Mar/2013:01:36:30 +0900] \"GET / HTTP/1.1\" 200 44346 \"-\" \"Mozilla/5.0\"",
+            "<34>1 2016-01-25T12:28:00.164593+01:00 somehost krb5kdc 4906 - -  closing down fd 14",
+            "not a log line",
+        };
+        long start = System.nanoTime();
+        for (int i = 0; i < 30000; i++) {
+            grok.fieldFunction(Tools.getEvent(), lines[i % lines.length]);
+        }
+        logger.debug("30000 lines parsed in {}ms", (System.nanoTime() - start) / 1000000);
+    }
+
     @Test
     public void TestBadPattern() throws ProcessorException {
         Grok grok = new Grok();
@@ -0,0 +1,122 @@
+package loghub.processors;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Ignore;
+import org.junit.Test;
+
+import loghub.Event;
+import loghub.LogUtils;
+import loghub.ProcessorException;
+import loghub.Tools;
+import loghub.configuration.Properties;
+
+public class TestGroovy {
+
+    private static Logger logger;
+
+    @BeforeClass
+    static public void configure() throws IOException {
+        Tools.configure();
+        logger = LogManager.getLogger();
+        LogUtils.setLevel(logger, Level.DEBUG, "loghub.processors.Groovy");
+    }
+
+    private Groovy getProcessor(String script) {
+        Groovy gp = new Groovy();
+        gp.setScript(script);
+        Assert.assertTrue(gp.configure(new Properties(Collections.emptyMap())));
+        return gp;
+    }
+
+    @Test
+    public void testProcess() throws ProcessorException {
+        Groovy gp = getProcessor("event.b = event.a * 2; event.b == 2");
+        Event e = Tools.getEvent();
+        e.put("a", 1);
+        Assert.assertTrue(gp.process(e));
+        Assert.assertEquals(2, e.get("b"));
+        Assert.assertEquals("event.b = event.a * 2; event.b == 2", gp.getScript());
+    }
+
+    @Test
+    public void testFailedCompilation() {
+        Groovy gp = new Groovy();
+        gp.setScript("event.a = ");
+        Assert.assertFalse(gp.configure(new Properties(Collections.emptyMap())));
+    }
+
+    @Test(expected=ProcessorException.class)
+    public void testFailedScript() throws ProcessorException {
+        Groovy gp = getProcessor("throw new RuntimeException('failed')");
+        gp.process(Tools.getEvent());
+    }
+
+    /**
+     * Run the same processor on many events from many threads
+     * @return the number of events processed by seconds
+     */
+    private long runConcurrent(Groovy gp, int threads, int count) throws InterruptedException, ExecutionException {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> results = new ArrayList<>(threads);
+            long start = System.nanoTime();
+            for (int t = 0; t < threads; t++) {
+                int thread = t;
+                results.add(executor.submit(() -> {
+                    for (int i = 0; i < count; i++) {
+                        Event e = Tools.getEvent();
+                        int value = thread * count + i;
+                        e.put("a", value);
+                        Assert.assertTrue(gp.process(e));
+                        Assert.assertEquals(value * 2, e.get("b"));
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> f: results) {
+                f.get();
+            }
+            long elapsed = Math.max(1, System.nanoTime() - start);
+            return threads * count * TimeUnit.SECONDS.toNanos(1) / elapsed;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test(timeout=20000)
+    public void testConcurrent() throws InterruptedException, ExecutionException {
+        // A script variable is used, it must not leak between threads or events
+        Groovy gp = getProcessor("def a = event.a; event.b = a * 2; binding.variables.size() == 1");
+        runConcurrent(gp, 8, 2000);
+    }
+
+    /**
+     * A benchmark, not a unit test, it can run for a long time and only logs the throughput.
+     */
+    @Ignore
+    @Test
+    public void benchmarkThroughput() throws InterruptedException, ExecutionException {
+        Groovy gp = getProcessor("event.b = event.a * 2; true");
+        // Warm up
+        runConcurrent(gp, 1, 10000);
+        int cpus = Runtime.getRuntime().availableProcessors();
+        for (int threads = 1; threads <= cpus; threads *= 2) {
+            logger.info("{} threads: {} events/s", threads, runConcurrent(gp, threads, 20000));
+        }
+    }
+
+}
@@ -2,7 +2,14 @@ package loghub.processors;
 
 import java.io.IOException;
 import java.net.URL;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import javax.script.ScriptEngineManager;
 
@@ -67,4 +74,46 @@ public class TestScript {
         s.process(e);
         Assert.assertTrue("event not transformed", (Boolean) e.get("done")); 
     }
+
+    @Test(timeout=30000)
+    public void testConcurrent() throws InterruptedException, ExecutionException {
+        Script s = new loghub.processors.Script();
+        URL scripturl = getClass().getClassLoader().getResource("scriptpool.js");
+        s.setScript(scripturl.getFile());
+        s.setPoolSize(4);
+        Assert.assertTrue("Script engine for Javascript not found", s.configure(new Properties(Collections.emptyMap())));
+        // Not in a pipeline, the metrics are named after the script file
+        String prefix = "Script.scriptpool.js";
+        long invocations = Properties.metrics.timer(prefix + ".invocation").getCount();
+        long waits = Properties.metrics.timer(prefix + ".poolWait").getCount();
+        int threads = 8;
+        int count = 500;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> results = new ArrayList<>(threads);
+            long start = System.nanoTime();
+            for (int t = 0; t < threads; t++) {
+                int thread = t;
+                results.add(executor.submit(() -> {
+                    for (int i = 0; i < count; i++) {
+                        Event e = Tools.getEvent();
+                        int value = thread * count + i;
+                        e.put("a", value);
+                        Assert.assertTrue(s.process(e));
+                        Assert.assertEquals(value * 2, ((Number) e.get("b")).intValue());
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> f: results) {
+                f.get();
+            }
+            logger.debug("{} events/s", threads * count * TimeUnit.SECONDS.toNanos(1) / Math.max(1, System.nanoTime() - start));
+        } finally {
+            executor.shutdownNow();
+        }
+        Assert.assertEquals(invocations + threads * count, Properties.metrics.timer(prefix + ".invocation").getCount());
+        Assert.assertEquals(waits + threads * count, Properties.metrics.timer(prefix + ".poolWait").getCount());
+    }
+
 }
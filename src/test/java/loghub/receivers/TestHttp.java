@@ -316,6 +316,23 @@ public class TestHttp {
         Assert.assertTrue(Tools.isRecent.apply(e.getTimestamp()));
     }
 
+    @Test
+    public void testBusy() throws IOException {
+        makeReceiver( i -> i.setRetryAfter(5), Collections.emptyMap());
+        URL dest = new URL("http", hostname, port, "/?a=1");
+        doRequest(dest, new byte[]{}, i -> {}, 200);
+        // The queue is full, so the client is asked to retry later
+        HttpURLConnection conn = (HttpURLConnection) dest.openConnection();
+        try {
+            Assert.assertEquals(429, conn.getResponseCode());
+            Assert.assertEquals("5", conn.getHeaderField("Retry-After"));
+        } finally {
+            conn.disconnect();
+        }
+        Assert.assertEquals("1", queue.poll().get("a"));
+        doRequest(dest, new byte[]{}, i -> {}, 200);
+    }
+
     @Test
     public void test_loghub_receivers_Http() throws ClassNotFoundException, IntrospectionException {
         BeanChecks.beansCheck(logger, "loghub.receivers.Http"
@@ -328,6 +345,9 @@ public class TestHttp {
                               ,BeanInfo.build("SSLClientAuthentication", String.class)
                               ,BeanInfo.build("SSLKeyAlias", String.class)
                               ,BeanInfo.build("Decoders", Object.class)
+                              ,BeanInfo.build("retryAfter", Integer.TYPE)
+                              ,BeanInfo.build("highWatermark", Integer.TYPE)
+                              ,BeanInfo.build("lowWatermark", Integer.TYPE)
                         );
     }
 
@@ -0,0 +1,227 @@
+package loghub.receivers;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.MockConsumer;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.clients.consumer.OffsetResetStrategy;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import loghub.Event;
+import loghub.LogUtils;
+import loghub.Pipeline;
+import loghub.Tools;
+import loghub.configuration.Properties;
+import loghub.decoders.StringCodec;
+
+public class TestKafka {
+
+    private static Logger logger;
+
+    @BeforeClass
+    static public void configure() throws IOException {
+        Tools.configure();
+        logger = LogManager.getLogger();
+        LogUtils.setLevel(logger, Level.TRACE, "loghub.receivers.Kafka");
+    }
+
+    @Test
+    public void testOffsets() {
+        Kafka.PartitionOffsets offsets = new Kafka.PartitionOffsets();
+        Assert.assertEquals(-1, offsets.toCommit());
+        for (long i = 10; i < 15; i++) {
+            offsets.received(i);
+        }
+        Assert.assertEquals(5, offsets.getPendingCount());
+        // Nothing acknowledged, the first record is still processed
+        Assert.assertEquals(10, offsets.toCommit());
+        offsets.committed(10);
+        Assert.assertEquals(-1, offsets.toCommit());
+        // Out of order acknowledgment
+        offsets.acknowledged(12);
+        offsets.acknowledged(11);
+        Assert.assertEquals(-1, offsets.toCommit());
+        offsets.acknowledged(10);
+        Assert.assertEquals(13, offsets.toCommit());
+        offsets.acknowledged(13);
+        offsets.acknowledged(14);
+        Assert.assertEquals(0, offsets.getPendingCount());
+        Assert.assertEquals(15, offsets.toCommit());
+        offsets.committed(15);
+        Assert.assertEquals(-1, offsets.toCommit());
+    }
+
+    @Test
+    public void testAcknowledge() {
+        AtomicInteger count = new AtomicInteger();
+        Kafka.KafkaContext ctx = new Kafka.KafkaContext("topic", count::incrementAndGet);
+        ctx.acknowledge();
+        ctx.acknowledge();
+        Assert.assertEquals(1, count.get());
+    }
+
+    @Test
+    public void testAcknowledgeCopies() {
+        AtomicInteger count = new AtomicInteger();
+        Kafka.KafkaContext ctx = new Kafka.KafkaContext("topic", count::incrementAndGet);
+        Kafka.KafkaContext copy = ctx.duplicate();
+        ctx.acknowledge();
+        ctx.acknowledge();
+        Assert.assertEquals(0, count.get());
+        copy.acknowledge();
+        Assert.assertEquals(1, count.get());
+        // Already acknowledged, the copy is not tracked
+        ctx.duplicate().acknowledge();
+        Assert.assertEquals(1, count.get());
+    }
+
+    private boolean isCommitted(MockConsumer<Long, byte[]> mock, TopicPartition tp, long offset) {
+        OffsetAndMetadata committed = mock.committed(tp);
+        return committed != null && committed.offset() == offset;
+    }
+
+    @Test(timeout=10000)
+    public void testDispatch() throws InterruptedException {
+        MockConsumer<Long, byte[]> mock = new MockConsumer<>(OffsetResetStrategy.EARLIEST);
+        TopicPartition tp0 = new TopicPartition("topic", 0);
+        TopicPartition tp1 = new TopicPartition("topic", 1);
+        Map<TopicPartition, Long> beginning = new HashMap<>();
+        beginning.put(tp0, 0L);
+        beginning.put(tp1, 0L);
+        mock.updateBeginningOffsets(beginning);
+        mock.schedulePollTask(() -> {
+            mock.rebalance(Arrays.asList(tp0, tp1));
+            for (int i = 0; i < 10; i++) {
+                mock.addRecord(new ConsumerRecord<>("topic", i % 2, i / 2, null, ("message" + i).getBytes(StandardCharsets.UTF_8)));
+            }
+        });
+        BlockingQueue<Event> queue = new ArrayBlockingQueue<>(20);
+        Kafka r = new Kafka();
+        r.setConsumerFactory(p -> mock);
+        r.setTopic("topic");
+        r.setDecodeThreads(2);
+        r.setCommitInterval(10);
+        r.setOutQueue(queue);
+        r.setPipeline(new Pipeline(Collections.emptyList(), "testone", null));
+        r.setDecoder(StringCodec.getBuilder().build());
+        Assert.assertTrue(r.configure(new Properties(Collections.emptyMap())));
+        r.start();
+        try {
+            List<String> partition0 = new ArrayList<>();
+            for (int i = 0; i < 10; i++) {
+                Event e = queue.take();
+                String message = (String) e.get("message");
+                if (Integer.parseInt(message.substring(7)) % 2 == 0) {
+                    partition0.add(message);
+                }
+                e.end();
+            }
+            // Order is kept inside a partition
+            Assert.assertEquals(Arrays.asList("message0", "message2", "message4", "message6", "message8"), partition0);
+            // All the records were acknowledged, so all the offsets will be committed
+            while (! isCommitted(mock, tp0, 5) || ! isCommitted(mock, tp1, 5)) {
+                Thread.sleep(10);
+            }
+        } finally {
+            r.stopReceiving();
+            r.join(1000);
+        }
+    }
+
+    @Test(timeout=10000)
+    public void testDuplicatedEvent() throws InterruptedException {
+        MockConsumer<Long, byte[]> mock = new MockConsumer<>(OffsetResetStrategy.EARLIEST);
+        TopicPartition tp = new TopicPartition("topic", 0);
+        mock.updateBeginningOffsets(Collections.singletonMap(tp, 0L));
+        mock.schedulePollTask(() -> {
+            mock.rebalance(Collections.singletonList(tp));
+            mock.addRecord(new ConsumerRecord<>("topic", 0, 0, null, "message".getBytes(StandardCharsets.UTF_8)));
+        });
+        BlockingQueue<Event> queue = new ArrayBlockingQueue<>(20);
+        Kafka r = new Kafka();
+        r.setConsumerFactory(p -> mock);
+        r.setTopic("topic");
+        r.setCommitInterval(10);
+        r.setOutQueue(queue);
+        r.setPipeline(new Pipeline(Collections.emptyList(), "testone", null));
+        r.setDecoder(StringCodec.getBuilder().build());
+        Assert.assertTrue(r.configure(new Properties(Collections.emptyMap())));
+        r.start();
+        try {
+            Event e = queue.take();
+            Event copy = e.duplicate();
+            Assert.assertEquals("message", copy.get("message"));
+            e.end();
+            // Many commit intervals, the copy is still processed
+            Thread.sleep(200);
+            Assert.assertFalse(isCommitted(mock, tp, 1));
+            copy.end();
+            while (! isCommitted(mock, tp, 1)) {
+                Thread.sleep(10);
+            }
+        } finally {
+            r.stopReceiving();
+            r.join(1000);
+        }
+    }
+
+    @Test(timeout=10000)
+    public void testTombstone() throws InterruptedException {
+        MockConsumer<Long, byte[]> mock = new MockConsumer<>(OffsetResetStrategy.EARLIEST);
+        TopicPartition tp = new TopicPartition("topic", 0);
+        mock.updateBeginningOffsets(Collections.singletonMap(tp, 0L));
+        mock.schedulePollTask(() -> {
+            mock.rebalance(Collections.singletonList(tp));
+            for (int i = 0; i < 5; i++) {
+                // A tombstone, with a null value, is skipped
+                byte[] value = i == 2 ? null : ("message" + i).getBytes(StandardCharsets.UTF_8);
+                mock.addRecord(new ConsumerRecord<>("topic", 0, i, null, value));
+            }
+        });
+        BlockingQueue<Event> queue = new ArrayBlockingQueue<>(20);
+        Kafka r = new Kafka();
+        r.setConsumerFactory(p -> mock);
+        r.setTopic("topic");
+        r.setDecodeThreads(1);
+        r.setCommitInterval(10);
+        r.setOutQueue(queue);
+        r.setPipeline(new Pipeline(Collections.emptyList(), "testone", null));
+        r.setDecoder(StringCodec.getBuilder().build());
+        Assert.assertTrue(r.configure(new Properties(Collections.emptyMap())));
+        r.start();
+        try {
+            List<String> messages = new ArrayList<>();
+            for (int i = 0; i < 4; i++) {
+                Event e = queue.take();
+                messages.add((String) e.get("message"));
+                e.end();
+            }
+            Assert.assertEquals(Arrays.asList("message0", "message1", "message3", "message4"), messages);
+            // The tombstone was acknowledged too
+            while (! isCommitted(mock, tp, 5)) {
+                Thread.sleep(10);
+            }
+        } finally {
+            r.stopReceiving();
+            r.join(1000);
+        }
+    }
+
+}
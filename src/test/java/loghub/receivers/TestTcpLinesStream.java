@@ -69,6 +69,42 @@ public class TestTcpLinesStream {
         }
     }
 
+    @Test(timeout=5000)
+    public void testBackpressure() throws IOException, InterruptedException {
+        try {
+            makeReceiver( i -> {}, Collections.emptyMap());
+            long paused = Properties.metrics.meter("receiver." + receiver.getReceiverName() + ".paused").getCount();
+            try(Socket socket = new Socket(InetAddress.getLoopbackAddress(), port);) {
+                OutputStream os = socket.getOutputStream();
+                for (int i = 0; i < 10; i++) {
+                    os.write(("LogHub" + i + "\n").getBytes(StandardCharsets.UTF_8));
+                }
+                os.flush();
+                // The queue is full, so reading is paused, but no event is lost
+                long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(2);
+                while (Properties.metrics.meter("receiver." + receiver.getReceiverName() + ".paused").getCount() == paused && System.nanoTime() < deadline) {
+                    Thread.sleep(10);
+                }
+                Assert.assertTrue(Properties.metrics.meter("receiver." + receiver.getReceiverName() + ".paused").getCount() > paused);
+                for (int i = 0; i < 10; i++) {
+                    Event e = queue.poll(1, TimeUnit.SECONDS);
+                    Assert.assertNotNull(e);
+                    Assert.assertEquals("LogHub" + i, e.get("message"));
+                }
+                // Reading was resumed
+                os.write("LogHub\n".getBytes(StandardCharsets.UTF_8));
+                os.flush();
+                Event e = queue.poll(1, TimeUnit.SECONDS);
+                Assert.assertNotNull(e);
+                Assert.assertEquals("LogHub", e.get("message"));
+            }
+        } finally {
+            if (receiver != null) {
+                receiver.stopReceiving();
+            }
+        }
+    }
+
     @Test(timeout=5000)
     public void testSSL() throws IOException, InterruptedException {
         try {
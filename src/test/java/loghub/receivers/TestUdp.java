@@ -1,6 +1,8 @@
 package loghub.receivers;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.DatagramPacket;
 import java.net.DatagramSocket;
 import java.net.InetAddress;
@@ -23,6 +25,7 @@ import loghub.Pipeline;
 import loghub.Tools;
 import loghub.configuration.Properties;
 import loghub.decoders.StringCodec;
+import loghub.netflow.NetflowDecoder;
 
 public class TestUdp {
 
@@ -114,4 +117,45 @@ public class TestUdp {
         }
     }
 
+    @Test(timeout=5000)
+    public void testSplitted() throws IOException, InterruptedException {
+        BlockingQueue<Event> queue = new ArrayBlockingQueue<>(10);
+        byte[] buf;
+        try (InputStream is = getClass().getResourceAsStream("/netflow/packets/ipfix.dat");
+             ByteArrayOutputStream out = new ByteArrayOutputStream()) {
+            byte[] buffer = new byte[8*1024];
+            for (int length; (length = is.read(buffer)) != -1; ){
+                out.write(buffer, 0, length);
+            }
+            buf = out.toByteArray();
+        }
+        receiver = new Udp();
+        receiver.setOutQueue(queue);
+        receiver.setPipeline(new Pipeline(Collections.emptyList(), "testone", null));
+        int port = Tools.tryGetPort();
+        receiver.setHost(InetAddress.getLoopbackAddress().getHostAddress());
+        receiver.setPort(port);
+        receiver.setBufferSize(buf.length + 10);
+        NetflowDecoder.Builder builder = NetflowDecoder.getBuilder();
+        builder.setSplitRecords(true);
+        receiver.setDecoder(builder.build());
+        Assert.assertTrue(receiver.configure(new Properties(Collections.emptyMap())));
+        receiver.start();
+        try (DatagramSocket send = new DatagramSocket()) {
+            send.send(new DatagramPacket(buf, buf.length, new InetSocketAddress(InetAddress.getLoopbackAddress(), port)));
+        }
+        Object msgUuid = null;
+        for (int i = 0; i < 7; i++) {
+            Event e = queue.take();
+            Assert.assertEquals(10, e.get("version"));
+            Assert.assertTrue(e.containsKey("record") || e.containsKey("option"));
+            Assert.assertFalse(e.containsKey("records"));
+            if (msgUuid == null) {
+                msgUuid = e.get("msgUUID");
+            }
+            Assert.assertSame(msgUuid, e.get("msgUUID"));
+        }
+        Assert.assertTrue(queue.isEmpty());
+    }
+
 }
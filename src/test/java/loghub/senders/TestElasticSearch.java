@@ -6,8 +6,14 @@ import java.lang.management.ManagementFactory;
 import java.net.MalformedURLException;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Date;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
 import java.util.TimeZone;
 import java.util.concurrent.ArrayBlockingQueue;
 
@@ -30,6 +36,8 @@ import org.junit.Assert;
 import org.junit.BeforeClass;
 import org.junit.Test;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+
 import loghub.Event;
 import loghub.LogUtils;
 import loghub.Stats;
@@ -192,6 +200,129 @@ public class TestElasticSearch {
         Assert.assertEquals(0, Properties.metrics.counter("Allevents.inflight").getCount());
     }
 
+    @Test
+    public void testBulkContent() throws IOException {
+        Stats.reset();
+        ElasticSearch.Builder esbuilder = new ElasticSearch.Builder();
+        esbuilder.setDestinations(new String[]{"http://localhost:9200", });
+        esbuilder.setIndexformat("'testbulk-'yyyy.MM.dd");
+        ElasticSearch es = esbuilder.build();
+        AbstractHttpSender.Batch batch = es.new Batch();
+        for (int i = 0 ; i < 3 ; i++) {
+            Event ev = Tools.getEvent();
+            ev.put("type", "junit");
+            ev.put("value", "atest\u00e9" + i);
+            ev.setTimestamp(new Date(0));
+            batch.add(ev);
+        }
+        // No type, it will be refused
+        Event ev = Tools.getEvent();
+        ev.setTimestamp(new Date(0));
+        batch.add(ev);
+        ElasticSearch.BulkBuffer buffer = new ElasticSearch.BulkBuffer();
+        List<Event> written = new ArrayList<>();
+        Assert.assertEquals(3, es.putContent(new ArrayDeque<>(batch), buffer, written, 0));
+        Assert.assertEquals(batch.subList(0, 3), written);
+        String[] lines = new String(buffer.getBuffer(), 0, buffer.size(), StandardCharsets.UTF_8).split("\n");
+        Assert.assertEquals(6, lines.length);
+        ObjectMapper mapper = new ObjectMapper();
+        for (int i = 0 ; i < 3 ; i++) {
+            Map<?, ?> action = mapper.readValue(lines[i * 2], Map.class);
+            Assert.assertEquals(Collections.singletonMap("index", mapper.readValue("{\"_index\":\"testbulk-1970.01.01\",\"_type\":\"junit\"}", Map.class)), action);
+            Map<?, ?> document = mapper.readValue(lines[i * 2 + 1], Map.class);
+            Assert.assertEquals(2, document.size());
+            Assert.assertEquals("atest\u00e9" + i, document.get("value"));
+            Assert.assertEquals("1970-01-01T00:00:00.000+0000", document.get("@timestamp"));
+        }
+        // Only the refused event is resolved, the others wait for the bulk response
+        Assert.assertEquals(0, Stats.sent.get());
+        Assert.assertEquals(1, Stats.failed.get());
+    }
+
+    @Test
+    public void testBulkSplit() throws IOException {
+        ElasticSearch.Builder esbuilder = new ElasticSearch.Builder();
+        esbuilder.setDestinations(new String[]{"http://localhost:9200", });
+        esbuilder.setBatchBytes(200);
+        ElasticSearch es = esbuilder.build();
+        AbstractHttpSender.Batch batch = es.new Batch();
+        for (int i = 0 ; i < 10 ; i++) {
+            Event ev = Tools.getEvent();
+            ev.put("type", "junit");
+            ev.put("value", "atest" + i);
+            batch.add(ev);
+        }
+        Deque<Event> remaining = new ArrayDeque<>(batch);
+        ElasticSearch.BulkBuffer buffer = new ElasticSearch.BulkBuffer();
+        int sent = 0;
+        int bulks = 0;
+        while (! remaining.isEmpty()) {
+            buffer.reset();
+            sent += es.putContent(remaining, buffer, new ArrayList<>(), es.getBatchBytes());
+            bulks++;
+            Assert.assertTrue(buffer.size() <= 200);
+        }
+        Assert.assertEquals(10, sent);
+        Assert.assertTrue(bulks > 1);
+        // A document bigger than the limit is sent alone
+        Event big = Tools.getEvent();
+        big.put("type", "junit");
+        big.put("value", String.join("", Collections.nCopies(300, "a")));
+        remaining.add(big);
+        buffer.reset();
+        Assert.assertEquals(1, es.putContent(remaining, buffer, new ArrayList<>(), es.getBatchBytes()));
+        Assert.assertTrue(remaining.isEmpty());
+    }
+
+    @Test
+    public void testCheckResponse() throws IOException {
+        Stats.reset();
+        ElasticSearch.Builder esbuilder = new ElasticSearch.Builder();
+        esbuilder.setDestinations(new String[]{"http://localhost:9200", });
+        ElasticSearch es = esbuilder.build();
+        List<Event> bulk = new ArrayList<>();
+        for (int i = 0 ; i < 4 ; i++) {
+            bulk.add(Tools.getEvent());
+        }
+        String responseJson = "{\"errors\": true, \"items\": ["
+                        + "{\"index\": {\"status\": 201}},"
+                        + "{\"index\": {\"status\": 429, \"error\": {\"type\": \"es_rejected_execution_exception\", \"reason\": \"queue full\"}}},"
+                        + "{\"index\": {\"status\": 400, \"error\": {\"type\": \"mapper_parsing_exception\", \"reason\": \"failed to parse\"}}},"
+                        + "{}"
+                        + "]}";
+        @SuppressWarnings("unchecked")
+        Map<String, Object> response = new ObjectMapper().readValue(responseJson, Map.class);
+        List<Event> rejected = es.checkResponse(bulk, response);
+        Assert.assertEquals(Collections.singletonList(bulk.get(1)), rejected);
+        Assert.assertEquals(1, Stats.sent.get());
+        // The missing item is a failure
+        Assert.assertEquals(2, Stats.failed.get());
+        Assert.assertEquals(2, Stats.getSenderError().size());
+        // No response, everything must be sent again
+        Assert.assertEquals(rejected, es.checkResponse(rejected, null));
+    }
+
+    @Test
+    public void testCheckInvalidResponse() throws IOException {
+        Stats.reset();
+        ElasticSearch.Builder esbuilder = new ElasticSearch.Builder();
+        esbuilder.setDestinations(new String[]{"http://localhost:9200", });
+        ElasticSearch es = esbuilder.build();
+        List<Event> bulk = new ArrayList<>();
+        for (int i = 0 ; i < 2 ; i++) {
+            bulk.add(Tools.getEvent());
+        }
+        @SuppressWarnings("unchecked")
+        Map<String, Object> noItems = new ObjectMapper().readValue("{\"errors\": true}", Map.class);
+        Assert.assertTrue(es.checkResponse(bulk, noItems).isEmpty());
+        Assert.assertEquals(2, Stats.failed.get());
+        @SuppressWarnings("unchecked")
+        Map<String, Object> badItems = new ObjectMapper().readValue("{\"errors\": true, \"items\": [\"index\", {\"index\": {\"error\": \"failed\"}}]}", Map.class);
+        Assert.assertTrue(es.checkResponse(bulk, badItems).isEmpty());
+        Assert.assertEquals(4, Stats.failed.get());
+        Assert.assertEquals(0, Stats.sent.get());
+    }
+
     @Test
     public void testParse() throws MalformedURLException, URISyntaxException {
         String[] destinations  = new String[] {"//localhost", "//truc:9301", "truc", "truc:9300"};
@@ -245,7 +376,8 @@ public class TestElasticSearch {
         es.close();
         Thread.sleep(1000);
         Assert.assertEquals(count, Stats.getSenderError().size());
-        Assert.assertEquals(count * 2, Stats.sent.get());
+        Assert.assertEquals(count, Stats.sent.get());
+        Assert.assertEquals(count, Stats.failed.get());
         logger.debug("Events failed: {}", () -> Stats.getSenderError());
     }
 
@@ -1,12 +1,20 @@
 package loghub.senders;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.Semaphore;
 import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
 
 import org.apache.logging.log4j.Level;
 import org.apache.logging.log4j.LogManager;
@@ -135,6 +143,47 @@ public class TestFile {
         Assert.assertEquals(2L, Stats.sent.get());
     }
 
+    @Test(timeout=2000)
+    public void testBatch() throws IOException, InterruptedException {
+        send(i -> {i.setTruncate(true); i.setBatchSize(1024); i.setFlushInterval(10); i.setSync(true);}, 1, true);
+        send(i -> {i.setBatchSize(1024); i.setFlushInterval(10);}, 2, true);
+        Assert.assertEquals(2L, Stats.sent.get());
+    }
+
+    @Test(timeout=5000)
+    public void testRotate() throws IOException, InterruptedException {
+        File fsend = send(i -> {i.setTruncate(true); i.setSeparator("\n"); i.setBatchSize(1); i.setRotateSize(2); i.setCompression("gz");}, -1, false);
+        for (int i = 2; i <= 3; i++) {
+            BlockingConnectionContext ctx = new BlockingConnectionContext();
+            Event ev = Event.emptyEvent(ctx);
+            ev.put("message", i);
+            queue.add(ev);
+            ctx.getLocalAddress().acquire();
+        }
+        fsend.stopSending();
+        Assert.assertEquals(3L, Stats.sent.get());
+        Assert.assertEquals("3\n", new String(Files.readAllBytes(Paths.get(outFile)), StandardCharsets.UTF_8));
+        // The rotated files are compressed in the background, if rotated in the same second, a counter is added
+        List<String> rotated;
+        do {
+            Thread.sleep(10);
+            try (Stream<Path> files = Files.list(folder.getRoot().toPath())) {
+                rotated = files.map(p -> p.getFileName().toString())
+                               .filter(n -> n.endsWith(".gz"))
+                               .sorted(Comparator.comparing(String::length).thenComparing(Comparator.naturalOrder()))
+                               .collect(Collectors.toList());
+            }
+        } while (rotated.size() < 2);
+        StringBuilder content = new StringBuilder();
+        for (String name: rotated) {
+            try (InputStream is = new GZIPInputStream(Files.newInputStream(folder.getRoot().toPath().resolve(name)))) {
+                content.append((char) is.read());
+                content.append((char) is.read());
+            }
+        }
+        Assert.assertEquals("1\n2\n", content.toString());
+    }
+
     @Test
     public void testBrokenFormatter() throws IOException, InterruptedException {
         outFile = Paths.get(folder.getRoot().getCanonicalPath(), "file1").toAbsolutePath().toString();
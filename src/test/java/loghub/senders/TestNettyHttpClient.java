@@ -0,0 +1,187 @@
+package loghub.senders;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.core.config.Configurator;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExternalResource;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import loghub.Event;
+import loghub.HttpTestServer;
+import loghub.LogUtils;
+import loghub.Tools;
+import loghub.configuration.Properties;
+import loghub.netty.http.ContentType;
+import loghub.netty.http.HttpRequestFailure;
+import loghub.netty.http.HttpRequestProcessing;
+import loghub.netty.http.RequestAccept;
+
+public class TestNettyHttpClient {
+
+    private static Logger logger;
+
+    @BeforeClass
+    static public void configure() throws IOException {
+        Tools.configure();
+        logger = LogManager.getLogger();
+        LogUtils.setLevel(logger, Level.TRACE, "loghub.senders", "loghub.HttpTestServer");
+        Configurator.setLevel("org", Level.ERROR);
+    }
+
+    @ContentType("text/plain; charset=utf-8")
+    @RequestAccept(path="/echo", methods={"POST"})
+    private static class EchoHandler extends HttpRequestProcessing {
+        @Override
+        protected boolean processRequest(FullHttpRequest request, ChannelHandlerContext ctx) throws HttpRequestFailure {
+            String auth = request.headers().get(HttpHeaderNames.AUTHORIZATION, "");
+            String body = request.content().toString(StandardCharsets.UTF_8);
+            ByteBuf content = Unpooled.copiedBuffer(auth + "\n" + body, StandardCharsets.UTF_8);
+            return writeResponse(ctx, request, content, content.readableBytes());
+        }
+    }
+
+    private static class EchoSender extends AbstractHttpSender {
+        private static class Builder extends AbstractHttpSender.Builder<EchoSender> {
+            @Override
+            public EchoSender build() {
+                return new EchoSender(this);
+            }
+        }
+        private final BlockingQueue<String> flushed = new LinkedBlockingQueue<>();
+        EchoSender(Builder builder) {
+            super(builder);
+        }
+        @Override
+        protected String getPublishName() {
+            return "EchoSender";
+        }
+        @Override
+        public String getSenderName() {
+            return "EchoSender";
+        }
+        @Override
+        protected CompletableFuture<?> flush(Batch documents) throws IOException {
+            String content = documents.stream().map(e -> e.get("message").toString()).collect(Collectors.joining(","));
+            HttpRequest request = new HttpRequest();
+            request.setVerb("POST");
+            request.setUrl(endPoints[0]);
+            request.setTypeAndContent("text/plain", StandardCharsets.UTF_8, content.getBytes(StandardCharsets.UTF_8));
+            return doRequestAsync(request).thenApply(r -> {
+                try (HttpResponse response = r; BufferedReader reader = new BufferedReader(response.getContentReader())) {
+                    reader.readLine();
+                    flushed.add(reader.readLine());
+                    return response.getStatus();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        }
+        String echo(String content) throws IOException {
+            HttpRequest request = new HttpRequest();
+            request.setVerb("POST");
+            request.setUrl(endPoints[0]);
+            request.setTypeAndContent("text/plain", StandardCharsets.UTF_8, content.getBytes(StandardCharsets.UTF_8));
+            try (HttpResponse response = doRequest(request)) {
+                Assert.assertFalse(response.isConnexionFailed());
+                Assert.assertEquals(200, response.getStatus());
+                Assert.assertEquals("text/plain", response.getMimeType());
+                try (BufferedReader r = new BufferedReader(response.getContentReader())) {
+                    return r.readLine() + "|" + r.readLine();
+                }
+            }
+        }
+    }
+
+    private final int serverPort = Tools.tryGetPort();
+
+    @Rule
+    public ExternalResource resource = new HttpTestServer(null, serverPort, new EchoHandler());
+
+    private EchoSender getSender(int port) {
+        EchoSender.Builder builder = new EchoSender.Builder();
+        builder.setDestinations(new String[]{"http://localhost:" + port + "/echo"});
+        builder.setHttpClient("netty");
+        builder.setTimeout(1);
+        builder.setThreads(1);
+        builder.setBuffersize(2);
+        builder.setLogin("user");
+        builder.setPassword("password");
+        EchoSender sender = builder.build();
+        sender.setInQueue(new ArrayBlockingQueue<Event>(1));
+        Assert.assertTrue(sender.configure(new Properties(Collections.emptyMap())));
+        return sender;
+    }
+
+    @Test(timeout=10000)
+    public void testRequests() throws IOException {
+        EchoSender sender = getSender(serverPort);
+        try {
+            // Many requests on the same keep-alive connection
+            for (int i = 0; i < 10; i++) {
+                Assert.assertEquals("Basic dXNlcjpwYXNzd29yZA==|message" + i, sender.echo("message" + i));
+            }
+        } finally {
+            sender.stopSending();
+            sender.close();
+        }
+    }
+
+    @Test(timeout=10000)
+    public void testFlush() throws InterruptedException {
+        EchoSender sender = getSender(serverPort);
+        try {
+            for (int i = 0; i < 6; i++) {
+                Event ev = Tools.getEvent();
+                ev.put("message", "message" + i);
+                sender.send(ev);
+                // The batch is full, the response is handled when it's received
+                if (i % 2 == 1) {
+                    Assert.assertEquals("message" + (i - 1) + ",message" + i, sender.flushed.poll(5, TimeUnit.SECONDS));
+                }
+            }
+        } finally {
+            sender.stopSending();
+            sender.close();
+        }
+    }
+
+    @Test(timeout=10000)
+    public void testRefused() throws IOException {
+        EchoSender sender = getSender(Tools.tryGetPort());
+        try {
+            AbstractHttpSender.HttpRequest request = sender.new HttpRequest();
+            request.setVerb("POST");
+            request.setUrl(sender.endPoints[0]);
+            request.setContent(new byte[] {1});
+            try (AbstractHttpSender.HttpResponse response = sender.doRequest(request)) {
+                Assert.assertTrue(response.isConnexionFailed());
+                Assert.assertNotNull(response.getSocketException());
+            }
+        } finally {
+            sender.stopSending();
+            sender.close();
+        }
+    }
+
+}
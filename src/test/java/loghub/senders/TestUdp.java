@@ -0,0 +1,104 @@
+package loghub.senders;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import loghub.Event;
+import loghub.LogUtils;
+import loghub.Tools;
+import loghub.configuration.Properties;
+import loghub.encoders.StringField;
+
+public class TestUdp {
+
+    private static Logger logger;
+
+    @BeforeClass
+    static public void configure() throws IOException {
+        Tools.configure();
+        logger = LogManager.getLogger();
+        LogUtils.setLevel(logger, Level.TRACE, "loghub.senders.Udp");
+    }
+
+    private List<String> receive(DatagramSocket socket, int count) throws IOException {
+        List<String> received = new ArrayList<>(count);
+        byte[] buffer = new byte[1024];
+        for (int i = 0; i < count; i++) {
+            DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+            socket.receive(packet);
+            received.add(new String(packet.getData(), packet.getOffset(), packet.getLength(), StandardCharsets.UTF_8));
+        }
+        return received;
+    }
+
+    private Udp getSender(String routing, String... destinations) {
+        StringField.Builder sfbuilder = StringField.getBuilder();
+        sfbuilder.setFormat("${message%s}");
+        Udp.Builder builder = Udp.getBuilder();
+        builder.setDestinations(destinations);
+        builder.setRouting(routing);
+        builder.setRoutingKey("message");
+        builder.setEncoder(sfbuilder.build());
+        Udp sender = builder.build();
+        sender.setInQueue(new ArrayBlockingQueue<>(10));
+        Assert.assertTrue(sender.configure(new Properties(Collections.emptyMap())));
+        return sender;
+    }
+
+    private void send(Udp sender, String... messages) {
+        for (String message: messages) {
+            Event ev = Tools.getEvent();
+            ev.put("message", message);
+            Assert.assertTrue(sender.send(ev));
+        }
+    }
+
+    @Test(timeout=5000)
+    public void testRoundRobin() throws IOException {
+        try (DatagramSocket socket1 = new DatagramSocket(0, InetAddress.getLoopbackAddress());
+             DatagramSocket socket2 = new DatagramSocket(0, InetAddress.getLoopbackAddress())) {
+            Udp sender = getSender("roundrobin", "127.0.0.1:" + socket1.getLocalPort(), "127.0.0.1:" + socket2.getLocalPort());
+            long sent = Properties.metrics.meter("sender." + sender.getName() + ".datagrams").getCount();
+            try {
+                send(sender, "1", "2", "3", "4");
+                Assert.assertEquals(Arrays.asList("1", "3"), receive(socket1, 2));
+                Assert.assertEquals(Arrays.asList("2", "4"), receive(socket2, 2));
+            } finally {
+                sender.stopSending();
+            }
+            Assert.assertEquals(sent + 4, Properties.metrics.meter("sender." + sender.getName() + ".datagrams").getCount());
+        }
+    }
+
+    @Test(timeout=5000)
+    public void testHash() throws IOException {
+        try (DatagramSocket socket1 = new DatagramSocket(0, InetAddress.getLoopbackAddress());
+             DatagramSocket socket2 = new DatagramSocket(0, InetAddress.getLoopbackAddress())) {
+            Udp sender = getSender("hash", "127.0.0.1:" + socket1.getLocalPort(), "127.0.0.1:" + socket2.getLocalPort());
+            try {
+                // "a".hashCode() is odd and "b".hashCode() is even
+                send(sender, "a", "b", "a");
+                Assert.assertEquals(Arrays.asList("a", "a"), receive(socket2, 2));
+                Assert.assertEquals(Arrays.asList("b"), receive(socket1, 1));
+            } finally {
+                sender.stopSending();
+            }
+        }
+    }
+
+}
@@ -0,0 +1,11 @@
+var transform = function(event) {
+  // A global variable, it would be shared if the engine was shared
+  current = event.get("a");
+  java.lang.Thread.yield();
+  event.put("b", current * 2);
+  return true;
+};
+
+var a = new java.util.HashMap();
+a.put("transform", "transform")
+a;